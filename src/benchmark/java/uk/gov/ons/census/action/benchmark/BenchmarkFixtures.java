@@ -0,0 +1,44 @@
+package uk.gov.ons.census.action.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import uk.gov.ons.census.action.config.AppConfig;
+import uk.gov.ons.census.action.model.dto.ResponseManagementEvent;
+
+/*
+ * Realistic messages for each of the event types the action processor receives, kept in
+ * src/benchmark/resources/fixtures.
+ */
+final class BenchmarkFixtures {
+  static final String CASE_CREATED = "case-created";
+  static final String CASE_UPDATED = "case-updated";
+  static final String UAC_UPDATED = "uac-updated";
+  static final String FULFILMENT_REQUESTED = "fulfilment-requested";
+
+  // Configured exactly as the application's own ObjectMapper
+  static final ObjectMapper OBJECT_MAPPER = new AppConfig().objectMapper();
+
+  private BenchmarkFixtures() {}
+
+  static byte[] loadMessageBody(String fixtureName) {
+    String resourceName = String.format("/fixtures/%s.json", fixtureName);
+    try (InputStream inputStream = BenchmarkFixtures.class.getResourceAsStream(resourceName)) {
+      if (inputStream == null) {
+        throw new IllegalArgumentException(String.format("No fixture %s", resourceName));
+      }
+      return inputStream.readAllBytes();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  static ResponseManagementEvent loadEvent(String fixtureName) {
+    try {
+      return OBJECT_MAPPER.readValue(loadMessageBody(fixtureName), ResponseManagementEvent.class);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
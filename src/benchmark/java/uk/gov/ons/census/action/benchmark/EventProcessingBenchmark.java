@@ -0,0 +1,143 @@
+package uk.gov.ons.census.action.benchmark;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.test.util.ReflectionTestUtils;
+import uk.gov.ons.census.action.messaging.CaseAndUacReceiver;
+import uk.gov.ons.census.action.model.dto.CollectionCase;
+import uk.gov.ons.census.action.model.dto.FulfilmentRequestDTO;
+import uk.gov.ons.census.action.model.entity.Case;
+import uk.gov.ons.census.action.model.repository.FulfilmentCase;
+import uk.gov.ons.census.action.service.FulfilmentCode;
+import uk.gov.ons.census.action.service.FulfilmentCodeRegistry;
+import uk.gov.ons.census.action.service.FulfilmentRequestService;
+import uk.gov.ons.census.action.utility.QuestionnaireTypeHelper;
+
+/*
+ * The in-memory work done for each event, without any database or broker calls. The private
+ * methods are called through method handles, which the JIT inlines like a direct call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventProcessingBenchmark {
+  private static final MethodHandle SET_CASE_DETAILS =
+      findPrivateMethod(
+          CaseAndUacReceiver.class,
+          "setCaseDetails",
+          MethodType.methodType(void.class, CollectionCase.class, Case.class));
+
+  private static final MethodHandle CHECK_MANDATORY_FIELDS =
+      findPrivateMethod(
+          FulfilmentRequestService.class,
+          "checkMandatoryFields",
+          MethodType.methodType(
+              void.class,
+              FulfilmentRequestDTO.class,
+              FulfilmentCase.class,
+              FulfilmentCode.class));
+
+  private CaseAndUacReceiver caseAndUacReceiver;
+  private FulfilmentRequestService fulfilmentRequestService;
+  private CollectionCase createdCollectionCase;
+  private CollectionCase updatedCollectionCase;
+  private FulfilmentRequestDTO fulfilmentRequest;
+  private FulfilmentCase fulfilmentCase;
+  private FulfilmentCode fulfilmentCode;
+  private String censusQuestionnaireId;
+  private String ccsQuestionnaireId;
+
+  @Setup
+  public void setUp() throws Throwable {
+    caseAndUacReceiver = new CaseAndUacReceiver(null, null, null, null, null, null);
+
+    FulfilmentCodeRegistry fulfilmentCodeRegistry = new FulfilmentCodeRegistry();
+    ReflectionTestUtils.setField(
+        fulfilmentCodeRegistry, "location", new ClassPathResource("fulfilment-codes.csv"));
+    fulfilmentCodeRegistry.load();
+    fulfilmentRequestService = new FulfilmentRequestService(null, null, null, fulfilmentCodeRegistry);
+
+    createdCollectionCase =
+        BenchmarkFixtures.loadEvent(BenchmarkFixtures.CASE_CREATED)
+            .getPayload()
+            .getCollectionCase();
+    updatedCollectionCase =
+        BenchmarkFixtures.loadEvent(BenchmarkFixtures.CASE_UPDATED)
+            .getPayload()
+            .getCollectionCase();
+    fulfilmentRequest =
+        BenchmarkFixtures.loadEvent(BenchmarkFixtures.FULFILMENT_REQUESTED)
+            .getPayload()
+            .getFulfilmentRequest();
+
+    // The fulfilment is for a hand delivered case, so every mandatory field is checked
+    fulfilmentCase = FulfilmentCase.fromCase(setCaseDetails(updatedCollectionCase));
+    fulfilmentRequest.setFulfilmentCode("P_UAC_UACHHP1");
+    fulfilmentCode = fulfilmentRequestService.determineFulfilmentCode("P_UAC_UACHHP1");
+
+    censusQuestionnaireId =
+        BenchmarkFixtures.loadEvent(BenchmarkFixtures.UAC_UPDATED)
+            .getPayload()
+            .getUac()
+            .getQuestionnaireId();
+    ccsQuestionnaireId = "5120000000005723";
+  }
+
+  @Benchmark
+  public Case setCaseDetailsForCaseCreated() throws Throwable {
+    return setCaseDetails(createdCollectionCase);
+  }
+
+  @Benchmark
+  public Case setCaseDetailsForCaseUpdated() throws Throwable {
+    return setCaseDetails(updatedCollectionCase);
+  }
+
+  @Benchmark
+  public void checkMandatoryFields() throws Throwable {
+    CHECK_MANDATORY_FIELDS.invokeExact(
+        fulfilmentRequestService, fulfilmentRequest, fulfilmentCase, fulfilmentCode);
+  }
+
+  @Benchmark
+  public boolean isCCSQuestionnaireTypeForCensus() {
+    return QuestionnaireTypeHelper.isCCSQuestionnaireType(censusQuestionnaireId);
+  }
+
+  @Benchmark
+  public boolean isCCSQuestionnaireTypeForCCS() {
+    return QuestionnaireTypeHelper.isCCSQuestionnaireType(ccsQuestionnaireId);
+  }
+
+  private Case setCaseDetails(CollectionCase collectionCase) throws Throwable {
+    Case caze = new Case();
+    SET_CASE_DETAILS.invokeExact(caseAndUacReceiver, collectionCase, caze);
+    return caze;
+  }
+
+  static MethodHandle findPrivateMethod(Class<?> owner, String name, MethodType methodType) {
+    try {
+      return MethodHandles.privateLookupIn(owner, MethodHandles.lookup())
+          .findVirtual(owner, name, methodType);
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException(
+          String.format("Could not find %s.%s", owner.getSimpleName(), name), e);
+    }
+  }
+}
@@ -0,0 +1,56 @@
+package uk.gov.ons.census.action.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.test.util.ReflectionTestUtils;
+import uk.gov.ons.census.action.model.entity.FulfilmentType;
+import uk.gov.ons.census.action.service.FulfilmentCode;
+import uk.gov.ons.census.action.service.FulfilmentCodeRegistry;
+
+/*
+ * Compares looking up a fulfilment code in FulfilmentCodeRegistry with the switch it replaced. The
+ * codes cover the first and last cases of the switch, a translation booklet (a prefix rule in the
+ * registry), an ignored code and an unknown code.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FulfilmentCodeBenchmark {
+
+  @Param({"P_OR_H1", "P_UAC_UACCEP2B", "P_TB_TBYSH1", "UACHHT1", "NOT_A_FULFILMENT_CODE"})
+  private String fulfilmentCode;
+
+  private FulfilmentCodeRegistry fulfilmentCodeRegistry;
+
+  @Setup
+  public void setUp() {
+    fulfilmentCodeRegistry = new FulfilmentCodeRegistry();
+    ReflectionTestUtils.setField(
+        fulfilmentCodeRegistry, "location", new ClassPathResource("fulfilment-codes.csv"));
+    fulfilmentCodeRegistry.load();
+  }
+
+  @Benchmark
+  public FulfilmentCode registry() {
+    return fulfilmentCodeRegistry.resolve(fulfilmentCode);
+  }
+
+  @Benchmark
+  public FulfilmentType legacySwitch() {
+    return LegacyFulfilmentCodeSwitch.determineFulfilmentType(fulfilmentCode);
+  }
+}
@@ -0,0 +1,165 @@
+package uk.gov.ons.census.action.benchmark;
+
+import uk.gov.ons.census.action.model.entity.FulfilmentType;
+
+/*
+ * The switch which FulfilmentRequestService used before the fulfilment codes were moved into
+ * fulfilment-codes.csv, kept so that FulfilmentCodeRegistry can be benchmarked against it. The
+ * warning for unexpected codes has been left out so that logging is not measured.
+ */
+final class LegacyFulfilmentCodeSwitch {
+
+  private LegacyFulfilmentCodeSwitch() {}
+
+  static FulfilmentType determineFulfilmentType(String fulfilmentCode) {
+
+    switch (fulfilmentCode) {
+      case "P_OR_H1":
+      case "P_OR_H2":
+      case "P_OR_H2W":
+      case "P_OR_H4":
+      case "P_OR_HC1":
+      case "P_OR_HC2":
+      case "P_OR_HC2W":
+      case "P_OR_HC4":
+        return FulfilmentType.P_OR_HX;
+      case "P_UAC_UACHHP1":
+      case "P_UAC_UACHHP2B":
+      case "P_UAC_UACHHP4":
+        return FulfilmentType.P_UAC_HX;
+      case "P_LP_HL1":
+      case "P_LP_HL2":
+      case "P_LP_HL2W":
+      case "P_LP_HL4":
+        return FulfilmentType.P_LP_HLX;
+      case "P_LP_ILP1":
+      case "P_LP_ILP2":
+      case "P_LP_ILP2W":
+      case "P_LP_IL4":
+        return FulfilmentType.P_LP_ILX;
+      case "P_ER_ILER1":
+      case "P_ER_ILER2B":
+        return FulfilmentType.P_ER_IL;
+      case "P_TB_TBALB1":
+      case "P_TB_TBAMH1":
+      case "P_TB_TBARA1":
+      case "P_TB_TBARA2":
+      case "P_TB_TBARA4":
+      case "P_TB_TBARM1":
+      case "P_TB_TBBEN1":
+      case "P_TB_TBBEN2":
+      case "P_TB_TBBOS1":
+      case "P_TB_TBBUL1":
+      case "P_TB_TBBUL2":
+      case "P_TB_TBBUL4":
+      case "P_TB_TBBUR1":
+      case "P_TB_TBCAN1":
+      case "P_TB_TBCAN2":
+      case "P_TB_TBCAN4":
+      case "P_TB_TBCZE1":
+      case "P_TB_TBCZE4":
+      case "P_TB_TBFAR1":
+      case "P_TB_TBFAR2":
+      case "P_TB_TBFRE1":
+      case "P_TB_TBGER1":
+      case "P_TB_TBGRE1":
+      case "P_TB_TBGRE2":
+      case "P_TB_TBGUJ1":
+      case "P_TB_TBPAN1":
+      case "P_TB_TBPAN2":
+      case "P_TB_TBHEB1":
+      case "P_TB_TBHIN1":
+      case "P_TB_TBHUN1":
+      case "P_TB_TBHUN4":
+      case "P_TB_TBIRI4":
+      case "P_TB_TBITA1":
+      case "P_TB_TBITA2":
+      case "P_TB_TBJAP1":
+      case "P_TB_TBKOR1":
+      case "P_TB_TBKUR1":
+      case "P_TB_TBKUR2":
+      case "P_TB_TBLAT1":
+      case "P_TB_TBLAT2":
+      case "P_TB_TBLAT4":
+      case "P_TB_TBLIN1":
+      case "P_TB_TBLIT1":
+      case "P_TB_TBLIT4":
+      case "P_TB_TBMAL1":
+      case "P_TB_TBMAL2":
+      case "P_TB_TBMAN1":
+      case "P_TB_TBMAN2":
+      case "P_TB_TBMAN4":
+      case "P_TB_TBNEP1":
+      case "P_TB_TBPAS1":
+      case "P_TB_TBPAS2":
+      case "P_TB_TBPOL1":
+      case "P_TB_TBPOL2":
+      case "P_TB_TBPOL4":
+      case "P_TB_TBPOR1":
+      case "P_TB_TBPOR2":
+      case "P_TB_TBPOR4":
+      case "P_TB_TBPOT1":
+      case "P_TB_TBROM1":
+      case "P_TB_TBROM4":
+      case "P_TB_TBRUS1":
+      case "P_TB_TBRUS2":
+      case "P_TB_TBRUS4":
+      case "P_TB_TBSLE1":
+      case "P_TB_TBSLO1":
+      case "P_TB_TBSLO4":
+      case "P_TB_TBSOM1":
+      case "P_TB_TBSOM4":
+      case "P_TB_TBSPA1":
+      case "P_TB_TBSPA2":
+      case "P_TB_TBSWA1":
+      case "P_TB_TBSWA2":
+      case "P_TB_TBTAG1":
+      case "P_TB_TBTAM1":
+      case "P_TB_TBTHA1":
+      case "P_TB_TBTHA2":
+      case "P_TB_TBTET4":
+      case "P_TB_TBTIG1":
+      case "P_TB_TBTUR1":
+      case "P_TB_TBUKR1":
+      case "P_TB_TBULS4":
+      case "P_TB_TBURD1":
+      case "P_TB_TBVIE1":
+      case "P_TB_TBYSH1":
+        return FulfilmentType.P_TB_TBX;
+      case "UACHHT1":
+      case "UACHHT2":
+      case "UACHHT2W":
+      case "UACHHT4":
+      case "UACIT1":
+      case "UACIT2":
+      case "UACIT2W":
+      case "UACIT4":
+      case "UACCET1":
+      case "UACCET2":
+      case "UACCET2W":
+      case "UACITA1":
+      case "UACITA2B":
+      case "UACITA4":
+      case "RM_TC_HI":
+      case "RM_TC":
+        return null; // Ignore SMS and RM internal fulfilments
+      case "P_OR_I1":
+      case "P_OR_I2":
+      case "P_OR_I2W":
+      case "P_OR_I4":
+        return FulfilmentType.P_OR_IX;
+      case "P_UAC_UACIP1":
+      case "P_UAC_UACIP2B":
+      case "P_UAC_UACIP4":
+      case "P_UAC_UACIPA1":
+      case "P_UAC_UACIPA2B":
+      case "P_UAC_UACIPA4":
+        return FulfilmentType.P_UAC_IX;
+      case "P_UAC_UACCEP1":
+      case "P_UAC_UACCEP2B":
+        return FulfilmentType.P_UAC_CX;
+      default:
+        return null;
+    }
+  }
+}
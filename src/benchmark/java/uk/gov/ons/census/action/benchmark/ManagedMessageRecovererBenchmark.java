@@ -0,0 +1,121 @@
+package uk.gov.ons.census.action.benchmark;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.security.MessageDigest;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.amqp.AmqpRejectAndDontRequeueException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.support.ListenerExecutionFailedException;
+import org.springframework.messaging.MessagingException;
+import org.springframework.test.util.ReflectionTestUtils;
+import uk.gov.ons.census.action.client.ExceptionManagerClient;
+import uk.gov.ons.census.action.messaging.ManagedMessageRecoverer;
+import uk.gov.ons.census.action.metrics.MessageMetrics;
+import uk.gov.ons.census.action.model.dto.ExceptionReportResponse;
+import uk.gov.ons.census.action.model.dto.ResponseManagementEvent;
+
+/*
+ * The cost of a failed message in ManagedMessageRecoverer, with the exception manager replaced by a
+ * stub which answers straight away. messageHash is the hashing on its own, which every failed
+ * delivery pays while holding the shared digest lock.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ManagedMessageRecovererBenchmark {
+  private static final MethodHandle BYTES_TO_HEX_STRING =
+      EventProcessingBenchmark.findPrivateMethod(
+          ManagedMessageRecoverer.class,
+          "bytesToHexString",
+          MethodType.methodType(String.class, byte[].class));
+
+  @Param({
+    BenchmarkFixtures.CASE_CREATED,
+    BenchmarkFixtures.CASE_UPDATED,
+    BenchmarkFixtures.UAC_UPDATED,
+    BenchmarkFixtures.FULFILMENT_REQUESTED
+  })
+  private String fixture;
+
+  private ManagedMessageRecoverer managedMessageRecoverer;
+  private MessageDigest digest;
+  private Message message;
+  private ListenerExecutionFailedException listenerExecutionFailedException;
+
+  @Setup
+  public void setUp() {
+    ExceptionReportResponse exceptionReportResponse = new ExceptionReportResponse();
+    exceptionReportResponse.setLogIt(false);
+    ExceptionManagerClient exceptionManagerClient =
+        new ExceptionManagerClient() {
+          @Override
+          public CompletableFuture<ExceptionReportResponse> reportException(
+              String messageHash,
+              String service,
+              String queue,
+              Throwable cause,
+              String stackTraceRootCause) {
+            return CompletableFuture.completedFuture(exceptionReportResponse);
+          }
+        };
+
+    managedMessageRecoverer =
+        new ManagedMessageRecoverer(
+            exceptionManagerClient,
+            ResponseManagementEvent.class,
+            false,
+            "Action Processor",
+            "case.action",
+            new MessageMetrics(new SimpleMeterRegistry()),
+            // Nothing is cached, so that every failure reaches the exception manager stub
+            Caffeine.newBuilder().maximumSize(0).executor(Runnable::run).build(),
+            BenchmarkFixtures.OBJECT_MAPPER);
+    digest = (MessageDigest) ReflectionTestUtils.getField(ManagedMessageRecoverer.class, "digest");
+
+    message =
+        new Message(BenchmarkFixtures.loadMessageBody(fixture), new MessageProperties());
+    listenerExecutionFailedException =
+        new ListenerExecutionFailedException(
+            "Listener threw exception",
+            new MessagingException(
+                "Could not process message", new RuntimeException("Cannot find case")),
+            message);
+  }
+
+  @Benchmark
+  public String messageHash() throws Throwable {
+    synchronized (digest) {
+      return (String)
+          BYTES_TO_HEX_STRING.invokeExact(managedMessageRecoverer, digest.digest(message.getBody()));
+    }
+  }
+
+  @Benchmark
+  public Exception recover() {
+    try {
+      managedMessageRecoverer.recover(message, listenerExecutionFailedException);
+    } catch (AmqpRejectAndDontRequeueException rejectException) {
+      return rejectException;
+    }
+    throw new IllegalStateException("Expected the message to be rejected");
+  }
+}
@@ -0,0 +1,111 @@
+package uk.gov.ons.census.action.benchmark;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.DefaultClassMapper;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.integration.support.converter.ConfigurableCompositeMessageConverter;
+import uk.gov.ons.census.action.config.AppConfig;
+import uk.gov.ons.census.action.model.dto.ResponseManagementEvent;
+
+/*
+ * Deserialises each kind of message into a ResponseManagementEvent: through the AMQP message
+ * converter, which decodes the body to a String first; through Spring Integration's converter for
+ * our @ServiceActivators, both as configured and with its own default ObjectMapper; and straight
+ * through the ObjectMapper as the batch listener does, both with and without Afterburner.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageConversionBenchmark {
+
+  @Param({
+    BenchmarkFixtures.CASE_CREATED,
+    BenchmarkFixtures.CASE_UPDATED,
+    BenchmarkFixtures.UAC_UPDATED,
+    BenchmarkFixtures.FULFILMENT_REQUESTED
+  })
+  private String fixture;
+
+  private Jackson2JsonMessageConverter messageConverter;
+  private ConfigurableCompositeMessageConverter integrationConverter;
+  private ConfigurableCompositeMessageConverter defaultIntegrationConverter;
+  private ObjectMapper plainObjectMapper;
+  private Message message;
+  private org.springframework.messaging.Message<byte[]> integrationMessage;
+
+  @Setup
+  public void setUp() {
+    // The type id header from the sender is not used, the same as in MessageConsumerConfig
+    DefaultClassMapper classMapper = new DefaultClassMapper();
+    classMapper.setDefaultType(ResponseManagementEvent.class);
+    messageConverter = new AppConfig().messageConverter(BenchmarkFixtures.OBJECT_MAPPER);
+    messageConverter.setClassMapper(classMapper);
+
+    MessageProperties messageProperties = new MessageProperties();
+    messageProperties.setContentType(MessageProperties.CONTENT_TYPE_JSON);
+    message = new Message(BenchmarkFixtures.loadMessageBody(fixture), messageProperties);
+
+    integrationConverter =
+        new AppConfig().argumentResolverMessageConverter(BenchmarkFixtures.OBJECT_MAPPER);
+    defaultIntegrationConverter = new ConfigurableCompositeMessageConverter();
+
+    // The content type is the only header the inbound adapters pass on
+    integrationMessage =
+        MessageBuilder.withPayload(message.getBody())
+            .setHeader("contentType", MessageProperties.CONTENT_TYPE_JSON)
+            .build();
+
+    // The application's ObjectMapper as it was before Afterburner
+    plainObjectMapper = new ObjectMapper();
+    plainObjectMapper.registerModule(new JavaTimeModule());
+    plainObjectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+  }
+
+  @Benchmark
+  public Object messageConverter() {
+    return messageConverter.fromMessage(message);
+  }
+
+  @Benchmark
+  public Object integrationConverter() {
+    return integrationConverter.fromMessage(integrationMessage, ResponseManagementEvent.class);
+  }
+
+  @Benchmark
+  public Object defaultIntegrationConverter() {
+    return defaultIntegrationConverter.fromMessage(
+        integrationMessage, ResponseManagementEvent.class);
+  }
+
+  @Benchmark
+  public ResponseManagementEvent plainObjectMapper() throws IOException {
+    return plainObjectMapper.readValue(message.getBody(), ResponseManagementEvent.class);
+  }
+
+  @Benchmark
+  public ResponseManagementEvent objectMapper() throws IOException {
+    return BenchmarkFixtures.OBJECT_MAPPER.readValue(
+        message.getBody(), ResponseManagementEvent.class);
+  }
+}
@@ -0,0 +1,109 @@
+package uk.gov.ons.census.action.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.godaddy.logging.Logger;
+import com.godaddy.logging.LoggerFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.UUID;
+import javax.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import uk.gov.ons.census.action.model.repository.CaseRepository;
+import uk.gov.ons.census.action.model.repository.FulfilmentCase;
+
+/*
+ * Fulfilment requests tend to arrive in bursts for the same cases, so the cases are kept in memory
+ * for a short time rather than being read from the database every time. Cases which are not found
+ * are never cached, because the case might be created at any moment. Only the columns which
+ * fulfilments use are read and kept, in an immutable FulfilmentCase which can safely be shared by
+ * every thread which looks it up.
+ *
+ * Entries are only invalidated by the case events which this node processes. A case updated on
+ * another node stays stale here until its entry expires, so fulfilments can be processed with the
+ * old hand delivery flag or field IDs, which the mandatory field checks depend on, for up to the
+ * time to live. Keep the time to live below the staleness which fulfilments can put up with.
+ */
+@Component
+public class CaseCache {
+  private static final Logger log = LoggerFactory.getLogger(CaseCache.class);
+
+  private static final String CACHE_NAME = "case";
+
+  private final CaseRepository caseRepository;
+  private final MeterRegistry meterRegistry;
+
+  @Value("${casecache.maximum-size}")
+  private long maximumSize;
+
+  @Value("${casecache.time-to-live}")
+  private long timeToLive;
+
+  private Cache<UUID, FulfilmentCase> cache;
+
+  public CaseCache(CaseRepository caseRepository, MeterRegistry meterRegistry) {
+    this.caseRepository = caseRepository;
+    this.meterRegistry = meterRegistry;
+  }
+
+  @PostConstruct
+  public void init() {
+    cache =
+        Caffeine.newBuilder()
+            .maximumSize(maximumSize)
+            .expireAfterWrite(Duration.ofSeconds(timeToLive))
+            .recordStats()
+            .build();
+
+    // Publishes the size, hits, misses and evictions as cache_* metrics tagged with cache=case
+    CaffeineCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME);
+  }
+
+  public Optional<FulfilmentCase> findByCaseId(UUID caseId) {
+    FulfilmentCase caze = cache.getIfPresent(caseId);
+    if (caze != null) {
+      return Optional.of(caze);
+    }
+
+    Optional<FulfilmentCase> loadedCase = caseRepository.findFulfilmentCaseByCaseId(caseId);
+    loadedCase.ifPresent(loaded -> cache.put(caseId, loaded));
+    return loadedCase;
+  }
+
+  public void invalidate(UUID caseId) {
+    cache.invalidate(caseId);
+
+    // A fulfilment could cache the old version of the case before our transaction commits
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(
+          new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+              cache.invalidate(caseId);
+            }
+          });
+    }
+  }
+
+  public CacheStats getStats() {
+    return cache.stats();
+  }
+
+  @Scheduled(fixedDelayString = "${casecache.stats-log-frequency}")
+  public void logStats() {
+    CacheStats stats = cache.stats();
+    log.with("size", cache.estimatedSize())
+        .with("hits", stats.hitCount())
+        .with("misses", stats.missCount())
+        .with("evictions", stats.evictionCount())
+        .with("hit_rate", stats.hitRate())
+        .info("Case cache statistics");
+  }
+}
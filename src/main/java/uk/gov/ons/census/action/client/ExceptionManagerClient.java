@@ -1,6 +1,31 @@
 package uk.gov.ons.census.action.client;
 
+import com.godaddy.logging.Logger;
+import com.godaddy.logging.LoggerFactory;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import java.net.URI;
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Component;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.util.UriComponents;
@@ -10,8 +35,20 @@ import uk.gov.ons.census.action.model.dto.ExceptionReportResponse;
 import uk.gov.ons.census.action.model.dto.Peek;
 import uk.gov.ons.census.action.model.dto.SkippedMessage;
 
+/*
+ * Calls to the exception manager are made on a small pool of our own threads, over pooled
+ * connections with timeouts, so that a slow exception manager cannot tie up the listener threads.
+ * Each call has a deadline covering the time spent waiting for a thread and for a connection, as
+ * well as the connect and read timeouts. A call which is still waiting for a thread by then is
+ * never made, and a request which is still going is aborted. After too many failures the circuit
+ * breaker opens and calls fail straight away, until the exception manager has had time to recover.
+ */
 @Component
 public class ExceptionManagerClient {
+  private static final Logger log = LoggerFactory.getLogger(ExceptionManagerClient.class);
+
+  // The call being made on each of our threads, so that its request can be aborted
+  private static final ThreadLocal<PendingCall> CURRENT_CALL = new ThreadLocal<>();
 
   @Value("${exceptionmanager.connection.scheme}")
   private String scheme;
@@ -22,7 +59,110 @@ public class ExceptionManagerClient {
   @Value("${exceptionmanager.connection.port}")
   private String port;
 
-  public ExceptionReportResponse reportException(
+  @Value("${exceptionmanager.connection.max-connections}")
+  private int maxConnections;
+
+  @Value("${exceptionmanager.connection.connection-request-timeout}")
+  private int connectionRequestTimeout;
+
+  @Value("${exceptionmanager.connection.connect-timeout}")
+  private int connectTimeout;
+
+  @Value("${exceptionmanager.connection.read-timeout}")
+  private int readTimeout;
+
+  @Value("${exceptionmanager.async.pool-size}")
+  private int poolSize;
+
+  @Value("${exceptionmanager.async.queue-capacity}")
+  private int queueCapacity;
+
+  @Value("${exceptionmanager.async.queue-timeout}")
+  private int queueTimeout;
+
+  @Value("${exceptionmanager.circuitbreaker.failure-rate-threshold}")
+  private float failureRateThreshold;
+
+  @Value("${exceptionmanager.circuitbreaker.sliding-window-size}")
+  private int slidingWindowSize;
+
+  @Value("${exceptionmanager.circuitbreaker.wait-duration-in-open-state}")
+  private long waitDurationInOpenState;
+
+  private CloseableHttpClient httpClient;
+  private RestTemplate restTemplate;
+  private ThreadPoolExecutor executor;
+  private CircuitBreaker circuitBreaker;
+
+  @PostConstruct
+  public void init() {
+    PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+    connectionManager.setMaxTotal(maxConnections);
+    connectionManager.setDefaultMaxPerRoute(maxConnections);
+
+    httpClient =
+        HttpClients.custom()
+            .setConnectionManager(connectionManager)
+            .setDefaultRequestConfig(
+                RequestConfig.custom()
+                    .setConnectionRequestTimeout(connectionRequestTimeout)
+                    .setConnectTimeout(connectTimeout)
+                    .setSocketTimeout(readTimeout)
+                    .build())
+            .build();
+    restTemplate =
+        new RestTemplate(
+            new HttpComponentsClientHttpRequestFactory(httpClient) {
+              @Override
+              protected HttpUriRequest createHttpUriRequest(HttpMethod httpMethod, URI uri) {
+                HttpUriRequest request = super.createHttpUriRequest(httpMethod, uri);
+                PendingCall pendingCall = CURRENT_CALL.get();
+                if (pendingCall != null) {
+                  pendingCall.started(request);
+                }
+                return request;
+              }
+            });
+
+    // Bounded, so that a backlog of calls is refused rather than queued up indefinitely
+    executor =
+        new ThreadPoolExecutor(
+            poolSize,
+            poolSize,
+            0L,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueCapacity),
+            new CustomizableThreadFactory("exception-manager-"));
+
+    circuitBreaker =
+        CircuitBreaker.of(
+            "exceptionManager",
+            CircuitBreakerConfig.custom()
+                .failureRateThreshold(failureRateThreshold)
+                .slidingWindowSize(slidingWindowSize)
+                .minimumNumberOfCalls(slidingWindowSize)
+                .waitDurationInOpenState(Duration.ofMillis(waitDurationInOpenState))
+                .build());
+    circuitBreaker
+        .getEventPublisher()
+        .onStateTransition(
+            event ->
+                log.with("transition", event.getStateTransition())
+                    .warn("Exception manager circuit breaker changed state"));
+  }
+
+  @PreDestroy
+  public void shutdown() throws Exception {
+    executor.shutdown();
+    executor.awaitTermination(readTimeout, TimeUnit.MILLISECONDS);
+    httpClient.close();
+  }
+
+  /*
+   * The answer decides what happens to the message the next time it fails, so nobody has to wait
+   * for it. A listener can carry on straight away, and use the answer if it has already arrived.
+   */
+  public CompletableFuture<ExceptionReportResponse> reportException(
       String messageHash,
       String service,
       String queue,
@@ -37,11 +177,12 @@ public class ExceptionManagerClient {
     exceptionReport.setService(service);
     exceptionReport.setQueue(queue);
 
-    RestTemplate restTemplate = new RestTemplate();
     UriComponents uriComponents = createUriComponents("/reportexception");
 
-    return restTemplate.postForObject(
-        uriComponents.toUri(), exceptionReport, ExceptionReportResponse.class);
+    return submit(
+        () ->
+            restTemplate.postForObject(
+                uriComponents.toUri(), exceptionReport, ExceptionReportResponse.class));
   }
 
   public void respondToPeek(String messageHash, byte[] payload) {
@@ -50,18 +191,92 @@ public class ExceptionManagerClient {
     peekReply.setMessageHash(messageHash);
     peekReply.setMessagePayload(payload);
 
-    RestTemplate restTemplate = new RestTemplate();
     UriComponents uriComponents = createUriComponents("/peekreply");
 
-    restTemplate.postForObject(uriComponents.toUri(), peekReply, Void.class);
+    // Nobody waits for a peek reply, so it is sent in the background
+    submit(() -> restTemplate.postForObject(uriComponents.toUri(), peekReply, Void.class))
+        .exceptionally(
+            throwable -> {
+              log.with("message_hash", messageHash)
+                  .with("reason", throwable.getMessage())
+                  .warn("Could not respond to peek");
+              return null;
+            });
   }
 
   public void storeMessageBeforeSkipping(SkippedMessage skippedMessage) {
 
-    RestTemplate restTemplate = new RestTemplate();
     UriComponents uriComponents = createUriComponents("/storeskippedmessage");
 
-    restTemplate.postForObject(uriComponents.toUri(), skippedMessage, Void.class);
+    // The message must be stored before it is acknowledged, so we have to wait for this one
+    waitFor(
+        submit(
+            () -> restTemplate.postForObject(uriComponents.toUri(), skippedMessage, Void.class)));
+  }
+
+  private <T> CompletableFuture<T> submit(Supplier<T> call) {
+    Supplier<T> circuitBreakerCall = circuitBreaker.decorateSupplier(call);
+    PendingCall pendingCall = new PendingCall();
+    long submittedTime = System.nanoTime();
+
+    CompletableFuture<T> future;
+    try {
+      future =
+          CompletableFuture.supplyAsync(
+              () -> {
+                // Nobody is waiting for it any more, and it doesn't count as a failure
+                if (System.nanoTime() - submittedTime
+                    > TimeUnit.MILLISECONDS.toNanos(queueTimeout)) {
+                  throw new RejectedExecutionException("Waited too long for a thread");
+                }
+
+                CURRENT_CALL.set(pendingCall);
+                try {
+                  return circuitBreakerCall.get();
+                } finally {
+                  CURRENT_CALL.remove();
+                }
+              },
+              executor);
+    } catch (RejectedExecutionException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+
+    long deadline = queueTimeout + connectionRequestTimeout + connectTimeout + readTimeout;
+    return future
+        .orTimeout(deadline, TimeUnit.MILLISECONDS)
+        .whenComplete(
+            (result, throwable) -> {
+              if (unwrap(throwable) instanceof TimeoutException) {
+                pendingCall.abort();
+              }
+            });
+  }
+
+  private <T> T waitFor(CompletableFuture<T> future) {
+    try {
+      // The future fails by itself once the deadline has passed
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted waiting for exception manager", e);
+    } catch (ExecutionException e) {
+      Throwable cause = unwrap(e.getCause());
+      if (cause instanceof TimeoutException) {
+        throw new RuntimeException("Timed out waiting for exception manager", cause);
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new RuntimeException(cause);
+    }
+  }
+
+  private Throwable unwrap(Throwable throwable) {
+    if (throwable instanceof CompletionException && throwable.getCause() != null) {
+      return throwable.getCause();
+    }
+    return throwable;
   }
 
   private UriComponents createUriComponents(String path) {
@@ -73,4 +288,25 @@ public class ExceptionManagerClient {
         .build()
         .encode();
   }
+
+  // Aborting the request closes its connection, which is the only way to stop a blocking call
+  private static class PendingCall {
+    private HttpUriRequest request;
+    private boolean aborted;
+
+    private synchronized void started(HttpUriRequest request) {
+      if (aborted) {
+        request.abort();
+      } else {
+        this.request = request;
+      }
+    }
+
+    private synchronized void abort() {
+      aborted = true;
+      if (request != null) {
+        request.abort();
+      }
+    }
+  }
 }
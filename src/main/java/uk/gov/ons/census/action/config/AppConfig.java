@@ -4,6 +4,8 @@ import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.fasterxml.jackson.module.afterburner.AfterburnerModule;
+import java.util.List;
 import java.util.TimeZone;
 import javax.annotation.PostConstruct;
 import org.springframework.amqp.core.AmqpAdmin;
@@ -13,6 +15,9 @@ import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.integration.context.IntegrationContextUtils;
+import org.springframework.integration.support.converter.ConfigurableCompositeMessageConverter;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
 import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.transaction.annotation.EnableTransactionManagement;
 
@@ -34,15 +39,39 @@ public class AppConfig {
     return rabbitTemplate;
   }
 
+  /*
+   * The one ObjectMapper used for every message, in and out. Afterburner replaces the reflection
+   * used to set each property of the events with generated bytecode.
+   */
   @Bean
-  public Jackson2JsonMessageConverter messageConverter() {
+  public ObjectMapper objectMapper() {
     ObjectMapper objectMapper = new ObjectMapper();
     objectMapper.registerModule(new JavaTimeModule());
+    objectMapper.registerModule(new AfterburnerModule());
     objectMapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
     objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    return objectMapper;
+  }
+
+  @Bean
+  public Jackson2JsonMessageConverter messageConverter(ObjectMapper objectMapper) {
     return new Jackson2JsonMessageConverter(objectMapper);
   }
 
+  /*
+   * Spring Integration converts the message bodies for our @ServiceActivators with its own
+   * ObjectMapper unless it finds this bean. The body arrives as a byte[] and is parsed as it is,
+   * without first being turned into a String.
+   */
+  @Bean(name = IntegrationContextUtils.ARGUMENT_RESOLVER_MESSAGE_CONVERTER_BEAN_NAME)
+  public ConfigurableCompositeMessageConverter argumentResolverMessageConverter(
+      ObjectMapper objectMapper) {
+    MappingJackson2MessageConverter jsonConverter = new MappingJackson2MessageConverter();
+    jsonConverter.setObjectMapper(objectMapper);
+    jsonConverter.setStrictContentTypeMatch(true);
+    return new ConfigurableCompositeMessageConverter(List.of(jsonConverter));
+  }
+
   @Bean
   public AmqpAdmin amqpAdmin(ConnectionFactory connectionFactory) {
     return new RabbitAdmin(connectionFactory);
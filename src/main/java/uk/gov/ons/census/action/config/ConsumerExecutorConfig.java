@@ -0,0 +1,58 @@
+package uk.gov.ons.census.action.config;
+
+import org.springframework.amqp.rabbit.connection.AbstractConnectionFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/*
+ * Direct containers run the listeners on the RabbitMQ client's threads, which are otherwise limited
+ * to two per processor. The connection factory is given a pool with a thread for every direct
+ * consumer on top of those. The pool is a bean of its own, so it is shut down with the application,
+ * and it is handed to the connection factory before any connection has been made.
+ */
+@Configuration
+public class ConsumerExecutorConfig {
+  private static final String CONTAINER_TYPE_DIRECT = "direct";
+
+  @Bean
+  public static BeanPostProcessor rabbitConsumerExecutorPostProcessor(
+      @Qualifier("rabbitConsumerExecutor") ObjectProvider<ThreadPoolTaskExecutor> executor) {
+    return new BeanPostProcessor() {
+      @Override
+      public Object postProcessBeforeInitialization(Object bean, String beanName) {
+        if (bean instanceof AbstractConnectionFactory) {
+          ((AbstractConnectionFactory) bean).setExecutor(executor.getObject());
+        }
+        return bean;
+      }
+    };
+  }
+
+  @Bean
+  public ThreadPoolTaskExecutor rabbitConsumerExecutor(
+      @Value("${queueconfig.inbound-queue-listener.container-type}") String inboundContainerType,
+      @Value("${queueconfig.inbound-queue-listener.consumers}") int inboundConsumers,
+      @Value("${queueconfig.action-fulfilment-listener.container-type}")
+          String actionFulfilmentContainerType,
+      @Value("${queueconfig.action-fulfilment-listener.consumers}") int actionFulfilmentConsumers,
+      @Value("${queueconfig.batch-enabled}") boolean batchEnabled) {
+    int threads = Runtime.getRuntime().availableProcessors() * 2;
+    if (CONTAINER_TYPE_DIRECT.equals(inboundContainerType) && !batchEnabled) {
+      threads += inboundConsumers;
+    }
+    if (CONTAINER_TYPE_DIRECT.equals(actionFulfilmentContainerType)) {
+      threads += actionFulfilmentConsumers;
+    }
+
+    ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    executor.setCorePoolSize(threads);
+    executor.setMaxPoolSize(threads);
+    executor.setThreadNamePrefix("rabbit-consumer-");
+    return executor;
+  }
+}
@@ -1,58 +1,175 @@
 package uk.gov.ons.census.action.config;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.springframework.amqp.core.AcknowledgeMode;
+import org.springframework.amqp.core.Declarable;
+import org.springframework.amqp.core.Declarables;
 import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.core.QueueBuilder;
 import org.springframework.amqp.rabbit.config.RetryInterceptorBuilder;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.amqp.rabbit.listener.AbstractMessageListenerContainer;
+import org.springframework.amqp.rabbit.listener.DirectMessageListenerContainer;
 import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.amqp.rabbit.retry.MessageRecoverer;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.classify.BinaryExceptionClassifier;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.integration.amqp.inbound.AmqpInboundChannelAdapter;
 import org.springframework.integration.amqp.support.DefaultAmqpHeaderMapper;
 import org.springframework.integration.channel.DirectChannel;
 import org.springframework.messaging.MessageChannel;
-import org.springframework.retry.backoff.FixedBackOffPolicy;
+import org.springframework.retry.backoff.ExponentialRandomBackOffPolicy;
 import org.springframework.retry.interceptor.RetryOperationsInterceptor;
+import org.springframework.retry.policy.SimpleRetryPolicy;
+import org.springframework.retry.support.RetryTemplate;
 import uk.gov.ons.census.action.client.ExceptionManagerClient;
+import uk.gov.ons.census.action.exception.NonRetryableException;
+import uk.gov.ons.census.action.messaging.CaseAndUacBatchListener;
+import uk.gov.ons.census.action.messaging.CaseAndUacReceiver;
+import uk.gov.ons.census.action.messaging.CaseLaneDispatcher;
+import uk.gov.ons.census.action.messaging.ConsumerActivity;
+import uk.gov.ons.census.action.messaging.DelayedRedeliveryRecoverer;
+import uk.gov.ons.census.action.messaging.IgnoredMessageFilter;
 import uk.gov.ons.census.action.messaging.ManagedMessageRecoverer;
+import uk.gov.ons.census.action.metrics.MessageMetrics;
 import uk.gov.ons.census.action.model.dto.ResponseManagementEvent;
 
 @Configuration
 public class MessageConsumerConfig {
+  /*
+   * Failures which would fail in exactly the same way if retried, so the message goes straight to
+   * the message recoverer. The exception is looked for anywhere in the chain of causes.
+   */
+  private static final Map<Class<? extends Throwable>, Boolean> NON_RETRYABLE_EXCEPTIONS =
+      Map.of(
+          NonRetryableException.class, false,
+          org.springframework.amqp.support.converter.MessageConversionException.class, false,
+          org.springframework.messaging.converter.MessageConversionException.class, false,
+          JsonProcessingException.class, false);
+
+  private static final String CONTAINER_TYPE_SIMPLE = "simple";
+  private static final String CONTAINER_TYPE_DIRECT = "direct";
+
   private final ExceptionManagerClient exceptionManagerClient;
   private final ConnectionFactory connectionFactory;
+  private final MessageMetrics messageMetrics;
+  private final RabbitTemplate rabbitTemplate;
+  private final IgnoredMessageFilter ignoredMessageFilter;
+  private final ConsumerActivity consumerActivity;
+  private final ObjectMapper objectMapper;
 
   @Value("${messagelogging.logstacktraces}")
   private boolean logStackTraces;
 
-  @Value("${queueconfig.consumers}")
-  private int consumers;
-
   @Value("${queueconfig.retry-attempts}")
   private int retryAttempts;
 
   @Value("${queueconfig.retry-delay}")
-  private int retryDelay;
+  private long retryDelay;
+
+  @Value("${queueconfig.retry-multiplier}")
+  private double retryMultiplier;
+
+  @Value("${queueconfig.retry-max-delay}")
+  private long retryMaxDelay;
+
+  @Value("${queueconfig.redelivery-delays}")
+  private long[] redeliveryDelays;
 
   @Value("${queueconfig.inbound-queue}")
   private String inboundQueue;
 
+  @Value("${queueconfig.inbound-queue-listener.container-type}")
+  private String inboundContainerType;
+
+  @Value("${queueconfig.inbound-queue-listener.consumers}")
+  private int inboundConsumers;
+
+  @Value("${queueconfig.inbound-queue-listener.prefetch}")
+  private int inboundPrefetch;
+
+  @Value("${queueconfig.inbound-queue-listener.messages-per-ack}")
+  private int inboundMessagesPerAck;
+
   @Value("${queueconfig.action-fulfilment-inbound-queue}")
   private String actionFulfilmentQueue;
 
+  @Value("${queueconfig.action-fulfilment-listener.container-type}")
+  private String actionFulfilmentContainerType;
+
+  @Value("${queueconfig.action-fulfilment-listener.consumers}")
+  private int actionFulfilmentConsumers;
+
+  @Value("${queueconfig.action-fulfilment-listener.prefetch}")
+  private int actionFulfilmentPrefetch;
+
+  @Value("${queueconfig.action-fulfilment-listener.messages-per-ack}")
+  private int actionFulfilmentMessagesPerAck;
+
+  @Value("${queueconfig.case-lanes}")
+  private int caseLanes;
+
+  @Value("${queueconfig.batch-enabled}")
+  private boolean batchEnabled;
+
+  @Value("${queueconfig.batch-size}")
+  private int batchSize;
+
+  @Value("${queueconfig.batch-receive-timeout}")
+  private long batchReceiveTimeout;
+
+  @Value("${exceptionmanager.decision-cache.maximum-size}")
+  private long decisionCacheMaximumSize;
+
+  @Value("${exceptionmanager.decision-cache.time-to-live}")
+  private long decisionCacheTimeToLive;
+
   public MessageConsumerConfig(
-      ExceptionManagerClient exceptionManagerClient, ConnectionFactory connectionFactory) {
+      ExceptionManagerClient exceptionManagerClient,
+      ConnectionFactory connectionFactory,
+      MessageMetrics messageMetrics,
+      RabbitTemplate rabbitTemplate,
+      IgnoredMessageFilter ignoredMessageFilter,
+      ConsumerActivity consumerActivity,
+      ObjectMapper objectMapper) {
     this.exceptionManagerClient = exceptionManagerClient;
     this.connectionFactory = connectionFactory;
+    this.messageMetrics = messageMetrics;
+    this.rabbitTemplate = rabbitTemplate;
+    this.ignoredMessageFilter = ignoredMessageFilter;
+    this.consumerActivity = consumerActivity;
+    this.objectMapper = objectMapper;
   }
 
   @Bean
-  public MessageChannel caseCreatedInputChannel() {
-    return new DirectChannel();
+  public Declarables redeliveryQueues() {
+    List<Declarable> queues = new ArrayList<>();
+    for (String queueName : List.of(inboundQueue, actionFulfilmentQueue)) {
+      for (long redeliveryDelay : redeliveryDelays) {
+        queues.add(
+            QueueBuilder.durable(
+                    DelayedRedeliveryRecoverer.retryQueueName(queueName, redeliveryDelay))
+                .ttl((int) redeliveryDelay)
+                .deadLetterExchange("")
+                .deadLetterRoutingKey(queueName)
+                .build());
+      }
+    }
+    return new Declarables(queues);
   }
 
   @Bean
@@ -61,58 +178,197 @@ public class MessageConsumerConfig {
   }
 
   @Bean
-  public AmqpInboundChannelAdapter inbound(
-      @Qualifier("container") SimpleMessageListenerContainer listenerContainer,
-      @Qualifier("caseCreatedInputChannel") MessageChannel channel) {
-    return makeAdapter(listenerContainer, channel);
+  @ConditionalOnProperty(name = "queueconfig.batch-enabled", havingValue = "false")
+  public CaseLaneDispatcher caseLaneDispatcher(CaseAndUacReceiver caseAndUacReceiver) {
+    // A lane retrying on its own thread would hold up every other case in it for the backoff
+    if (caseLanes > 0 && redeliveryDelays.length == 0) {
+      throw new RuntimeException("Case lanes need queueconfig.redelivery-delays to be set");
+    }
+
+    return new CaseLaneDispatcher(
+        caseAndUacReceiver,
+        objectMapper,
+        createRetryTemplate(inboundQueue),
+        createMessageRecoverer(inboundQueue, ResponseManagementEvent.class),
+        message -> ignoredMessageFilter.isIgnoredCaseEvent(message, inboundQueue),
+        consumerActivity,
+        inboundQueue,
+        caseLanes);
   }
 
   @Bean
   public AmqpInboundChannelAdapter fulfilmentRequestInbound(
       @Qualifier("actionFulfilmentContainer")
-          SimpleMessageListenerContainer actionFulfilmentContainer,
+          AbstractMessageListenerContainer actionFulfilmentContainer,
       @Qualifier("actionFulfilmentInputChannel") MessageChannel channel) {
     return makeAdapter(actionFulfilmentContainer, channel);
   }
 
   @Bean
-  public SimpleMessageListenerContainer container() {
-    return setupListenerContainer(inboundQueue, ResponseManagementEvent.class);
+  public AbstractMessageListenerContainer container(
+      CaseAndUacReceiver caseAndUacReceiver,
+      ObjectProvider<CaseLaneDispatcher> caseLaneDispatcher) {
+    if (batchEnabled) {
+      return setupBatchListenerContainer(inboundQueue, caseAndUacReceiver);
+    }
+
+    // Each message is acknowledged by its case lane, once it has been processed
+    AbstractMessageListenerContainer container =
+        createContainer(
+            inboundContainerType, inboundConsumers, inboundPrefetch, inboundMessagesPerAck);
+    container.setQueueNames(inboundQueue);
+    container.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+    container.setMessageListener(caseLaneDispatcher.getObject());
+    // Stopped after the lanes have drained, so they can still acknowledge on its channels
+    container.setPhase(CaseLaneDispatcher.PHASE - 1);
+    return container;
   }
 
   @Bean
-  public SimpleMessageListenerContainer actionFulfilmentContainer() {
-    return setupListenerContainer(actionFulfilmentQueue, ResponseManagementEvent.class);
+  public AbstractMessageListenerContainer actionFulfilmentContainer() {
+    AbstractMessageListenerContainer container =
+        createContainer(
+            actionFulfilmentContainerType,
+            actionFulfilmentConsumers,
+            actionFulfilmentPrefetch,
+            actionFulfilmentMessagesPerAck);
+    return setupListenerContainer(
+        container,
+        actionFulfilmentQueue,
+        ResponseManagementEvent.class,
+        ignoredMessageFilter.fulfilmentAdvice(actionFulfilmentQueue));
   }
 
-  private SimpleMessageListenerContainer setupListenerContainer(
-      String queueName, Class expectedMessageType) {
-    FixedBackOffPolicy fixedBackOffPolicy = new FixedBackOffPolicy();
-    fixedBackOffPolicy.setBackOffPeriod(retryDelay);
+  /*
+   * The simple container has a thread of its own for each consumer. The direct container runs the
+   * listener on the RabbitMQ client's threads, so there is less hand-off between threads for each
+   * message.
+   */
+  private AbstractMessageListenerContainer createContainer(
+      String containerType, int consumers, int prefetch, int messagesPerAck) {
+    AbstractMessageListenerContainer container;
 
-    ManagedMessageRecoverer managedMessageRecoverer =
-        new ManagedMessageRecoverer(
-            exceptionManagerClient,
-            expectedMessageType,
-            logStackTraces,
-            "Action Processor",
-            queueName);
+    if (CONTAINER_TYPE_DIRECT.equals(containerType)) {
+      DirectMessageListenerContainer directContainer =
+          new DirectMessageListenerContainer(connectionFactory);
+      directContainer.setConsumersPerQueue(consumers);
+      directContainer.setMessagesPerAck(messagesPerAck);
+      container = directContainer;
+    } else if (CONTAINER_TYPE_SIMPLE.equals(containerType)) {
+      SimpleMessageListenerContainer simpleContainer =
+          new SimpleMessageListenerContainer(connectionFactory);
+      simpleContainer.setConcurrentConsumers(consumers);
+      simpleContainer.setBatchSize(messagesPerAck);
+      container = simpleContainer;
+    } else {
+      throw new RuntimeException(String.format("Unknown container type '%s'", containerType));
+    }
+
+    container.setPrefetchCount(prefetch);
+    return container;
+  }
 
+  private AbstractMessageListenerContainer setupListenerContainer(
+      AbstractMessageListenerContainer container,
+      String queueName,
+      Class expectedMessageType,
+      MethodInterceptor ignoredMessageAdvice) {
     RetryOperationsInterceptor retryOperationsInterceptor =
         RetryInterceptorBuilder.stateless()
-            .maxAttempts(retryAttempts)
-            .backOffPolicy(fixedBackOffPolicy)
-            .recoverer(managedMessageRecoverer)
+            .retryOperations(createRetryTemplate(queueName))
+            .recoverer(createMessageRecoverer(queueName, expectedMessageType))
             .build();
 
+    container.setQueueNames(queueName);
+    // Ignored messages are dropped before they get anywhere near the retries
+    container.setAdviceChain(
+        consumerActivity.advice(queueName), ignoredMessageAdvice, retryOperationsInterceptor);
+    return container;
+  }
+
+  private SimpleMessageListenerContainer setupBatchListenerContainer(
+      String queueName, CaseAndUacReceiver caseAndUacReceiver) {
+    // Only the simple container can hand the listener a batch of messages
+    if (!CONTAINER_TYPE_SIMPLE.equals(inboundContainerType)) {
+      throw new RuntimeException("Batch consumption needs the simple container type");
+    }
+
+    CaseAndUacBatchListener batchListener =
+        new CaseAndUacBatchListener(
+            caseAndUacReceiver,
+            objectMapper,
+            createRetryTemplate(queueName),
+            createMessageRecoverer(queueName, ResponseManagementEvent.class),
+            message -> ignoredMessageFilter.isIgnoredCaseEvent(message, queueName));
+
     SimpleMessageListenerContainer container =
         new SimpleMessageListenerContainer(connectionFactory);
     container.setQueueNames(queueName);
-    container.setConcurrentConsumers(consumers);
-    container.setAdviceChain(retryOperationsInterceptor);
+    container.setConcurrentConsumers(inboundConsumers);
+    container.setPrefetchCount(inboundPrefetch);
+    container.setConsumerBatchEnabled(true);
+    container.setBatchSize(batchSize);
+    container.setReceiveTimeout(batchReceiveTimeout);
+    container.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+    container.setMessageListener(batchListener);
+    container.setAdviceChain(consumerActivity.advice(queueName));
     return container;
   }
 
+  private RetryTemplate createRetryTemplate(String queueName) {
+    // Randomised, so that messages which failed together are not all retried at the same moment
+    ExponentialRandomBackOffPolicy backOffPolicy = new ExponentialRandomBackOffPolicy();
+    backOffPolicy.setInitialInterval(retryDelay);
+    backOffPolicy.setMultiplier(retryMultiplier);
+    backOffPolicy.setMaxInterval(retryMaxDelay);
+
+    // With delayed redelivery, the consumer thread only makes the one attempt at each delivery
+    int maxAttempts = redeliveryDelays.length > 0 ? 1 : retryAttempts;
+
+    RetryTemplate retryTemplate = new RetryTemplate();
+    retryTemplate.setRetryPolicy(
+        new SimpleRetryPolicy(maxAttempts, NON_RETRYABLE_EXCEPTIONS, true, true));
+    retryTemplate.setBackOffPolicy(backOffPolicy);
+    retryTemplate.registerListener(messageMetrics.retryListener(queueName));
+    return retryTemplate;
+  }
+
+  private MessageRecoverer createMessageRecoverer(String queueName, Class expectedMessageType) {
+    ManagedMessageRecoverer managedMessageRecoverer =
+        createManagedMessageRecoverer(queueName, expectedMessageType);
+    if (redeliveryDelays.length == 0) {
+      return managedMessageRecoverer;
+    }
+
+    BinaryExceptionClassifier retryableClassifier =
+        new BinaryExceptionClassifier(NON_RETRYABLE_EXCEPTIONS, true);
+    retryableClassifier.setTraverseCauses(true);
+
+    return new DelayedRedeliveryRecoverer(
+        rabbitTemplate,
+        queueName,
+        redeliveryDelays,
+        retryableClassifier,
+        managedMessageRecoverer,
+        messageMetrics);
+  }
+
+  private ManagedMessageRecoverer createManagedMessageRecoverer(
+      String queueName, Class expectedMessageType) {
+    return new ManagedMessageRecoverer(
+        exceptionManagerClient,
+        expectedMessageType,
+        logStackTraces,
+        "Action Processor",
+        queueName,
+        messageMetrics,
+        Caffeine.newBuilder()
+            .maximumSize(decisionCacheMaximumSize)
+            .expireAfterWrite(Duration.ofSeconds(decisionCacheTimeToLive))
+            .build(),
+        objectMapper);
+  }
+
   private AmqpInboundChannelAdapter makeAdapter(
       AbstractMessageListenerContainer listenerContainer, MessageChannel channel) {
     AmqpInboundChannelAdapter adapter = new AmqpInboundChannelAdapter(listenerContainer);
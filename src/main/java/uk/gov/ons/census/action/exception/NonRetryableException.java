@@ -0,0 +1,11 @@
+package uk.gov.ons.census.action.exception;
+
+/*
+ * A failure which will happen again however many times the message is retried, e.g. because the
+ * message itself is wrong. Messages which fail with this go straight to the message recoverer.
+ */
+public class NonRetryableException extends RuntimeException {
+  public NonRetryableException(String message) {
+    super(message);
+  }
+}
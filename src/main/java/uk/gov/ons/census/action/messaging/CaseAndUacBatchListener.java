@@ -0,0 +1,155 @@
+package uk.gov.ons.census.action.messaging;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.godaddy.logging.Logger;
+import com.godaddy.logging.LoggerFactory;
+import com.rabbitmq.client.Channel;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+import org.springframework.amqp.AmqpRejectAndDontRequeueException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.listener.api.ChannelAwareBatchMessageListener;
+import org.springframework.amqp.rabbit.retry.MessageRecoverer;
+import org.springframework.amqp.rabbit.support.ListenerExecutionFailedException;
+import org.springframework.amqp.rabbit.support.RabbitExceptionTranslator;
+import org.springframework.amqp.support.converter.MessageConversionException;
+import org.springframework.messaging.MessagingException;
+import org.springframework.retry.RetryOperations;
+import uk.gov.ons.census.action.model.dto.ResponseManagementEvent;
+
+/*
+ * Consumes case.action messages in batches, which must be manually acknowledged. The whole batch is
+ * processed in a single transaction and acknowledged together. If anything in the batch fails, the
+ * messages are processed one at a time, so that only the bad message goes to the recoverer.
+ */
+public class CaseAndUacBatchListener implements ChannelAwareBatchMessageListener {
+  private static final Logger log = LoggerFactory.getLogger(CaseAndUacBatchListener.class);
+
+  private final CaseAndUacReceiver caseAndUacReceiver;
+  private final ObjectMapper objectMapper;
+  private final RetryOperations retryOperations;
+  private final MessageRecoverer messageRecoverer;
+  private final Predicate<Message> ignoredMessages;
+
+  public CaseAndUacBatchListener(
+      CaseAndUacReceiver caseAndUacReceiver,
+      ObjectMapper objectMapper,
+      RetryOperations retryOperations,
+      MessageRecoverer messageRecoverer,
+      Predicate<Message> ignoredMessages) {
+    this.caseAndUacReceiver = caseAndUacReceiver;
+    this.objectMapper = objectMapper;
+    this.retryOperations = retryOperations;
+    this.messageRecoverer = messageRecoverer;
+    this.ignoredMessages = ignoredMessages;
+  }
+
+  @Override
+  public void onMessageBatch(List<Message> messages, Channel channel) {
+    if (messages.isEmpty()) {
+      return;
+    }
+
+    // Ignored messages are still acknowledged along with the rest of the batch. The decision is
+    // kept by position, so the fallback doesn't have to test the messages again or look them up.
+    boolean[] ignored = new boolean[messages.size()];
+    List<Message> messagesToProcess = new ArrayList<>(messages.size());
+    for (int i = 0; i < messages.size(); i++) {
+      ignored[i] = ignoredMessages.test(messages.get(i));
+      if (!ignored[i]) {
+        messagesToProcess.add(messages.get(i));
+      }
+    }
+
+    try {
+      List<ResponseManagementEvent> responseManagementEvents =
+          new ArrayList<>(messagesToProcess.size());
+      for (Message message : messagesToProcess) {
+        responseManagementEvents.add(convert(message));
+      }
+
+      if (!responseManagementEvents.isEmpty()) {
+        caseAndUacReceiver.receiveEvents(responseManagementEvents);
+      }
+    } catch (Exception batchException) {
+      log.with("batch_size", messages.size())
+          .with("cause", batchException.getMessage())
+          .warn("Could not process batch, falling back to processing messages individually");
+
+      for (int i = 0; i < messages.size(); i++) {
+        if (ignored[i]) {
+          acknowledge(messages.get(i), channel);
+        } else {
+          processIndividually(messages.get(i), channel);
+        }
+      }
+      return;
+    }
+
+    // Delivery tags are sequential per channel, so the last one acknowledges the whole batch
+    long lastDeliveryTag =
+        messages.get(messages.size() - 1).getMessageProperties().getDeliveryTag();
+    try {
+      channel.basicAck(lastDeliveryTag, true);
+    } catch (IOException e) {
+      throw RabbitExceptionTranslator.convertRabbitAccessException(e);
+    }
+  }
+
+  private void processIndividually(Message message, Channel channel) {
+    long deliveryTag = message.getMessageProperties().getDeliveryTag();
+    boolean acknowledge;
+
+    try {
+      retryOperations.execute(
+          context -> {
+            caseAndUacReceiver.receiveEvent(convert(message));
+            return null;
+          },
+          context -> {
+            messageRecoverer.recover(
+                message,
+                new ListenerExecutionFailedException(
+                    "Listener threw exception",
+                    new MessagingException("Could not process message", context.getLastThrowable()),
+                    message));
+            return null;
+          });
+      acknowledge = true;
+    } catch (AmqpRejectAndDontRequeueException rejectException) {
+      acknowledge = false;
+    } catch (Exception unexpectedException) {
+      log.error("Unexpected exception has occurred", unexpectedException);
+      acknowledge = false;
+    }
+
+    try {
+      if (acknowledge) {
+        channel.basicAck(deliveryTag, false);
+      } else {
+        // The queue is configured with a dead letter exchange, which will redeliver it later
+        channel.basicReject(deliveryTag, false);
+      }
+    } catch (IOException e) {
+      throw RabbitExceptionTranslator.convertRabbitAccessException(e);
+    }
+  }
+
+  private void acknowledge(Message message, Channel channel) {
+    try {
+      channel.basicAck(message.getMessageProperties().getDeliveryTag(), false);
+    } catch (IOException e) {
+      throw RabbitExceptionTranslator.convertRabbitAccessException(e);
+    }
+  }
+
+  private ResponseManagementEvent convert(Message message) {
+    try {
+      return objectMapper.readValue(message.getBody(), ResponseManagementEvent.class);
+    } catch (IOException e) {
+      throw new MessageConversionException("Could not convert message to event", e);
+    }
+  }
+}
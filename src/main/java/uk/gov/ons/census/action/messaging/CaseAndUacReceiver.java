@@ -2,63 +2,242 @@ package uk.gov.ons.census.action.messaging;
 
 import com.godaddy.logging.Logger;
 import com.godaddy.logging.LoggerFactory;
-import java.util.Optional;
+import io.micrometer.core.instrument.Timer;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.integration.annotation.MessageEndpoint;
-import org.springframework.integration.annotation.ServiceActivator;
 import org.springframework.transaction.annotation.Transactional;
+import uk.gov.ons.census.action.cache.CaseCache;
+import uk.gov.ons.census.action.exception.NonRetryableException;
+import uk.gov.ons.census.action.metrics.MessageMetrics;
 import uk.gov.ons.census.action.model.dto.CollectionCase;
 import uk.gov.ons.census.action.model.dto.EventType;
 import uk.gov.ons.census.action.model.dto.ResponseManagementEvent;
 import uk.gov.ons.census.action.model.dto.Uac;
 import uk.gov.ons.census.action.model.entity.Case;
-import uk.gov.ons.census.action.model.entity.FulfilmentType;
 import uk.gov.ons.census.action.model.entity.RefusalType;
 import uk.gov.ons.census.action.model.entity.UacQidLink;
 import uk.gov.ons.census.action.model.repository.CaseRepository;
+import uk.gov.ons.census.action.model.repository.CaseUpdateOutcome;
+import uk.gov.ons.census.action.model.repository.FulfilmentCase;
 import uk.gov.ons.census.action.model.repository.UacQidLinkRepository;
+import uk.gov.ons.census.action.service.FulfilmentCode;
 import uk.gov.ons.census.action.service.FulfilmentRequestService;
 import uk.gov.ons.census.action.utility.QuestionnaireTypeHelper;
 
 @MessageEndpoint
 public class CaseAndUacReceiver {
   private static final Logger log = LoggerFactory.getLogger(CaseAndUacReceiver.class);
-  private static final String CASE_NOT_FOUND_ERROR = "Failed to find case by case id '%s'";
+  private static final String IGNORED_CCS = "ccs";
+  private static final String IGNORED_UNCHANGED = "unchanged";
 
   private final CaseRepository caseRepository;
   private final UacQidLinkRepository uacQidLinkRepository;
   private final FulfilmentRequestService fulfilmentRequestService;
+  private final FulfilmentRequestReceiver fulfilmentRequestReceiver;
+  private final CaseCache caseCache;
+  private final MessageMetrics messageMetrics;
+
+  @Value("${bulkload.enabled}")
+  private boolean bulkLoadEnabled;
+
+  @Value("${queueconfig.coalesce-updates}")
+  private boolean coalesceUpdates;
+
+  @Value("${queueconfig.inbound-queue}")
+  private String inboundQueue;
 
   public CaseAndUacReceiver(
       CaseRepository caseRepository,
       UacQidLinkRepository uacQidLinkRepository,
-      FulfilmentRequestService fulfilmentRequestService) {
+      FulfilmentRequestService fulfilmentRequestService,
+      FulfilmentRequestReceiver fulfilmentRequestReceiver,
+      CaseCache caseCache,
+      MessageMetrics messageMetrics) {
     this.caseRepository = caseRepository;
     this.uacQidLinkRepository = uacQidLinkRepository;
     this.fulfilmentRequestService = fulfilmentRequestService;
+    this.fulfilmentRequestReceiver = fulfilmentRequestReceiver;
+    this.caseCache = caseCache;
+    this.messageMetrics = messageMetrics;
   }
 
+  // Events reach here through CaseLaneDispatcher, unless they are consumed in batches
   @Transactional
-  @ServiceActivator(inputChannel = "caseCreatedInputChannel")
   public void receiveEvent(ResponseManagementEvent responseManagementEvent) {
-
+    Timer.Sample sample = messageMetrics.startTimer();
     EventType eventType = responseManagementEvent.getEvent().getType();
+    messageMetrics.messageReceived(inboundQueue, eventType);
+    boolean success = false;
+
+    try {
+      // Action processor can ignore CCS cases and just acknowledge the message
+      if (isCCSCase(responseManagementEvent, eventType)) {
+        messageMetrics.messageIgnored(inboundQueue, eventType, IGNORED_CCS);
+      } else {
+        processEvent(responseManagementEvent, eventType);
+      }
+      success = true;
+    } finally {
+      messageMetrics.messageProcessed(sample, inboundQueue, eventType, success);
+    }
+  }
+
+  @Transactional
+  public void receiveEvents(List<ResponseManagementEvent> responseManagementEvents) {
+    Timer.Sample sample = messageMetrics.startTimer();
+    boolean success = false;
+
+    try {
+      processEvents(responseManagementEvents);
+      success = true;
+    } finally {
+      messageMetrics.batchProcessed(sample, inboundQueue, responseManagementEvents.size(), success);
+    }
+  }
+
+  private void processEvents(List<ResponseManagementEvent> responseManagementEvents) {
+    List<Case> casesToInsert = new ArrayList<>();
+    Map<String, UacQidLink> uacQidLinksToUpsert = new LinkedHashMap<>();
+    Set<ResponseManagementEvent> supersededUpdates =
+        coalesceUpdates ? findSupersededUpdates(responseManagementEvents) : Set.of();
+
+    for (ResponseManagementEvent responseManagementEvent : responseManagementEvents) {
+      EventType eventType = responseManagementEvent.getEvent().getType();
+      messageMetrics.messageReceived(inboundQueue, eventType);
+
+      if (isCCSCase(responseManagementEvent, eventType)) {
+        messageMetrics.messageIgnored(inboundQueue, eventType, IGNORED_CCS);
+        continue;
+      }
+
+      // A newer update for the same case later in the batch will be written instead
+      if (supersededUpdates.contains(responseManagementEvent)) {
+        messageMetrics.messageCoalesced(inboundQueue, eventType);
+        continue;
+      }
+
+      // New cases can be written in a single JDBC batch, as long as nothing else needs them first
+      if (eventType == EventType.CASE_CREATED
+          && responseManagementEvent.getPayload().getFulfilmentRequest() == null) {
+        Case newCase = new Case();
+        setCaseDetails(responseManagementEvent.getPayload().getCollectionCase(), newCase);
+        casesToInsert.add(newCase);
+        continue;
+      }
+
+      // Only the last update for each QID in the batch needs writing
+      if (eventType == EventType.UAC_UPDATED) {
+        UacQidLink uacQidLink = buildUacQidLink(responseManagementEvent.getPayload().getUac());
+        uacQidLinksToUpsert.put(uacQidLink.getQid(), uacQidLink);
+        continue;
+      }
+
+      insertCases(casesToInsert);
+      upsertUacQidLinks(uacQidLinksToUpsert);
+      processEvent(responseManagementEvent, eventType);
+    }
+
+    insertCases(casesToInsert);
+    upsertUacQidLinks(uacQidLinksToUpsert);
+  }
+
+  /*
+   * Receipts, refusals and UAC links often cause several CASE_UPDATED events for a case within a few
+   * seconds. Each one holds the whole case, so only the newest for each case in the batch needs
+   * writing, and the rest are acknowledged with the batch.
+   */
+  private Set<ResponseManagementEvent> findSupersededUpdates(
+      List<ResponseManagementEvent> responseManagementEvents) {
+    Map<UUID, ResponseManagementEvent> newestUpdates = new HashMap<>();
+    Set<ResponseManagementEvent> supersededUpdates =
+        Collections.newSetFromMap(new IdentityHashMap<>());
+
+    for (ResponseManagementEvent responseManagementEvent : responseManagementEvents) {
+      if (responseManagementEvent.getEvent().getType() != EventType.CASE_UPDATED) {
+        continue;
+      }
+
+      UUID caseId = responseManagementEvent.getPayload().getCollectionCase().getId();
+      ResponseManagementEvent newestUpdate = newestUpdates.get(caseId);
+      if (newestUpdate == null) {
+        newestUpdates.put(caseId, responseManagementEvent);
+      } else if (isNotNewer(newestUpdate, responseManagementEvent)) {
+        supersededUpdates.add(newestUpdate);
+        newestUpdates.put(caseId, responseManagementEvent);
+      } else {
+        supersededUpdates.add(responseManagementEvent);
+      }
+    }
 
-    // Action processor can ignore CCS cases and just acknowledge the message
-    if (isCCSCase(responseManagementEvent, eventType)) return;
+    return supersededUpdates;
+  }
+
+  // When both have the same lastUpdated, the one received later wins
+  private boolean isNotNewer(ResponseManagementEvent update, ResponseManagementEvent laterUpdate) {
+    OffsetDateTime lastUpdated = update.getPayload().getCollectionCase().getLastUpdated();
+    OffsetDateTime laterLastUpdated = laterUpdate.getPayload().getCollectionCase().getLastUpdated();
+
+    if (lastUpdated == null) {
+      return true;
+    }
+
+    return laterLastUpdated != null && !laterLastUpdated.isBefore(lastUpdated);
+  }
+
+  private void insertCases(List<Case> casesToInsert) {
+    if (casesToInsert.isEmpty()) {
+      return;
+    }
 
+    if (bulkLoadEnabled) {
+      caseRepository.copyAll(List.copyOf(casesToInsert));
+    } else {
+      caseRepository.upsertAll(List.copyOf(casesToInsert));
+    }
+
+    List<FulfilmentCase> createdCases = new ArrayList<>(casesToInsert.size());
+    for (Case caze : casesToInsert) {
+      caseCache.invalidate(caze.getCaseId());
+      createdCases.add(FulfilmentCase.fromCase(caze));
+    }
+    fulfilmentRequestReceiver.releaseParkedFulfilments(createdCases);
+    casesToInsert.clear();
+  }
+
+  private void upsertUacQidLinks(Map<String, UacQidLink> uacQidLinksToUpsert) {
+    if (uacQidLinksToUpsert.isEmpty()) {
+      return;
+    }
+
+    uacQidLinkRepository.upsertAll(List.copyOf(uacQidLinksToUpsert.values()));
+    uacQidLinksToUpsert.clear();
+  }
+
+  private void processEvent(ResponseManagementEvent responseManagementEvent, EventType eventType) {
     if (eventType == EventType.CASE_CREATED) {
 
       Case caze = processCaseCreatedEvent(responseManagementEvent.getPayload().getCollectionCase());
 
       // We can get sent a fulfilment request along with the case, which we need to process
       if (responseManagementEvent.getPayload().getFulfilmentRequest() != null) {
-        FulfilmentType fulfilmentType =
-            fulfilmentRequestService.determineFulfilmentType(
+        FulfilmentCode fulfilmentCode =
+            fulfilmentRequestService.determineFulfilmentCode(
                 responseManagementEvent.getPayload().getFulfilmentRequest().getFulfilmentCode());
 
         fulfilmentRequestService.processEvent(
-            responseManagementEvent.getPayload().getFulfilmentRequest(), caze, fulfilmentType);
+            responseManagementEvent.getPayload().getFulfilmentRequest(),
+            FulfilmentCase.fromCase(caze),
+            fulfilmentCode);
       }
       return;
     }
@@ -73,7 +252,7 @@ public class CaseAndUacReceiver {
       return;
     }
 
-    throw new RuntimeException(String.format("Unexpected event type '%s'", eventType));
+    throw new NonRetryableException(String.format("Unexpected event type '%s'", eventType));
   }
 
   private boolean isCCSCase(ResponseManagementEvent responseManagementEvent, EventType eventType) {
@@ -91,29 +270,30 @@ public class CaseAndUacReceiver {
   private Case processCaseCreatedEvent(CollectionCase collectionCase) {
     Case newCase = new Case();
     setCaseDetails(collectionCase, newCase);
-    return caseRepository.save(newCase);
+    caseRepository.upsert(newCase);
+    caseCache.invalidate(newCase.getCaseId());
+    fulfilmentRequestReceiver.releaseParkedFulfilments(List.of(FulfilmentCase.fromCase(newCase)));
+    return newCase;
   }
 
   private void processCaseUpdatedEvent(CollectionCase collectionCase) {
-    UUID caseId = collectionCase.getId();
-
-    Optional<Case> cazeOpt = caseRepository.findByCaseId(caseId);
+    Case caseToUpdate = new Case();
+    setCaseDetails(collectionCase, caseToUpdate);
 
-    if (cazeOpt.isEmpty()) {
-      throw new RuntimeException(String.format(CASE_NOT_FOUND_ERROR, caseId));
-    }
-
-    Case caseToUpdate = cazeOpt.get();
-
-    if (collectionCase.getLastUpdated().isAfter(caseToUpdate.getLastUpdated())) {
-      setCaseDetails(collectionCase, caseToUpdate);
-      caseRepository.save(caseToUpdate);
-    } else {
-      // Make sure we throw away any updates which are older than the data we have already
+    // The database throws away any updates which are older than the data we have already
+    CaseUpdateOutcome outcome = caseRepository.updateChangedColumns(caseToUpdate);
+    if (outcome == CaseUpdateOutcome.STALE) {
       log.with("case_update", collectionCase)
-          .with("db_case", caseToUpdate)
           .warn("Throwing away stale/old case update processed out of sequence");
+      return;
+    }
+
+    if (outcome == CaseUpdateOutcome.UNCHANGED) {
+      messageMetrics.messageIgnored(inboundQueue, EventType.CASE_UPDATED, IGNORED_UNCHANGED);
+      return;
     }
+
+    caseCache.invalidate(caseToUpdate.getCaseId());
   }
 
   private void setCaseDetails(CollectionCase collectionCase, Case caseDetails) {
@@ -171,20 +351,17 @@ public class CaseAndUacReceiver {
   }
 
   private void processUacUpdated(Uac uac) {
-    Optional<UacQidLink> uacQidLinkOpt = uacQidLinkRepository.findByQid(uac.getQuestionnaireId());
-
-    UacQidLink uacQidLink;
-    if (uacQidLinkOpt.isEmpty()) {
-      uacQidLink = new UacQidLink();
-      uacQidLink.setId(UUID.randomUUID());
-      uacQidLink.setQid(uac.getQuestionnaireId());
-      uacQidLink.setUac(uac.getUac());
-    } else {
-      uacQidLink = uacQidLinkOpt.get();
-    }
+    uacQidLinkRepository.upsert(buildUacQidLink(uac));
+  }
 
+  private UacQidLink buildUacQidLink(Uac uac) {
+    // The id and UAC are only used if the QID is new, an existing link keeps its own
+    UacQidLink uacQidLink = new UacQidLink();
+    uacQidLink.setId(UUID.randomUUID());
+    uacQidLink.setQid(uac.getQuestionnaireId());
+    uacQidLink.setUac(uac.getUac());
     uacQidLink.setCaseId(uac.getCaseId());
     uacQidLink.setActive(uac.isActive());
-    uacQidLinkRepository.save(uacQidLink);
+    return uacQidLink;
   }
 }
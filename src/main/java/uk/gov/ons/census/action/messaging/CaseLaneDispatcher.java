@@ -0,0 +1,278 @@
+package uk.gov.ons.census.action.messaging;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.godaddy.logging.Logger;
+import com.godaddy.logging.LoggerFactory;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ShutdownSignalException;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import javax.annotation.PreDestroy;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.AmqpRejectAndDontRequeueException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.listener.api.ChannelAwareMessageListener;
+import org.springframework.amqp.rabbit.retry.MessageRecoverer;
+import org.springframework.amqp.rabbit.support.ListenerExecutionFailedException;
+import org.springframework.amqp.support.converter.MessageConversionException;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.messaging.MessagingException;
+import org.springframework.retry.RetryOperations;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import uk.gov.ons.census.action.model.dto.Payload;
+import uk.gov.ons.census.action.model.dto.ResponseManagementEvent;
+
+/*
+ * Hands each case.action message to one of a fixed set of single threaded lanes, chosen by case ID,
+ * so that events for the same case are never processed at the same time. The messages must be
+ * manually acknowledged, and each one is acknowledged by its lane once its transaction has
+ * committed, so the consumer can carry on handing out messages to the other lanes in the meantime.
+ * The number of messages waiting in the lanes is limited by the prefetch of the consumers.
+ *
+ * Events for a case are started in the order they were received. A failure is retried and
+ * recovered in its lane, as it would be on the consumer thread, so later events for the case wait
+ * for it unless it is sent to a redelivery queue, in which case they carry on without it.
+ *
+ * The lanes acknowledge on the consumers' channels, so they are drained before the container stops
+ * and closes them. The container is given a lower phase, which makes this stop first. A message
+ * handed over after that is put back on the queue. Work whose channel has closed anyway is skipped,
+ * rather than committed, because the broker will deliver the message again.
+ */
+public class CaseLaneDispatcher implements ChannelAwareMessageListener, SmartLifecycle {
+  // Stopped before the listener container, whose phase is set below this one
+  public static final int PHASE = Integer.MAX_VALUE;
+
+  private static final Logger log = LoggerFactory.getLogger(CaseLaneDispatcher.class);
+  private static final long DRAIN_TIMEOUT_SECONDS = 10;
+
+  private final CaseAndUacReceiver caseAndUacReceiver;
+  private final ObjectMapper objectMapper;
+  private final RetryOperations retryOperations;
+  private final MessageRecoverer messageRecoverer;
+  private final Predicate<Message> ignoredMessages;
+  private final ConsumerActivity consumerActivity;
+  private final String queueName;
+  private final int caseLanes;
+  private volatile ExecutorService[] lanes;
+  private volatile boolean accepting = true;
+  private volatile boolean running;
+
+  public CaseLaneDispatcher(
+      CaseAndUacReceiver caseAndUacReceiver,
+      ObjectMapper objectMapper,
+      RetryOperations retryOperations,
+      MessageRecoverer messageRecoverer,
+      Predicate<Message> ignoredMessages,
+      ConsumerActivity consumerActivity,
+      String queueName,
+      int caseLanes) {
+    this.caseAndUacReceiver = caseAndUacReceiver;
+    this.objectMapper = objectMapper;
+    this.retryOperations = retryOperations;
+    this.messageRecoverer = messageRecoverer;
+    this.ignoredMessages = ignoredMessages;
+    this.consumerActivity = consumerActivity;
+    this.queueName = queueName;
+    this.caseLanes = caseLanes;
+
+    // Ready before the container starts consuming, which is before this is started
+    lanes = createLanes();
+  }
+
+  @Override
+  public synchronized void start() {
+    if (lanes.length > 0 && lanes[0].isShutdown()) {
+      lanes = createLanes();
+    }
+    accepting = true;
+    running = true;
+  }
+
+  @Override
+  public synchronized void stop() {
+    accepting = false;
+    drain();
+    running = false;
+  }
+
+  @Override
+  public boolean isRunning() {
+    return running;
+  }
+
+  @Override
+  public int getPhase() {
+    return PHASE;
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    accepting = false;
+    drain();
+  }
+
+  @Override
+  public void onMessage(Message message, Channel channel) {
+    if (!accepting) {
+      requeue(message, channel);
+      return;
+    }
+
+    if (ignoredMessages.test(message)) {
+      acknowledge(message, channel, true);
+      return;
+    }
+
+    // A message which can't be converted goes through the retries and recoverer like any other
+    ResponseManagementEvent responseManagementEvent;
+    try {
+      responseManagementEvent = convert(message);
+    } catch (MessageConversionException e) {
+      responseManagementEvent = null;
+    }
+
+    UUID caseId =
+        responseManagementEvent != null ? getCaseId(responseManagementEvent.getPayload()) : null;
+    ExecutorService[] currentLanes = lanes;
+    if (caseId == null || currentLanes.length == 0) {
+      processAndAcknowledge(message, responseManagementEvent, channel);
+      return;
+    }
+
+    ResponseManagementEvent event = responseManagementEvent;
+    ExecutorService lane = currentLanes[Math.floorMod(caseId.hashCode(), currentLanes.length)];
+    try {
+      lane.execute(
+          consumerActivity.track(queueName, () -> processAndAcknowledge(message, event, channel)));
+    } catch (RejectedExecutionException e) {
+      // The lanes were stopped while this was being handed over
+      requeue(message, channel);
+    }
+  }
+
+  // Lets each lane finish what it has been given, while the channels are still open
+  private void drain() {
+    ExecutorService[] lanesToDrain = lanes;
+    for (ExecutorService lane : lanesToDrain) {
+      lane.shutdown();
+    }
+
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(DRAIN_TIMEOUT_SECONDS);
+    for (ExecutorService lane : lanesToDrain) {
+      try {
+        if (!lane.awaitTermination(
+            Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS)) {
+          // Not acknowledged, so the broker delivers these again once the channels are closed
+          int abandoned = lane.shutdownNow().size();
+          log.with("abandoned", abandoned).warn("Case lane did not drain in time");
+        }
+      } catch (InterruptedException e) {
+        lane.shutdownNow();
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private ExecutorService[] createLanes() {
+    ExecutorService[] newLanes = new ExecutorService[caseLanes];
+    CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("case-lane-");
+    for (int i = 0; i < caseLanes; i++) {
+      newLanes[i] = Executors.newSingleThreadExecutor(threadFactory);
+    }
+    return newLanes;
+  }
+
+  private void processAndAcknowledge(
+      Message message, ResponseManagementEvent responseManagementEvent, Channel channel) {
+    if (!channel.isOpen()) {
+      // It couldn't be acknowledged, so committing it would only process it twice
+      log.with("delivery_tag", message.getMessageProperties().getDeliveryTag())
+          .warn(
+              "Channel closed while the message was waiting in its lane, leaving it for redelivery");
+      return;
+    }
+
+    boolean acknowledge;
+
+    try {
+      retryOperations.execute(
+          context -> {
+            caseAndUacReceiver.receiveEvent(
+                responseManagementEvent != null ? responseManagementEvent : convert(message));
+            return null;
+          },
+          context -> {
+            messageRecoverer.recover(
+                message,
+                new ListenerExecutionFailedException(
+                    "Listener threw exception",
+                    new MessagingException("Could not process message", context.getLastThrowable()),
+                    message));
+            return null;
+          });
+      acknowledge = true;
+    } catch (AmqpRejectAndDontRequeueException rejectException) {
+      acknowledge = false;
+    } catch (Exception unexpectedException) {
+      log.error("Unexpected exception has occurred", unexpectedException);
+      acknowledge = false;
+    }
+
+    acknowledge(message, channel, acknowledge);
+  }
+
+  // Called from the lanes as well as the consumer, so a failure can only be logged
+  private void acknowledge(Message message, Channel channel, boolean acknowledge) {
+    long deliveryTag = message.getMessageProperties().getDeliveryTag();
+    try {
+      if (acknowledge) {
+        channel.basicAck(deliveryTag, false);
+      } else {
+        // The queue is configured with a dead letter exchange, which will redeliver it later
+        channel.basicReject(deliveryTag, false);
+      }
+    } catch (IOException | AmqpException | ShutdownSignalException e) {
+      // The message will be delivered again when the channel is closed
+      log.with("delivery_tag", deliveryTag).error("Could not acknowledge message", e);
+    }
+  }
+
+  private void requeue(Message message, Channel channel) {
+    long deliveryTag = message.getMessageProperties().getDeliveryTag();
+    try {
+      channel.basicNack(deliveryTag, false, true);
+    } catch (IOException | AmqpException | ShutdownSignalException e) {
+      // The message will be delivered again when the channel is closed
+      log.with("delivery_tag", deliveryTag).error("Could not requeue message", e);
+    }
+  }
+
+  private ResponseManagementEvent convert(Message message) {
+    try {
+      return objectMapper.readValue(message.getBody(), ResponseManagementEvent.class);
+    } catch (IOException e) {
+      throw new MessageConversionException("Could not convert message to event", e);
+    }
+  }
+
+  private UUID getCaseId(Payload payload) {
+    if (payload == null) {
+      return null;
+    }
+
+    if (payload.getCollectionCase() != null) {
+      return payload.getCollectionCase().getId();
+    }
+
+    if (payload.getUac() != null) {
+      return payload.getUac().getCaseId();
+    }
+
+    return null;
+  }
+}
@@ -0,0 +1,84 @@
+package uk.gov.ons.census.action.messaging;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.springframework.stereotype.Component;
+
+/*
+ * Keeps track of how busy the consumers on each queue are. The queue's message count only covers
+ * the messages which are ready, so a queue whose consumers are working through their prefetched
+ * messages looks empty. This counts the deliveries which are being processed, and the time spent on
+ * them, instead.
+ */
+@Component
+public class ConsumerActivity {
+  private final Map<String, QueueActivity> queues = new ConcurrentHashMap<>();
+
+  // Wraps each delivery, or batch of deliveries, from when a consumer is handed it until it's done
+  public MethodInterceptor advice(String queueName) {
+    QueueActivity activity = getActivity(queueName);
+    return invocation -> {
+      activity.inFlight.incrementAndGet();
+      long startTime = System.nanoTime();
+      try {
+        return invocation.proceed();
+      } finally {
+        activity.busyNanos.add(System.nanoTime() - startTime);
+        activity.inFlight.decrementAndGet();
+      }
+    };
+  }
+
+  // For a delivery which a consumer hands to another thread, counted from when it is handed over
+  public Runnable track(String queueName, Runnable work) {
+    QueueActivity activity = getActivity(queueName);
+    activity.inFlight.incrementAndGet();
+    return () -> {
+      long startTime = System.nanoTime();
+      try {
+        work.run();
+      } finally {
+        activity.busyNanos.add(System.nanoTime() - startTime);
+        activity.inFlight.decrementAndGet();
+      }
+    };
+  }
+
+  public int getInFlight(String queueName) {
+    return getActivity(queueName).inFlight.get();
+  }
+
+  /*
+   * The fraction of the time since the last sample which the consumers spent processing messages,
+   * from 0 when they were idle to 1 when every one of them was busy all the time.
+   */
+  public double sampleUtilisation(String queueName, int consumers) {
+    QueueActivity activity = getActivity(queueName);
+    synchronized (activity) {
+      long now = System.nanoTime();
+      long busyNanos = activity.busyNanos.sum();
+      long elapsedNanos = Math.max(now - activity.lastSampleTime, 1);
+      long busyNanosSinceLastSample = busyNanos - activity.lastSampleBusyNanos;
+      activity.lastSampleTime = now;
+      activity.lastSampleBusyNanos = busyNanos;
+
+      // A delivery which started before the last sample is counted when it finishes
+      return Math.min(
+          1.0, (double) busyNanosSinceLastSample / elapsedNanos / Math.max(consumers, 1));
+    }
+  }
+
+  private QueueActivity getActivity(String queueName) {
+    return queues.computeIfAbsent(queueName, name -> new QueueActivity());
+  }
+
+  private static class QueueActivity {
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder busyNanos = new LongAdder();
+    private long lastSampleTime = System.nanoTime();
+    private long lastSampleBusyNanos;
+  }
+}
@@ -0,0 +1,165 @@
+package uk.gov.ons.census.action.messaging;
+
+import com.godaddy.logging.Logger;
+import com.godaddy.logging.LoggerFactory;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.sql.DataSource;
+import org.springframework.amqp.core.AmqpAdmin;
+import org.springframework.amqp.rabbit.core.RabbitAdmin;
+import org.springframework.amqp.rabbit.listener.AbstractMessageListenerContainer;
+import org.springframework.amqp.rabbit.listener.DirectMessageListenerContainer;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import uk.gov.ons.census.action.metrics.MessageMetrics;
+
+/*
+ * Adds consumers to a queue while messages are building up on it, or while its consumers are busy
+ * and messages are still waiting, and takes them away again once the queue is idle, between
+ * consumerscaling.min-consumers and the consumers configured for the queue. A queue is only idle
+ * when no messages are ready, none are being processed and the consumers were hardly busy since the
+ * last check, because with a large prefetch a queue at full load can have no messages ready.
+ *
+ * No consumers are added while threads are waiting for a database connection, because more
+ * consumers could only wait for connections too. Those threads may be case lanes or fulfilment
+ * consumers rather than the consumers of the queue being scaled, so consumers are never taken away
+ * because of it.
+ */
+@Component
+@ConditionalOnProperty(name = "consumerscaling.enabled", havingValue = "true")
+public class ConsumerScaler {
+  private static final Logger log = LoggerFactory.getLogger(ConsumerScaler.class);
+
+  private final AmqpAdmin amqpAdmin;
+  private final DataSource dataSource;
+  private final ConsumerActivity consumerActivity;
+  private final MessageMetrics messageMetrics;
+  private final ScaledQueue inboundQueue;
+  private final ScaledQueue actionFulfilmentQueue;
+
+  @Value("${consumerscaling.min-consumers}")
+  private int minConsumers;
+
+  @Value("${consumerscaling.step}")
+  private int step;
+
+  @Value("${consumerscaling.messages-per-consumer}")
+  private int messagesPerConsumer;
+
+  @Value("${consumerscaling.busy-utilisation}")
+  private double busyUtilisation;
+
+  @Value("${consumerscaling.idle-utilisation}")
+  private double idleUtilisation;
+
+  public ConsumerScaler(
+      AmqpAdmin amqpAdmin,
+      DataSource dataSource,
+      ConsumerActivity consumerActivity,
+      MessageMetrics messageMetrics,
+      @Qualifier("container") AbstractMessageListenerContainer container,
+      @Qualifier("actionFulfilmentContainer")
+          AbstractMessageListenerContainer actionFulfilmentContainer,
+      @Value("${queueconfig.inbound-queue}") String inboundQueueName,
+      @Value("${queueconfig.inbound-queue-listener.consumers}") int inboundConsumers,
+      @Value("${queueconfig.action-fulfilment-inbound-queue}") String actionFulfilmentQueueName,
+      @Value("${queueconfig.action-fulfilment-listener.consumers}") int actionFulfilmentConsumers) {
+    this.amqpAdmin = amqpAdmin;
+    this.dataSource = dataSource;
+    this.consumerActivity = consumerActivity;
+    this.messageMetrics = messageMetrics;
+    this.inboundQueue = new ScaledQueue(inboundQueueName, container, inboundConsumers);
+    this.actionFulfilmentQueue =
+        new ScaledQueue(
+            actionFulfilmentQueueName, actionFulfilmentContainer, actionFulfilmentConsumers);
+
+    messageMetrics.consumers(inboundQueueName, inboundQueue.consumers);
+    messageMetrics.consumers(actionFulfilmentQueueName, actionFulfilmentQueue.consumers);
+  }
+
+  @Scheduled(fixedDelayString = "${consumerscaling.frequency}")
+  public void scale() {
+    boolean connectionsExhausted = getThreadsAwaitingConnection() > 0;
+    scale(inboundQueue, connectionsExhausted);
+    scale(actionFulfilmentQueue, connectionsExhausted);
+  }
+
+  private void scale(ScaledQueue scaledQueue, boolean connectionsExhausted) {
+    Properties queueProperties = amqpAdmin.getQueueProperties(scaledQueue.queueName);
+    if (queueProperties == null) {
+      return;
+    }
+
+    int messageCount = (Integer) queueProperties.get(RabbitAdmin.QUEUE_MESSAGE_COUNT);
+    int currentConsumers = scaledQueue.consumers.get();
+    int inFlight = consumerActivity.getInFlight(scaledQueue.queueName);
+    double utilisation =
+        consumerActivity.sampleUtilisation(scaledQueue.queueName, currentConsumers);
+    int targetConsumers = currentConsumers;
+
+    boolean backlog =
+        messageCount > currentConsumers * messagesPerConsumer
+            || (messageCount > 0 && utilisation >= busyUtilisation);
+    boolean idle = messageCount == 0 && inFlight == 0 && utilisation <= idleUtilisation;
+
+    if (backlog && !connectionsExhausted) {
+      targetConsumers = Math.min(scaledQueue.maxConsumers, currentConsumers + step);
+    } else if (idle) {
+      targetConsumers = Math.max(minConsumers, currentConsumers - step);
+    }
+
+    if (targetConsumers == currentConsumers) {
+      return;
+    }
+
+    setConsumers(scaledQueue.container, targetConsumers);
+    scaledQueue.consumers.set(targetConsumers);
+    messageMetrics.consumersScaled(
+        scaledQueue.queueName, targetConsumers > currentConsumers ? "up" : "down");
+    log.with("queue", scaledQueue.queueName)
+        .with("message_count", messageCount)
+        .with("in_flight", inFlight)
+        .with("utilisation", utilisation)
+        .with("connections_exhausted", connectionsExhausted)
+        .with("consumers", targetConsumers)
+        .info("Scaled consumers");
+  }
+
+  private int getThreadsAwaitingConnection() {
+    if (!(dataSource instanceof HikariDataSource)) {
+      return 0;
+    }
+
+    HikariPoolMXBean pool = ((HikariDataSource) dataSource).getHikariPoolMXBean();
+    return pool != null ? pool.getThreadsAwaitingConnection() : 0;
+  }
+
+  private void setConsumers(AbstractMessageListenerContainer container, int consumers) {
+    if (container instanceof DirectMessageListenerContainer) {
+      ((DirectMessageListenerContainer) container).setConsumersPerQueue(consumers);
+    } else if (container instanceof SimpleMessageListenerContainer) {
+      ((SimpleMessageListenerContainer) container).setConcurrentConsumers(consumers);
+    }
+  }
+
+  private static class ScaledQueue {
+    private final String queueName;
+    private final AbstractMessageListenerContainer container;
+    private final int maxConsumers;
+    private final AtomicInteger consumers;
+
+    private ScaledQueue(
+        String queueName, AbstractMessageListenerContainer container, int maxConsumers) {
+      this.queueName = queueName;
+      this.container = container;
+      this.maxConsumers = maxConsumers;
+      this.consumers = new AtomicInteger(maxConsumers);
+    }
+  }
+}
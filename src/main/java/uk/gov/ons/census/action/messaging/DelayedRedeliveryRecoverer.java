@@ -0,0 +1,75 @@
+package uk.gov.ons.census.action.messaging;
+
+import com.godaddy.logging.Logger;
+import com.godaddy.logging.LoggerFactory;
+import org.springframework.amqp.core.AmqpTemplate;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.retry.MessageRecoverer;
+import org.springframework.classify.BinaryExceptionClassifier;
+import uk.gov.ons.census.action.metrics.MessageMetrics;
+
+/*
+ * Instead of sleeping on the consumer thread between attempts, a message which failed is published
+ * to a retry queue, where it waits out the delay for its attempt and is then dead lettered back to
+ * the queue it came from. The number of attempts so far is kept in a header on the message. Once
+ * all the delays have been used, or if the failure could never succeed, the message goes to the
+ * delegate recoverer instead.
+ */
+public class DelayedRedeliveryRecoverer implements MessageRecoverer {
+  private static final Logger log = LoggerFactory.getLogger(DelayedRedeliveryRecoverer.class);
+  public static final String ATTEMPT_HEADER = "x-redelivery-attempt";
+  private static final String ACTION_REDELIVER = "redeliver";
+
+  private final AmqpTemplate amqpTemplate;
+  private final String queueName;
+  private final long[] redeliveryDelays;
+  private final BinaryExceptionClassifier retryableClassifier;
+  private final MessageRecoverer delegate;
+  private final MessageMetrics messageMetrics;
+
+  public DelayedRedeliveryRecoverer(
+      AmqpTemplate amqpTemplate,
+      String queueName,
+      long[] redeliveryDelays,
+      BinaryExceptionClassifier retryableClassifier,
+      MessageRecoverer delegate,
+      MessageMetrics messageMetrics) {
+    this.amqpTemplate = amqpTemplate;
+    this.queueName = queueName;
+    this.redeliveryDelays = redeliveryDelays;
+    this.retryableClassifier = retryableClassifier;
+    this.delegate = delegate;
+    this.messageMetrics = messageMetrics;
+  }
+
+  public static String retryQueueName(String queueName, long redeliveryDelay) {
+    return String.format("%s.retry.%d", queueName, redeliveryDelay);
+  }
+
+  @Override
+  public void recover(Message message, Throwable cause) {
+    int attempt = getAttempt(message);
+
+    if (attempt >= redeliveryDelays.length || !retryableClassifier.classify(cause)) {
+      delegate.recover(message, cause);
+      return;
+    }
+
+    String retryQueue = retryQueueName(queueName, redeliveryDelays[attempt]);
+    message.getMessageProperties().setHeader(ATTEMPT_HEADER, attempt + 1);
+
+    // Published before the original is acknowledged, so at worst the message is processed twice
+    amqpTemplate.send("", retryQueue, message);
+
+    messageMetrics.recovererAction(queueName, ACTION_REDELIVER);
+    log.with("retry_queue", retryQueue)
+        .with("attempt", attempt + 1)
+        .with("cause", cause.getMessage())
+        .debug("Message will be redelivered after a delay");
+  }
+
+  private int getAttempt(Message message) {
+    Object attempt = message.getMessageProperties().getHeader(ATTEMPT_HEADER);
+    return attempt instanceof Number ? ((Number) attempt).intValue() : 0;
+  }
+}
@@ -1,75 +1,170 @@
 package uk.gov.ons.census.action.messaging;
 
-import java.util.Arrays;
-import java.util.HashSet;
+import com.godaddy.logging.Logger;
+import com.godaddy.logging.LoggerFactory;
+import io.micrometer.core.instrument.Timer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.Set;
 import java.util.UUID;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.integration.annotation.MessageEndpoint;
 import org.springframework.integration.annotation.ServiceActivator;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.transaction.annotation.Transactional;
+import uk.gov.ons.census.action.cache.CaseCache;
+import uk.gov.ons.census.action.exception.NonRetryableException;
+import uk.gov.ons.census.action.metrics.MessageMetrics;
+import uk.gov.ons.census.action.model.dto.EventType;
+import uk.gov.ons.census.action.model.dto.FulfilmentRequestDTO;
 import uk.gov.ons.census.action.model.dto.ResponseManagementEvent;
-import uk.gov.ons.census.action.model.entity.Case;
-import uk.gov.ons.census.action.model.entity.FulfilmentType;
-import uk.gov.ons.census.action.model.repository.CaseRepository;
+import uk.gov.ons.census.action.model.entity.ParkedFulfilment;
+import uk.gov.ons.census.action.model.repository.FulfilmentCase;
+import uk.gov.ons.census.action.service.FulfilmentCode;
 import uk.gov.ons.census.action.service.FulfilmentRequestService;
+import uk.gov.ons.census.action.service.ParkedFulfilmentService;
 
 @MessageEndpoint
 public class FulfilmentRequestReceiver {
-  private static final Set<String> individualResponseRequestCodes =
-      new HashSet<>(
-          Arrays.asList(
-              "P_OR_I1",
-              "P_OR_I2",
-              "P_OR_I2W",
-              "P_OR_I4",
-              "P_UAC_UACIP1",
-              "P_UAC_UACIP2B",
-              "P_UAC_UACIP4",
-              "P_UAC_UACIPA1",
-              "P_UAC_UACIPA2B",
-              "P_UAC_UACIPA4"));
-  private final CaseRepository caseRepository;
+  private static final Logger log = LoggerFactory.getLogger(FulfilmentRequestReceiver.class);
+  private static final String IGNORED_FULFILMENT_CODE = "fulfilment_code";
+  private static final String IGNORED_INDIVIDUAL_RESPONSE_FOR_HOUSEHOLD =
+      "individual_response_for_household";
+
+  private final CaseCache caseCache;
   private final FulfilmentRequestService fulfilmentRequestService;
+  private final ParkedFulfilmentService parkedFulfilmentService;
+  private final MessageMetrics messageMetrics;
+
+  @Value("${queueconfig.action-fulfilment-inbound-queue}")
+  private String actionFulfilmentQueue;
+
+  @Value("${parkedfulfilments.release-batch-size}")
+  private int releaseBatchSize;
 
   public FulfilmentRequestReceiver(
-      CaseRepository caseRepository, FulfilmentRequestService fulfilmentRequestService) {
-    this.caseRepository = caseRepository;
+      CaseCache caseCache,
+      FulfilmentRequestService fulfilmentRequestService,
+      ParkedFulfilmentService parkedFulfilmentService,
+      MessageMetrics messageMetrics) {
+    this.caseCache = caseCache;
     this.fulfilmentRequestService = fulfilmentRequestService;
+    this.parkedFulfilmentService = parkedFulfilmentService;
+    this.messageMetrics = messageMetrics;
   }
 
   @Transactional
   @ServiceActivator(inputChannel = "actionFulfilmentInputChannel")
   public void receiveEvent(ResponseManagementEvent event) {
-    String fulfilmentCode = event.getPayload().getFulfilmentRequest().getFulfilmentCode();
+    Timer.Sample sample = messageMetrics.startTimer();
+    EventType eventType = event.getEvent().getType();
+    messageMetrics.messageReceived(actionFulfilmentQueue, eventType);
+    boolean success = false;
 
-    FulfilmentType fulfilmentType =
-        fulfilmentRequestService.determineFulfilmentType(fulfilmentCode);
-    if (fulfilmentType == null) {
-      return; // This is not a fulfilment that we need to process
+    try {
+      processEvent(event, eventType);
+      success = true;
+    } finally {
+      messageMetrics.messageProcessed(sample, actionFulfilmentQueue, eventType, success);
     }
+  }
 
-    Case fulfilmentCase =
-        fetchFulfilmentCase(event.getPayload().getFulfilmentRequest().getCaseId());
+  // Picks up fulfilments which were parked while their case was being created
+  @Transactional
+  @Scheduled(fixedDelayString = "${parkedfulfilments.release-frequency}")
+  public void releaseArrivedFulfilments() {
+    for (ParkedFulfilment parkedFulfilment :
+        parkedFulfilmentService.releaseArrived(releaseBatchSize)) {
+      Optional<FulfilmentCase> fulfilmentCase =
+          caseCache.findByCaseId(parkedFulfilment.getCaseId());
+      if (fulfilmentCase.isEmpty()) {
+        // Its row has already been deleted, so dropping it here would lose the fulfilment
+        log.with("case_id", parkedFulfilment.getCaseId())
+            .error("Case not found for released fulfilment, parking it again");
+        parkedFulfilmentService.repark(parkedFulfilment);
+        continue;
+      }
 
-    if (fulfilmentCase.getCaseType().equals("HH")
-        && individualResponseRequestCodes.contains(fulfilmentCode)) {
-      // We can't process this message until the case has been cloned from its parent case.
-      // We will receive an 'enriched' case creation message including the fulfilment details
-      // from Case Processor.
-      return;
+      processParkedFulfilment(parkedFulfilment, fulfilmentCase.get());
+    }
+  }
+
+  // Called in the transaction which created the case
+  public void releaseParkedFulfilments(List<FulfilmentCase> createdCases) {
+    Map<UUID, FulfilmentCase> casesById = new HashMap<>();
+    for (FulfilmentCase createdCase : createdCases) {
+      casesById.put(createdCase.getCaseId(), createdCase);
     }
 
-    fulfilmentRequestService.processEvent(
-        event.getPayload().getFulfilmentRequest(), fulfilmentCase, fulfilmentType);
+    for (ParkedFulfilment parkedFulfilment : parkedFulfilmentService.release(casesById.keySet())) {
+      processParkedFulfilment(parkedFulfilment, casesById.get(parkedFulfilment.getCaseId()));
+    }
   }
 
-  private Case fetchFulfilmentCase(UUID caseId) {
-    Optional<Case> fulfilmentCase = caseRepository.findByCaseId(caseId);
+  private void processEvent(ResponseManagementEvent event, EventType eventType) {
+    FulfilmentRequestDTO fulfilmentRequest = event.getPayload().getFulfilmentRequest();
+
+    FulfilmentCode code =
+        fulfilmentRequestService.determineFulfilmentCode(fulfilmentRequest.getFulfilmentCode());
+    if (code == null) {
+      // This is not a fulfilment that we need to process
+      messageMetrics.messageIgnored(actionFulfilmentQueue, eventType, IGNORED_FULFILMENT_CODE);
+      return;
+    }
+
+    Optional<FulfilmentCase> fulfilmentCase = caseCache.findByCaseId(fulfilmentRequest.getCaseId());
     if (fulfilmentCase.isEmpty()) {
-      throw new RuntimeException(
-          String.format("Cannot find case %s for fulfilment request.", caseId));
+      if (!parkedFulfilmentService.canPark(event.getEvent())) {
+        throw new RuntimeException(
+            String.format(
+                "Cannot find case %s for fulfilment request.", fulfilmentRequest.getCaseId()));
+      }
+
+      // Processed when the case is created, instead of failing until it is
+      parkedFulfilmentService.park(event.getEvent(), fulfilmentRequest);
+      return;
+    }
+
+    processFulfilment(fulfilmentRequest, fulfilmentCase.get(), code, eventType);
+  }
+
+  private void processParkedFulfilment(
+      ParkedFulfilment parkedFulfilment, FulfilmentCase fulfilmentCase) {
+    FulfilmentRequestDTO fulfilmentRequest = parkedFulfilment.getFulfilmentRequest();
+    FulfilmentCode code =
+        fulfilmentRequestService.determineFulfilmentCode(fulfilmentRequest.getFulfilmentCode());
+    if (code == null) {
+      messageMetrics.messageIgnored(
+          actionFulfilmentQueue, EventType.FULFILMENT_REQUESTED, IGNORED_FULFILMENT_CODE);
+      return;
+    }
+
+    // A bad fulfilment mustn't stop the case, or the other fulfilments, from being processed
+    try {
+      processFulfilment(fulfilmentRequest, fulfilmentCase, code, EventType.FULFILMENT_REQUESTED);
+    } catch (NonRetryableException e) {
+      log.with("case_id", parkedFulfilment.getCaseId())
+          .with("fulfilment_code", fulfilmentRequest.getFulfilmentCode())
+          .with("parked_at", parkedFulfilment.getParkedAt())
+          .error("Could not process parked fulfilment, it has been discarded", e);
     }
-    return fulfilmentCase.get();
+  }
+
+  private void processFulfilment(
+      FulfilmentRequestDTO fulfilmentRequest,
+      FulfilmentCase fulfilmentCase,
+      FulfilmentCode code,
+      EventType eventType) {
+    if (fulfilmentCase.getCaseType().equals("HH") && code.isIndividualResponse()) {
+      // We can't process this message until the case has been cloned from its parent case.
+      // We will receive an 'enriched' case creation message including the fulfilment details
+      // from Case Processor.
+      messageMetrics.messageIgnored(
+          actionFulfilmentQueue, eventType, IGNORED_INDIVIDUAL_RESPONSE_FOR_HOUSEHOLD);
+      return;
+    }
+
+    fulfilmentRequestService.processEvent(fulfilmentRequest, fulfilmentCase, code);
   }
 }
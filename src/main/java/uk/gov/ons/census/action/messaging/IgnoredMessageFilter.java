@@ -0,0 +1,162 @@
+package uk.gov.ons.census.action.messaging;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.godaddy.logging.Logger;
+import com.godaddy.logging.LoggerFactory;
+import java.io.IOException;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.springframework.amqp.core.Message;
+import org.springframework.stereotype.Component;
+import uk.gov.ons.census.action.metrics.MessageMetrics;
+import uk.gov.ons.census.action.service.FulfilmentRequestService;
+import uk.gov.ons.census.action.utility.QuestionnaireTypeHelper;
+
+/*
+ * Many of the messages we receive are for CCS, or are fulfilments which we don't handle, and are
+ * thrown away as soon as they've been looked at. This looks at just the fields needed to decide,
+ * straight from the message body, so that these messages can be acknowledged without being mapped
+ * to objects or taking a database connection. Anything which can't be decided on here, such as a
+ * message which isn't valid JSON, goes through the normal processing.
+ */
+@Component
+public class IgnoredMessageFilter {
+  private static final Logger log = LoggerFactory.getLogger(IgnoredMessageFilter.class);
+  private static final String IGNORED_CCS = "ccs";
+  private static final String IGNORED_FULFILMENT_CODE = "fulfilment_code";
+  private static final String CCS_SURVEY = "CCS";
+
+  private final JsonFactory jsonFactory;
+  private final FulfilmentRequestService fulfilmentRequestService;
+  private final MessageMetrics messageMetrics;
+
+  public IgnoredMessageFilter(
+      ObjectMapper objectMapper,
+      FulfilmentRequestService fulfilmentRequestService,
+      MessageMetrics messageMetrics) {
+    this.jsonFactory = objectMapper.getFactory();
+    this.fulfilmentRequestService = fulfilmentRequestService;
+    this.messageMetrics = messageMetrics;
+  }
+
+  // The listener is invoked with the channel and the message, and returning skips it entirely
+  public MethodInterceptor fulfilmentAdvice(String queueName) {
+    return invocation -> {
+      Object data = invocation.getArguments()[1];
+      if (data instanceof Message && isIgnoredFulfilment((Message) data, queueName)) {
+        return null;
+      }
+      return invocation.proceed();
+    };
+  }
+
+  public boolean isIgnoredCaseEvent(Message message, String queueName) {
+    EventSummary event = summarise(message);
+    if (event == null || event.type == null) {
+      return false;
+    }
+
+    boolean ccs = false;
+    if (event.type.equals("CASE_CREATED") || event.type.equals("CASE_UPDATED")) {
+      ccs = CCS_SURVEY.equals(event.survey);
+    } else if (event.type.equals("UAC_UPDATED")) {
+      ccs =
+          event.questionnaireId != null
+              && event.questionnaireId.length() >= 2
+              && QuestionnaireTypeHelper.isCCSQuestionnaireType(event.questionnaireId);
+    }
+
+    if (ccs) {
+      messageMetrics.messageDropped(queueName, event.type, IGNORED_CCS);
+    }
+    return ccs;
+  }
+
+  public boolean isIgnoredFulfilment(Message message, String queueName) {
+    EventSummary event = summarise(message);
+    if (event == null || event.fulfilmentCode == null) {
+      return false;
+    }
+
+    if (fulfilmentRequestService.determineFulfilmentCode(event.fulfilmentCode) != null) {
+      return false;
+    }
+
+    messageMetrics.messageDropped(queueName, event.type, IGNORED_FULFILMENT_CODE);
+    return true;
+  }
+
+  private EventSummary summarise(Message message) {
+    EventSummary event = new EventSummary();
+
+    try (JsonParser parser = jsonFactory.createParser(message.getBody())) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        return null;
+      }
+
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String fieldName = parser.getCurrentName();
+        JsonToken value = parser.nextToken();
+
+        if (fieldName.equals("event") && value == JsonToken.START_OBJECT) {
+          event.type = readField(parser, "type");
+        } else if (fieldName.equals("payload") && value == JsonToken.START_OBJECT) {
+          readPayload(parser, event);
+        } else {
+          parser.skipChildren();
+        }
+      }
+    } catch (IOException e) {
+      log.with("cause", e.getMessage()).debug("Could not summarise message, not filtering it");
+      return null;
+    }
+
+    return event;
+  }
+
+  private void readPayload(JsonParser parser, EventSummary event) throws IOException {
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String fieldName = parser.getCurrentName();
+      JsonToken value = parser.nextToken();
+
+      if (value != JsonToken.START_OBJECT) {
+        parser.skipChildren();
+      } else if (fieldName.equals("collectionCase")) {
+        event.survey = readField(parser, "survey");
+      } else if (fieldName.equals("uac")) {
+        event.questionnaireId = readField(parser, "questionnaireId");
+      } else if (fieldName.equals("fulfilmentRequest")) {
+        event.fulfilmentCode = readField(parser, "fulfilmentCode");
+      } else {
+        parser.skipChildren();
+      }
+    }
+  }
+
+  // Reads to the end of the current object, keeping the value of one text field
+  private String readField(JsonParser parser, String wantedFieldName) throws IOException {
+    String wantedValue = null;
+
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String fieldName = parser.getCurrentName();
+      JsonToken value = parser.nextToken();
+
+      if (fieldName.equals(wantedFieldName) && value == JsonToken.VALUE_STRING) {
+        wantedValue = parser.getText();
+      } else {
+        parser.skipChildren();
+      }
+    }
+
+    return wantedValue;
+  }
+
+  private static class EventSummary {
+    private String type;
+    private String survey;
+    private String questionnaireId;
+    private String fulfilmentCode;
+  }
+}
@@ -1,32 +1,32 @@
 package uk.gov.ons.census.action.messaging;
 
-import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.github.benmanes.caffeine.cache.Cache;
 import com.godaddy.logging.Logger;
 import com.godaddy.logging.LoggerFactory;
 import java.io.IOException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.CompletableFuture;
 import net.logstash.logback.encoder.org.apache.commons.lang.exception.ExceptionUtils;
 import org.springframework.amqp.AmqpRejectAndDontRequeueException;
 import org.springframework.amqp.core.Message;
 import org.springframework.amqp.rabbit.retry.MessageRecoverer;
 import org.springframework.amqp.rabbit.support.ListenerExecutionFailedException;
 import uk.gov.ons.census.action.client.ExceptionManagerClient;
+import uk.gov.ons.census.action.metrics.MessageMetrics;
 import uk.gov.ons.census.action.model.dto.ExceptionReportResponse;
 import uk.gov.ons.census.action.model.dto.SkippedMessage;
 
 public class ManagedMessageRecoverer implements MessageRecoverer {
   private static final Logger log = LoggerFactory.getLogger(ManagedMessageRecoverer.class);
-  private static final ObjectMapper objectMapper;
+  private static final String ACTION_SKIP = "skip";
+  private static final String ACTION_PEEK = "peek";
+  private static final String ACTION_LOG = "log";
+  private static final String ACTION_DLQ = "dlq";
   private static final MessageDigest digest;
 
   static {
-    objectMapper = new ObjectMapper();
-    objectMapper.registerModule(new JavaTimeModule());
-    objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-
     try {
       digest = MessageDigest.getInstance("SHA-256");
     } catch (NoSuchAlgorithmException e) {
@@ -40,18 +40,27 @@ public class ManagedMessageRecoverer implements MessageRecoverer {
   private final boolean logStackTraces;
   private final String serviceName;
   private final String queueName;
+  private final MessageMetrics messageMetrics;
+  private final Cache<String, ExceptionReportResponse> decisionCache;
+  private final ObjectMapper objectMapper;
 
   public ManagedMessageRecoverer(
       ExceptionManagerClient exceptionManagerClient,
       Class expectedMessageType,
       boolean logStackTraces,
       String serviceName,
-      String queueName) {
+      String queueName,
+      MessageMetrics messageMetrics,
+      Cache<String, ExceptionReportResponse> decisionCache,
+      ObjectMapper objectMapper) {
     this.exceptionManagerClient = exceptionManagerClient;
     this.expectedMessageType = expectedMessageType;
     this.logStackTraces = logStackTraces;
     this.serviceName = serviceName;
     this.queueName = queueName;
+    this.messageMetrics = messageMetrics;
+    this.decisionCache = decisionCache;
+    this.objectMapper = objectMapper;
   }
 
   @Override
@@ -71,14 +80,14 @@ public class ManagedMessageRecoverer implements MessageRecoverer {
           findUsefulRootCauseInStackTrace(listenerExecutionFailedException.getCause());
       ExceptionReportResponse reportResult =
           getExceptionReportResponse(
-              listenerExecutionFailedException, messageHash, stackTraceRootCause);
+              listenerExecutionFailedException, messageHash, stackTraceRootCause, rawMessageBody);
 
       if (skipMessage(
           reportResult, messageHash, rawMessageBody, listenerExecutionFailedException, message)) {
+        messageMetrics.recovererAction(queueName, ACTION_SKIP);
         return; // Our work here is done
       }
 
-      peekMessage(reportResult, messageHash, rawMessageBody);
       logMessage(
           reportResult,
           listenerExecutionFailedException.getCause(),
@@ -87,6 +96,7 @@ public class ManagedMessageRecoverer implements MessageRecoverer {
           stackTraceRootCause);
 
       // Reject the original message where it'll be retried at some future point in time
+      messageMetrics.recovererAction(queueName, ACTION_DLQ);
       throw new AmqpRejectAndDontRequeueException(
           String.format("Message sent to DLQ exchange, message_hash is: %s", messageHash));
     } else {
@@ -98,10 +108,18 @@ public class ManagedMessageRecoverer implements MessageRecoverer {
   private ExceptionReportResponse getExceptionReportResponse(
       ListenerExecutionFailedException listenerExecutionFailedException,
       String messageHash,
-      String stackTraceRootCause) {
-    ExceptionReportResponse reportResult = null;
+      String stackTraceRootCause,
+      byte[] rawMessageBody) {
+    // A bad message keeps coming back from the DLQ, and the exception manager gives the same answer
+    ExceptionReportResponse cachedReportResult = decisionCache.getIfPresent(messageHash);
+    if (cachedReportResult != null) {
+      messageMetrics.exceptionReportAvoided(queueName);
+      return cachedReportResult;
+    }
+
+    CompletableFuture<ExceptionReportResponse> report;
     try {
-      reportResult =
+      report =
           exceptionManagerClient.reportException(
               messageHash,
               serviceName,
@@ -109,11 +127,40 @@ public class ManagedMessageRecoverer implements MessageRecoverer {
               listenerExecutionFailedException.getCause().getCause(),
               stackTraceRootCause);
     } catch (Exception exceptionManagerClientException) {
-      log.with("reason", exceptionManagerClientException.getMessage())
-          .warn(
-              "Could not report to Exception Manager. There will be excessive logging until resolved");
+      report = CompletableFuture.failedFuture(exceptionManagerClientException);
+    }
+
+    // The listener doesn't wait for the answer. It is used for the next failure of the message,
+    // and a peek is answered as soon as it arrives
+    report.whenComplete(
+        (reportResult, exceptionManagerClientException) -> {
+          if (exceptionManagerClientException != null) {
+            log.with("reason", exceptionManagerClientException.getMessage())
+                .warn(
+                    "Could not report to Exception Manager. There will be excessive logging until resolved");
+            return;
+          }
+
+          cacheDecision(messageHash, reportResult);
+          peekMessage(reportResult, messageHash, rawMessageBody);
+        });
+
+    if (report.isDone() && !report.isCompletedExceptionally()) {
+      return report.join();
+    }
+    return null;
+  }
+
+  private void cacheDecision(String messageHash, ExceptionReportResponse reportResult) {
+    if (reportResult == null) {
+      return;
     }
-    return reportResult;
+
+    // A peek is only answered once, so it is not repeated for the cached decision
+    ExceptionReportResponse decision = new ExceptionReportResponse();
+    decision.setLogIt(reportResult.isLogIt());
+    decision.setSkipIt(reportResult.isSkipIt());
+    decisionCache.put(messageHash, decision);
   }
 
   private boolean skipMessage(
@@ -171,6 +218,8 @@ public class ManagedMessageRecoverer implements MessageRecoverer {
       return;
     }
 
+    messageMetrics.recovererAction(queueName, ACTION_PEEK);
+
     try {
       // Send it back to the exception manager so it can be peeked
       exceptionManagerClient.respondToPeek(messageHash, rawMessageBody);
@@ -189,6 +238,8 @@ public class ManagedMessageRecoverer implements MessageRecoverer {
       return;
     }
 
+    messageMetrics.recovererAction(queueName, ACTION_LOG);
+
     if (logStackTraces) {
       log.with("message_hash", messageHash)
           .with("valid_json", validateJson(rawMessageBody))
@@ -216,7 +267,7 @@ public class ManagedMessageRecoverer implements MessageRecoverer {
 
   private String validateJson(byte[] rawMessageBody) {
     try {
-      objectMapper.readValue(new String(rawMessageBody), expectedMessageType);
+      objectMapper.readValue(rawMessageBody, expectedMessageType);
       return "Valid JSON";
     } catch (IOException e) {
       return String.format("Invalid JSON: %s", e.getMessage());
@@ -0,0 +1,190 @@
+package uk.gov.ons.census.action.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.springframework.retry.RetryCallback;
+import org.springframework.retry.RetryContext;
+import org.springframework.retry.RetryListener;
+import org.springframework.retry.listener.RetryListenerSupport;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import uk.gov.ons.census.action.model.dto.EventType;
+
+/*
+ * Records what happens to the messages on each inbound queue, so that consumers can be sized
+ * against real load. Processing times include committing the transaction the message was
+ * processed in.
+ */
+@Component
+public class MessageMetrics {
+  public static final String OUTCOME_SUCCESS = "success";
+  public static final String OUTCOME_FAILURE = "failure";
+
+  private final MeterRegistry meterRegistry;
+
+  public MessageMetrics(MeterRegistry meterRegistry) {
+    this.meterRegistry = meterRegistry;
+  }
+
+  public Timer.Sample startTimer() {
+    return Timer.start(meterRegistry);
+  }
+
+  public void messageProcessed(
+      Timer.Sample sample, String queue, EventType eventType, boolean success) {
+    Timer.Builder timer =
+        Timer.builder("action.messages.processing")
+            .description("Time taken to process and commit a message")
+            .tag("queue", queue)
+            .tag("event_type", String.valueOf(eventType))
+            .publishPercentileHistogram();
+    stopAfterCommit(sample, timer, success);
+  }
+
+  public void batchProcessed(Timer.Sample sample, String queue, int batchSize, boolean success) {
+    Timer.Builder timer =
+        Timer.builder("action.batches.processing")
+            .description("Time taken to process and commit a batch of messages")
+            .tag("queue", queue)
+            .publishPercentileHistogram();
+    meterRegistry.summary("action.batches.size", "queue", queue).record(batchSize);
+    stopAfterCommit(sample, timer, success);
+  }
+
+  public void messageReceived(String queue, EventType eventType) {
+    meterRegistry
+        .counter(
+            "action.messages.received", "queue", queue, "event_type", String.valueOf(eventType))
+        .increment();
+  }
+
+  public void messageIgnored(String queue, EventType eventType, String reason) {
+    meterRegistry
+        .counter(
+            "action.messages.ignored",
+            "queue",
+            queue,
+            "event_type",
+            String.valueOf(eventType),
+            "reason",
+            reason)
+        .increment();
+  }
+
+  // Dropped straight from the message body, so never counted as received
+  public void messageDropped(String queue, String eventType, String reason) {
+    meterRegistry
+        .counter(
+            "action.messages.dropped",
+            "queue",
+            queue,
+            "event_type",
+            String.valueOf(eventType),
+            "reason",
+            reason)
+        .increment();
+  }
+
+  // Superseded by a newer update for the same case in the same batch, so never written
+  public void messageCoalesced(String queue, EventType eventType) {
+    meterRegistry
+        .counter(
+            "action.messages.coalesced", "queue", queue, "event_type", String.valueOf(eventType))
+        .increment();
+  }
+
+  // A message which could not be processed can be peeked and logged before it is dead lettered
+  public void recovererAction(String queue, String action) {
+    meterRegistry.counter("action.recoverer.actions", "queue", queue, "action", action).increment();
+  }
+
+  // The recoverer asks the exception manager about each message hash once, then decides locally
+  public void exceptionReportAvoided(String queue) {
+    meterRegistry.counter("action.recoverer.reports.avoided", "queue", queue).increment();
+  }
+
+  public void consumers(String queue, AtomicInteger consumers) {
+    Gauge.builder("action.consumers", consumers, AtomicInteger::get)
+        .description("Consumers the queue has been scaled to")
+        .tag("queue", queue)
+        .register(meterRegistry);
+  }
+
+  public void consumersScaled(String queue, String direction) {
+    meterRegistry
+        .counter("action.consumers.scaled", "queue", queue, "direction", direction)
+        .increment();
+  }
+
+  public void parkedFulfilments(
+      AtomicLong parkedCount, AtomicReference<OffsetDateTime> oldestParkedAt) {
+    Gauge.builder("action.fulfilments.parked", parkedCount, AtomicLong::get)
+        .description("Fulfilments waiting for their case to be created")
+        .register(meterRegistry);
+    Gauge.builder("action.fulfilments.parked.oldest.age", oldestParkedAt, this::getAgeInSeconds)
+        .description("Time the oldest parked fulfilment has been waiting for its case")
+        .baseUnit("seconds")
+        .register(meterRegistry);
+  }
+
+  public void fulfilmentsParked(int count) {
+    meterRegistry.counter("action.fulfilments.parking", "action", "parked").increment(count);
+  }
+
+  public void fulfilmentsReleased(int count) {
+    meterRegistry.counter("action.fulfilments.parking", "action", "released").increment(count);
+  }
+
+  public void fulfilmentsExpired(int count) {
+    meterRegistry.counter("action.fulfilments.parking", "action", "expired").increment(count);
+  }
+
+  public RetryListener retryListener(String queue) {
+    // Every failed attempt is counted, whether or not it is retried
+    Counter failedAttempts =
+        Counter.builder("action.messages.failed.attempts")
+            .description("Failed attempts to process a message")
+            .tag("queue", queue)
+            .register(meterRegistry);
+
+    return new RetryListenerSupport() {
+      @Override
+      public <T, E extends Throwable> void onError(
+          RetryContext context, RetryCallback<T, E> callback, Throwable throwable) {
+        failedAttempts.increment();
+      }
+    };
+  }
+
+  private double getAgeInSeconds(AtomicReference<OffsetDateTime> time) {
+    OffsetDateTime value = time.get();
+    return value != null ? Duration.between(value, OffsetDateTime.now()).toSeconds() : 0;
+  }
+
+  private void stopAfterCommit(Timer.Sample sample, Timer.Builder timer, boolean success) {
+    if (!success || !TransactionSynchronizationManager.isSynchronizationActive()) {
+      sample.stop(
+          timer
+              .tag("outcome", success ? OUTCOME_SUCCESS : OUTCOME_FAILURE)
+              .register(meterRegistry));
+      return;
+    }
+
+    TransactionSynchronizationManager.registerSynchronization(
+        new TransactionSynchronization() {
+          @Override
+          public void afterCompletion(int status) {
+            String outcome = status == STATUS_COMMITTED ? OUTCOME_SUCCESS : OUTCOME_FAILURE;
+            sample.stop(timer.tag("outcome", outcome).register(meterRegistry));
+          }
+        });
+  }
+}
@@ -0,0 +1,75 @@
+package uk.gov.ons.census.action.metrics;
+
+import com.godaddy.logging.Logger;
+import com.godaddy.logging.LoggerFactory;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import io.prometheus.client.exporter.common.TextFormat;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/*
+ * The action processor isn't a web application, so there's no servlet container to serve the
+ * actuator endpoints. Prometheus scrapes the metrics from this server instead, which only listens on
+ * the port it is given and only answers for the metrics.
+ */
+@Component
+@ConditionalOnProperty(name = "metricsserver.enabled", havingValue = "true")
+public class MetricsServer {
+  private static final Logger log = LoggerFactory.getLogger(MetricsServer.class);
+  private static final String METRICS_PATH = "/metrics";
+
+  private final PrometheusMeterRegistry prometheusMeterRegistry;
+
+  @Value("${metricsserver.port}")
+  private int port;
+
+  private HttpServer server;
+
+  public MetricsServer(PrometheusMeterRegistry prometheusMeterRegistry) {
+    this.prometheusMeterRegistry = prometheusMeterRegistry;
+  }
+
+  @PostConstruct
+  public void start() throws IOException {
+    server = HttpServer.create(new InetSocketAddress(port), 0);
+    server.createContext(METRICS_PATH, this::scrape);
+    server.start();
+    log.with("port", getPort()).info("Serving metrics");
+  }
+
+  @PreDestroy
+  public void stop() {
+    server.stop(0);
+  }
+
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  private void scrape(HttpExchange exchange) throws IOException {
+    try {
+      if (!"GET".equals(exchange.getRequestMethod())) {
+        exchange.sendResponseHeaders(405, -1);
+        return;
+      }
+
+      byte[] body = prometheusMeterRegistry.scrape().getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", TextFormat.CONTENT_TYPE_004);
+      exchange.sendResponseHeaders(200, body.length);
+      try (OutputStream responseBody = exchange.getResponseBody()) {
+        responseBody.write(body);
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+}
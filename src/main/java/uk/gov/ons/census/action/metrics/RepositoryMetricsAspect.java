@@ -0,0 +1,64 @@
+package uk.gov.ons.census.action.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.aop.framework.AopProxyUtils;
+import org.springframework.stereotype.Component;
+import uk.gov.ons.census.action.Application;
+
+/*
+ * Times every call to our Spring Data repositories, including the custom JDBC fragments, tagged
+ * with the repository interface and the method called.
+ */
+@Aspect
+@Component
+public class RepositoryMetricsAspect {
+  private static final String APPLICATION_PACKAGE = Application.class.getPackageName();
+
+  private final MeterRegistry meterRegistry;
+  private final Map<Class<?>, String> repositoryNames = new ConcurrentHashMap<>();
+
+  public RepositoryMetricsAspect(MeterRegistry meterRegistry) {
+    this.meterRegistry = meterRegistry;
+  }
+
+  @Around("target(org.springframework.data.repository.Repository)")
+  public Object timeRepositoryCall(ProceedingJoinPoint joinPoint) throws Throwable {
+    Timer.Sample sample = Timer.start(meterRegistry);
+    String outcome = MessageMetrics.OUTCOME_FAILURE;
+
+    try {
+      Object result = joinPoint.proceed();
+      outcome = MessageMetrics.OUTCOME_SUCCESS;
+      return result;
+    } finally {
+      sample.stop(
+          Timer.builder("action.repository.calls")
+              .description("Time taken by repository calls")
+              .tag("repository", getRepositoryName(joinPoint.getTarget()))
+              .tag("method", joinPoint.getSignature().getName())
+              .tag("outcome", outcome)
+              .publishPercentileHistogram()
+              .register(meterRegistry));
+    }
+  }
+
+  private String getRepositoryName(Object repository) {
+    return repositoryNames.computeIfAbsent(
+        repository.getClass(),
+        repositoryClass -> {
+          // The repository is a proxy, so name it after the interface we declared
+          for (Class<?> proxiedInterface : AopProxyUtils.proxiedUserInterfaces(repository)) {
+            if (proxiedInterface.getPackageName().startsWith(APPLICATION_PACKAGE)) {
+              return proxiedInterface.getSimpleName();
+            }
+          }
+          return repositoryClass.getSimpleName();
+        });
+  }
+}
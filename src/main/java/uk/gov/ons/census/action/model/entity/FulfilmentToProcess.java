@@ -1,19 +1,36 @@
 package uk.gov.ons.census.action.model.entity;
 
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
 import java.util.UUID;
 import javax.persistence.*;
 import lombok.Data;
 
 @Entity
 @Data
+@Table(
+    indexes = {
+      @Index(
+          name = "fulfilment_code_batch_id_added_at_idx",
+          columnList = "fulfilment_code, batch_id, added_at")
+    })
 public class FulfilmentToProcess {
+  // The batch day of fulfilments which are not in a batch yet, as a date and in SQL
+  public static final LocalDate PENDING_BATCH_DAY = LocalDate.of(9999, 12, 31);
+  public static final String PENDING_BATCH_DAY_SQL = "DATE '9999-12-31'";
 
+  // IDs are allocated 50 at a time, so that the inserts can be batched. The sequence is the one
+  // which was created for the old serial column, see schema.sql
   @Id
-  @Column(columnDefinition = "serial")
-  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "fulfilment_to_process_id")
+  @SequenceGenerator(
+      name = "fulfilment_to_process_id",
+      sequenceName = "fulfilment_to_process_id_seq",
+      allocationSize = 50)
   private long id;
 
-  @Column private String fulfilmentCode;
+  @Column(name = "fulfilment_code")
+  private String fulfilmentCode;
 
   @ManyToOne private Case caze;
 
@@ -41,5 +58,20 @@ public class FulfilmentToProcess {
 
   @Column private Integer quantity;
 
-  @Column private UUID batchId;
+  // IDs are handed out in blocks to each node, so they don't say which fulfilment is oldest
+  @Column(name = "added_at", columnDefinition = "timestamp with time zone")
+  private OffsetDateTime addedAt;
+
+  @Column(name = "batch_id")
+  private UUID batchId;
+
+  // When the fulfilment was claimed for a batch
+  @Column(name = "batched_at", columnDefinition = "timestamp with time zone")
+  private OffsetDateTime batchedAt;
+
+  // The UTC day batched_at falls on, which decides the partition the fulfilment is kept in. It is
+  // part of the partitioned table's primary key, so it can't be null until the fulfilment is
+  // batched
+  @Column(name = "batch_day", columnDefinition = "date default '9999-12-31' not null")
+  private LocalDate batchDay = PENDING_BATCH_DAY;
 }
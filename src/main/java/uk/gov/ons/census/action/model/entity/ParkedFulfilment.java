@@ -0,0 +1,45 @@
+package uk.gov.ons.census.action.model.entity;
+
+import com.vladmihalcea.hibernate.type.json.JsonBinaryType;
+import java.time.OffsetDateTime;
+import java.util.UUID;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import lombok.Data;
+import org.hibernate.annotations.Type;
+import org.hibernate.annotations.TypeDef;
+import org.hibernate.annotations.TypeDefs;
+import uk.gov.ons.census.action.model.dto.Event;
+import uk.gov.ons.census.action.model.dto.FulfilmentRequestDTO;
+
+// A fulfilment request which arrived before its case, waiting for the case to be created
+@Data
+@Entity
+@TypeDefs({@TypeDef(name = "jsonb", typeClass = JsonBinaryType.class)})
+@Table(
+    indexes = {
+      @Index(name = "parked_fulfilment_case_id_idx", columnList = "case_id"),
+      @Index(name = "parked_fulfilment_parked_at_idx", columnList = "parked_at")
+    })
+public class ParkedFulfilment {
+  @Id @GeneratedValue private UUID id;
+
+  @Column(name = "case_id", nullable = false)
+  private UUID caseId;
+
+  @Type(type = "jsonb")
+  @Column(columnDefinition = "jsonb")
+  private FulfilmentRequestDTO fulfilmentRequest;
+
+  // The event the request arrived in, so it can be sent round again if its case never arrives
+  @Type(type = "jsonb")
+  @Column(columnDefinition = "jsonb")
+  private Event event;
+
+  @Column(name = "parked_at", nullable = false, columnDefinition = "timestamp with time zone")
+  private OffsetDateTime parkedAt;
+}
@@ -0,0 +1,48 @@
+package uk.gov.ons.census.action.model.entity;
+
+import java.io.Serializable;
+import java.time.OffsetDateTime;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.Id;
+import javax.persistence.IdClass;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/*
+ * One of several counters of the fulfilments for a code which are not in a batch yet. Each
+ * transaction adds to a stripe of its own choosing, so consumers adding fulfilments for the same
+ * code rarely wait for each other's row locks. The stripes are added up when they are read.
+ */
+@Data
+@Entity
+@IdClass(PendingFulfilmentStripe.Key.class)
+public class PendingFulfilmentStripe {
+  @Id
+  @Column(name = "fulfilment_code")
+  private String fulfilmentCode;
+
+  @Id @Column private int stripe;
+
+  @Column
+  @Enumerated(EnumType.STRING)
+  private FulfilmentType fulfilmentType;
+
+  // Can be negative, when more have been claimed from this stripe than were added to it
+  @Column(nullable = false)
+  private int pendingCount;
+
+  @Column(columnDefinition = "timestamp with time zone")
+  private OffsetDateTime oldestPendingAt;
+
+  @Data
+  @NoArgsConstructor
+  @AllArgsConstructor
+  public static class Key implements Serializable {
+    private String fulfilmentCode;
+    private int stripe;
+  }
+}
@@ -10,11 +10,8 @@ import lombok.Data;
 
 @Data
 @Entity
-@Table(
-    indexes = {
-      @Index(name = "uacqid_case_id_idx", columnList = "case_id"),
-      @Index(name = "qid_idx", columnList = "qid")
-    })
+// The unique index on qid, which upserts rely on, is made by data.sql once any duplicates are gone
+@Table(indexes = {@Index(name = "uacqid_case_id_idx", columnList = "case_id")})
 public class UacQidLink {
   @Id private UUID id;
 
@@ -2,8 +2,19 @@ package uk.gov.ons.census.action.model.repository;
 
 import java.util.*;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import uk.gov.ons.census.action.model.entity.Case;
 
-public interface CaseRepository extends JpaRepository<Case, Long> {
+public interface CaseRepository extends JpaRepository<Case, Long>, CaseRepositoryCustom {
   Optional<Case> findByCaseId(UUID caseId);
+
+  // The entity has to be named in full, because CASE on its own is an HQL keyword
+  @Query(
+      "SELECT new uk.gov.ons.census.action.model.repository.FulfilmentCase(c.caseRef, c.caseId,"
+          + " c.caseType, c.handDelivery, c.addressLine1, c.addressLine2, c.addressLine3,"
+          + " c.townName, c.postcode, c.organisationName, c.fieldCoordinatorId,"
+          + " c.fieldOfficerId) FROM uk.gov.ons.census.action.model.entity.Case c"
+          + " WHERE c.caseId = :caseId")
+  Optional<FulfilmentCase> findFulfilmentCaseByCaseId(@Param("caseId") UUID caseId);
 }
@@ -0,0 +1,14 @@
+package uk.gov.ons.census.action.model.repository;
+
+import java.util.List;
+import uk.gov.ons.census.action.model.entity.Case;
+
+public interface CaseRepositoryCustom {
+  boolean upsert(Case caze);
+
+  CaseUpdateOutcome updateChangedColumns(Case caze);
+
+  void upsertAll(List<Case> cases);
+
+  void copyAll(List<Case> cases);
+}
@@ -0,0 +1,337 @@
+package uk.gov.ons.census.action.model.repository;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.godaddy.logging.Logger;
+import com.godaddy.logging.LoggerFactory;
+import java.nio.charset.StandardCharsets;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.jdbc.support.JdbcUtils;
+import uk.gov.ons.census.action.model.entity.Case;
+
+public class CaseRepositoryCustomImpl implements CaseRepositoryCustom {
+  private static final Logger log = LoggerFactory.getLogger(CaseRepositoryCustomImpl.class);
+
+  // The order of these columns must match the order of the parameters added in toParameters
+  private static final String CASE_COLUMNS =
+      "case_ref, case_id, case_type, estab_uprn, uprn, address_type, estab_type, address_level,"
+          + " abp_code, organisation_name, address_line1, address_line2, address_line3, town_name,"
+          + " postcode, latitude, longitude, oa, lsoa, msoa, lad, region, htc_willingness,"
+          + " htc_digital, field_coordinator_id, field_officer_id, treatment_code,"
+          + " ce_expected_capacity, ce_actual_responses, collection_exercise_id, action_plan_id,"
+          + " receipt_received, refusal_received, address_invalid, hand_delivery, skeleton,"
+          + " metadata, print_batch, survey_launched, created_date_time, last_updated";
+
+  private static final String INSERT_CASE_SQL =
+      "INSERT INTO actionv2.cases ("
+          + CASE_COLUMNS
+          + ") VALUES (:caseRef, :caseId, :caseType, :estabUprn, :uprn, :addressType, :estabType,"
+          + " :addressLevel, :abpCode, :organisationName, :addressLine1, :addressLine2,"
+          + " :addressLine3, :townName, :postcode, :latitude, :longitude, :oa, :lsoa, :msoa, :lad,"
+          + " :region, :htcWillingness, :htcDigital, :fieldCoordinatorId, :fieldOfficerId,"
+          + " :treatmentCode, :ceExpectedCapacity, :ceActualResponses, :collectionExerciseId,"
+          + " :actionPlanId, :receiptReceived, :refusalReceived, :addressInvalid, :handDelivery,"
+          + " :skeleton, CAST(:metadata AS jsonb), :printBatch, :surveyLaunched,"
+          + " :createdDateTime, :lastUpdated)";
+
+  // Cases are only ever overwritten by newer versions, so stale updates are thrown away
+  private static final String UPSERT_IF_NEWER_SQL_SUFFIX =
+      " ON CONFLICT (case_ref) DO UPDATE SET case_id = excluded.case_id,"
+          + " case_type = excluded.case_type, estab_uprn = excluded.estab_uprn,"
+          + " uprn = excluded.uprn, address_type = excluded.address_type,"
+          + " estab_type = excluded.estab_type, address_level = excluded.address_level,"
+          + " abp_code = excluded.abp_code, organisation_name = excluded.organisation_name,"
+          + " address_line1 = excluded.address_line1, address_line2 = excluded.address_line2,"
+          + " address_line3 = excluded.address_line3, town_name = excluded.town_name,"
+          + " postcode = excluded.postcode, latitude = excluded.latitude,"
+          + " longitude = excluded.longitude, oa = excluded.oa, lsoa = excluded.lsoa,"
+          + " msoa = excluded.msoa, lad = excluded.lad, region = excluded.region,"
+          + " htc_willingness = excluded.htc_willingness, htc_digital = excluded.htc_digital,"
+          + " field_coordinator_id = excluded.field_coordinator_id,"
+          + " field_officer_id = excluded.field_officer_id,"
+          + " treatment_code = excluded.treatment_code,"
+          + " ce_expected_capacity = excluded.ce_expected_capacity,"
+          + " ce_actual_responses = excluded.ce_actual_responses,"
+          + " collection_exercise_id = excluded.collection_exercise_id,"
+          + " action_plan_id = excluded.action_plan_id,"
+          + " receipt_received = excluded.receipt_received,"
+          + " refusal_received = excluded.refusal_received,"
+          + " address_invalid = excluded.address_invalid,"
+          + " hand_delivery = excluded.hand_delivery, skeleton = excluded.skeleton,"
+          + " metadata = excluded.metadata, print_batch = excluded.print_batch,"
+          + " survey_launched = excluded.survey_launched,"
+          + " created_date_time = excluded.created_date_time,"
+          + " last_updated = excluded.last_updated"
+          + " WHERE excluded.last_updated > cases.last_updated";
+
+  private static final String UPSERT_CASE_SQL = INSERT_CASE_SQL + UPSERT_IF_NEWER_SQL_SUFFIX;
+
+  private static final String KEY_COLUMN = "case_ref";
+  private static final String LAST_UPDATED_COLUMN = "last_updated";
+  private static final String STALE_COLUMN = "stale";
+  private static final List<String> COMPARED_COLUMNS = getComparedColumns();
+
+  // Says which columns an update would change, and locks the case until it has been written
+  private static final String FIND_CHANGED_COLUMNS_SQL = buildFindChangedColumnsSql();
+
+  private static final String UPDATE_LAST_UPDATED_SQL =
+      buildUpdateSql(List.of(LAST_UPDATED_COLUMN));
+
+  private static final String CREATE_STAGING_TABLE_SQL =
+      "CREATE TEMPORARY TABLE cases_staging (LIKE actionv2.cases INCLUDING DEFAULTS)"
+          + " ON COMMIT DROP";
+
+  private static final String COPY_TO_STAGING_TABLE_SQL =
+      "COPY cases_staging (" + CASE_COLUMNS + ") FROM STDIN WITH (FORMAT csv)";
+
+  // A case can only be written once per statement, so duplicates are collapsed to the newest
+  private static final String MERGE_STAGING_TABLE_SQL =
+      "INSERT INTO actionv2.cases ("
+          + CASE_COLUMNS
+          + ") SELECT DISTINCT ON (case_ref) "
+          + CASE_COLUMNS
+          + " FROM cases_staging ORDER BY case_ref, last_updated DESC"
+          + UPSERT_IF_NEWER_SQL_SUFFIX;
+
+  private static final String DROP_STAGING_TABLE_SQL = "DROP TABLE cases_staging";
+
+  private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+  private final ObjectMapper objectMapper;
+
+  public CaseRepositoryCustomImpl(
+      NamedParameterJdbcTemplate namedParameterJdbcTemplate, ObjectMapper objectMapper) {
+    this.namedParameterJdbcTemplate = namedParameterJdbcTemplate;
+    this.objectMapper = objectMapper;
+  }
+
+  @Override
+  public boolean upsert(Case caze) {
+    return namedParameterJdbcTemplate.update(UPSERT_CASE_SQL, toParameters(caze)) > 0;
+  }
+
+  /*
+   * Writing a column which is indexed, such as treatment_code or lsoa, stops PostgreSQL from making
+   * a HOT update and adds an index entry, even when the value is the same. Many updates only repeat
+   * what we already have, so only the columns which have really changed are written. An update
+   * which changes nothing apart from last_updated still moves last_updated on, otherwise an older
+   * update arriving after it would not be seen as stale. last_updated isn't indexed, so that is
+   * still a HOT update.
+   */
+  @Override
+  public CaseUpdateOutcome updateChangedColumns(Case caze) {
+    MapSqlParameterSource parameters = toParameters(caze);
+    List<Map<String, Object>> rows =
+        namedParameterJdbcTemplate.queryForList(FIND_CHANGED_COLUMNS_SQL, parameters);
+
+    // A case can be updated before it has been created
+    if (rows.isEmpty()) {
+      return upsert(caze) ? CaseUpdateOutcome.UPDATED : CaseUpdateOutcome.STALE;
+    }
+
+    Map<String, Object> changes = rows.get(0);
+    if (Boolean.TRUE.equals(changes.get(STALE_COLUMN))) {
+      return CaseUpdateOutcome.STALE;
+    }
+
+    List<String> changedColumns = new ArrayList<>();
+    for (String column : COMPARED_COLUMNS) {
+      if (Boolean.TRUE.equals(changes.get(column))) {
+        changedColumns.add(column);
+      }
+    }
+
+    if (changedColumns.isEmpty()) {
+      namedParameterJdbcTemplate.update(UPDATE_LAST_UPDATED_SQL, parameters);
+      return CaseUpdateOutcome.UNCHANGED;
+    }
+
+    changedColumns.add(LAST_UPDATED_COLUMN);
+    namedParameterJdbcTemplate.update(buildUpdateSql(changedColumns), parameters);
+    return CaseUpdateOutcome.UPDATED;
+  }
+
+  @Override
+  public void upsertAll(List<Case> cases) {
+    if (cases.isEmpty()) {
+      return;
+    }
+
+    SqlParameterSource[] batchParameters = new SqlParameterSource[cases.size()];
+    for (int i = 0; i < cases.size(); i++) {
+      batchParameters[i] = toParameters(cases.get(i));
+    }
+
+    namedParameterJdbcTemplate.batchUpdate(UPSERT_CASE_SQL, batchParameters);
+  }
+
+  @Override
+  public void copyAll(List<Case> cases) {
+    if (cases.isEmpty()) {
+      return;
+    }
+
+    long startTime = System.nanoTime();
+    JdbcTemplate jdbcTemplate = namedParameterJdbcTemplate.getJdbcTemplate();
+    jdbcTemplate.execute(CREATE_STAGING_TABLE_SQL);
+    jdbcTemplate.execute(
+        (ConnectionCallback<Long>)
+            connection -> {
+              CopyIn copyIn =
+                  connection
+                      .unwrap(PGConnection.class)
+                      .getCopyAPI()
+                      .copyIn(COPY_TO_STAGING_TABLE_SQL);
+              try {
+                for (Case caze : cases) {
+                  byte[] row = toCsvRow(caze);
+                  copyIn.writeToCopy(row, 0, row.length);
+                }
+                return copyIn.endCopy();
+              } finally {
+                if (copyIn.isActive()) {
+                  copyIn.cancelCopy();
+                }
+              }
+            });
+    int mergedRows = jdbcTemplate.update(MERGE_STAGING_TABLE_SQL);
+    jdbcTemplate.execute(DROP_STAGING_TABLE_SQL);
+
+    long elapsedNanos = Math.max(System.nanoTime() - startTime, 1);
+    log.with("rows", cases.size())
+        .with("merged_rows", mergedRows)
+        .with("elapsed_ms", TimeUnit.NANOSECONDS.toMillis(elapsedNanos))
+        .with("rows_per_second", cases.size() * TimeUnit.SECONDS.toNanos(1) / elapsedNanos)
+        .info("Bulk loaded cases");
+  }
+
+  // Every column apart from the key and last_updated, which are never compared
+  private static List<String> getComparedColumns() {
+    List<String> columns = new ArrayList<>();
+    for (String column : CASE_COLUMNS.split(",\\s*")) {
+      if (!column.equals(KEY_COLUMN) && !column.equals(LAST_UPDATED_COLUMN)) {
+        columns.add(column);
+      }
+    }
+    return columns;
+  }
+
+  // The parameter names in toParameters are the column names in camel case
+  private static String toParameter(String column) {
+    String parameter = ":" + JdbcUtils.convertUnderscoreNameToPropertyName(column);
+    return column.equals("metadata") ? "CAST(" + parameter + " AS jsonb)" : parameter;
+  }
+
+  private static String buildFindChangedColumnsSql() {
+    StringBuilder sql =
+        new StringBuilder("SELECT NOT COALESCE(:lastUpdated > last_updated, false) AS ")
+            .append(STALE_COLUMN);
+    for (String column : COMPARED_COLUMNS) {
+      sql.append(", ")
+          .append(column)
+          .append(" IS DISTINCT FROM ")
+          .append(toParameter(column))
+          .append(" AS ")
+          .append(column);
+    }
+    return sql.append(" FROM actionv2.cases WHERE case_ref = :caseRef FOR UPDATE").toString();
+  }
+
+  private static String buildUpdateSql(List<String> columns) {
+    StringBuilder sql = new StringBuilder("UPDATE actionv2.cases SET ");
+    for (int i = 0; i < columns.size(); i++) {
+      if (i > 0) {
+        sql.append(", ");
+      }
+      sql.append(columns.get(i)).append(" = ").append(toParameter(columns.get(i)));
+    }
+    return sql.append(" WHERE case_ref = :caseRef AND last_updated < :lastUpdated").toString();
+  }
+
+  private byte[] toCsvRow(Case caze) {
+    StringBuilder row = new StringBuilder();
+    for (Object value : toParameters(caze).getValues().values()) {
+      if (row.length() > 0) {
+        row.append(',');
+      }
+
+      // An unquoted empty value is NULL, a quoted one is an empty string
+      if (value != null) {
+        row.append('"').append(value.toString().replace("\"", "\"\"")).append('"');
+      }
+    }
+    return row.append('\n').toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  private MapSqlParameterSource toParameters(Case caze) {
+    // All the types are given explicitly, otherwise the driver is asked to describe every null
+    return new MapSqlParameterSource()
+        .addValue("caseRef", caze.getCaseRef(), Types.BIGINT)
+        .addValue("caseId", caze.getCaseId(), Types.OTHER)
+        .addValue("caseType", caze.getCaseType(), Types.VARCHAR)
+        .addValue("estabUprn", caze.getEstabUprn(), Types.VARCHAR)
+        .addValue("uprn", caze.getUprn(), Types.VARCHAR)
+        .addValue("addressType", caze.getAddressType(), Types.VARCHAR)
+        .addValue("estabType", caze.getEstabType(), Types.VARCHAR)
+        .addValue("addressLevel", caze.getAddressLevel(), Types.VARCHAR)
+        .addValue("abpCode", caze.getAbpCode(), Types.VARCHAR)
+        .addValue("organisationName", caze.getOrganisationName(), Types.VARCHAR)
+        .addValue("addressLine1", caze.getAddressLine1(), Types.VARCHAR)
+        .addValue("addressLine2", caze.getAddressLine2(), Types.VARCHAR)
+        .addValue("addressLine3", caze.getAddressLine3(), Types.VARCHAR)
+        .addValue("townName", caze.getTownName(), Types.VARCHAR)
+        .addValue("postcode", caze.getPostcode(), Types.VARCHAR)
+        .addValue("latitude", caze.getLatitude(), Types.VARCHAR)
+        .addValue("longitude", caze.getLongitude(), Types.VARCHAR)
+        .addValue("oa", caze.getOa(), Types.VARCHAR)
+        .addValue("lsoa", caze.getLsoa(), Types.VARCHAR)
+        .addValue("msoa", caze.getMsoa(), Types.VARCHAR)
+        .addValue("lad", caze.getLad(), Types.VARCHAR)
+        .addValue("region", caze.getRegion(), Types.VARCHAR)
+        .addValue("htcWillingness", caze.getHtcWillingness(), Types.VARCHAR)
+        .addValue("htcDigital", caze.getHtcDigital(), Types.VARCHAR)
+        .addValue("fieldCoordinatorId", caze.getFieldCoordinatorId(), Types.VARCHAR)
+        .addValue("fieldOfficerId", caze.getFieldOfficerId(), Types.VARCHAR)
+        .addValue("treatmentCode", caze.getTreatmentCode(), Types.VARCHAR)
+        .addValue("ceExpectedCapacity", caze.getCeExpectedCapacity(), Types.INTEGER)
+        .addValue("ceActualResponses", caze.getCeActualResponses(), Types.INTEGER)
+        .addValue("collectionExerciseId", caze.getCollectionExerciseId(), Types.OTHER)
+        .addValue("actionPlanId", caze.getActionPlanId(), Types.OTHER)
+        .addValue("receiptReceived", caze.isReceiptReceived(), Types.BOOLEAN)
+        .addValue(
+            "refusalReceived",
+            caze.getRefusalReceived() != null ? caze.getRefusalReceived().name() : null,
+            Types.VARCHAR)
+        .addValue("addressInvalid", caze.isAddressInvalid(), Types.BOOLEAN)
+        .addValue("handDelivery", caze.isHandDelivery(), Types.BOOLEAN)
+        .addValue("skeleton", caze.isSkeleton(), Types.BOOLEAN)
+        .addValue("metadata", toJson(caze), Types.VARCHAR)
+        .addValue("printBatch", caze.getPrintBatch(), Types.VARCHAR)
+        .addValue("surveyLaunched", caze.isSurveyLaunched(), Types.BOOLEAN)
+        .addValue("createdDateTime", caze.getCreatedDateTime(), Types.TIMESTAMP_WITH_TIMEZONE)
+        .addValue("lastUpdated", caze.getLastUpdated(), Types.TIMESTAMP_WITH_TIMEZONE);
+  }
+
+  private String toJson(Case caze) {
+    if (caze.getMetadata() == null) {
+      return null;
+    }
+
+    try {
+      return objectMapper.writeValueAsString(caze.getMetadata());
+    } catch (JsonProcessingException e) {
+      throw new RuntimeException(
+          String.format("Could not serialise metadata for case %s", caze.getCaseId()), e);
+    }
+  }
+}
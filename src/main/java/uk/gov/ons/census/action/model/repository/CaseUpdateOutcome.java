@@ -0,0 +1,7 @@
+package uk.gov.ons.census.action.model.repository;
+
+public enum CaseUpdateOutcome {
+  UPDATED,
+  UNCHANGED,
+  STALE
+}
@@ -0,0 +1,46 @@
+package uk.gov.ons.census.action.model.repository;
+
+import java.util.UUID;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Value;
+import uk.gov.ons.census.action.model.entity.Case;
+
+/*
+ * The columns of a case which fulfilments need. Reading only these, instead of the whole Case
+ * entity, keeps each row narrow and saves deserializing the metadata. It is immutable, because the
+ * case cache hands the same instance to every fulfilment for the case.
+ */
+@Value
+@Builder(toBuilder = true)
+@AllArgsConstructor
+public class FulfilmentCase {
+  private long caseRef;
+  private UUID caseId;
+  private String caseType;
+  private boolean handDelivery;
+  private String addressLine1;
+  private String addressLine2;
+  private String addressLine3;
+  private String townName;
+  private String postcode;
+  private String organisationName;
+  private String fieldCoordinatorId;
+  private String fieldOfficerId;
+
+  public static FulfilmentCase fromCase(Case caze) {
+    return new FulfilmentCase(
+        caze.getCaseRef(),
+        caze.getCaseId(),
+        caze.getCaseType(),
+        caze.isHandDelivery(),
+        caze.getAddressLine1(),
+        caze.getAddressLine2(),
+        caze.getAddressLine3(),
+        caze.getTownName(),
+        caze.getPostcode(),
+        caze.getOrganisationName(),
+        caze.getFieldCoordinatorId(),
+        caze.getFieldOfficerId());
+  }
+}
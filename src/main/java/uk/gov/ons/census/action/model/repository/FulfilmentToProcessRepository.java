@@ -1,12 +1,44 @@
 package uk.gov.ons.census.action.model.repository;
 
 import java.util.List;
+import java.util.UUID;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 import uk.gov.ons.census.action.model.entity.FulfilmentToProcess;
 
 public interface FulfilmentToProcessRepository extends JpaRepository<FulfilmentToProcess, Long> {
 
   @Query("SELECT DISTINCT f.fulfilmentCode FROM FulfilmentToProcess f")
   List<String> findDistinctFulfilmentCode();
+
+  /*
+   * Takes up to a limit of the oldest fulfilments for a code which are not in a batch yet, and puts
+   * them in the given batch. They are taken in the order they were added, because IDs are handed
+   * out in blocks to each node. Rows added before there was an added_at come last. Rows which another transaction is claiming are skipped rather than
+   * waited for, so several nodes can claim batches at the same time without blocking each other,
+   * and a fulfilment is never put in two batches. The rows stay locked until the transaction ends.
+   * Only rows in the pending batch day are looked at, so a partitioned table only has its pending
+   * partition searched.
+   */
+  @Transactional
+  @Query(
+      value =
+          "UPDATE actionv2.fulfilment_to_process SET batch_id = :batchId, batched_at = now(),"
+              + " batch_day = CAST(now() AT TIME ZONE 'UTC' AS date)"
+              + " WHERE batch_day = "
+              + FulfilmentToProcess.PENDING_BATCH_DAY_SQL
+              + " AND id IN"
+              + " (SELECT id FROM actionv2.fulfilment_to_process"
+              + " WHERE fulfilment_code = :fulfilmentCode AND batch_day = "
+              + FulfilmentToProcess.PENDING_BATCH_DAY_SQL
+              + " AND batch_id IS NULL"
+              + " ORDER BY added_at, id LIMIT :limit FOR UPDATE SKIP LOCKED)"
+              + " RETURNING *",
+      nativeQuery = true)
+  List<FulfilmentToProcess> claimUnbatched(
+      @Param("fulfilmentCode") String fulfilmentCode,
+      @Param("batchId") UUID batchId,
+      @Param("limit") int limit);
 }
@@ -0,0 +1,52 @@
+package uk.gov.ons.census.action.model.repository;
+
+import java.time.OffsetDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+import uk.gov.ons.census.action.model.entity.ParkedFulfilment;
+
+public interface ParkedFulfilmentRepository extends JpaRepository<ParkedFulfilment, UUID> {
+
+  // Removes and returns the fulfilments waiting for any of the cases
+  @Transactional
+  @Query(
+      value = "DELETE FROM actionv2.parked_fulfilment WHERE case_id IN (:caseIds) RETURNING *",
+      nativeQuery = true)
+  List<ParkedFulfilment> releaseByCaseIds(@Param("caseIds") Collection<UUID> caseIds);
+
+  /*
+   * Removes and returns up to a limit of the oldest fulfilments whose case now exists. A fulfilment
+   * can be parked just after its case was created, by a transaction which started before the case
+   * was committed, so these are picked up here. Rows which another node is releasing are skipped.
+   */
+  @Transactional
+  @Query(
+      value =
+          "DELETE FROM actionv2.parked_fulfilment WHERE id IN"
+              + " (SELECT p.id FROM actionv2.parked_fulfilment p WHERE EXISTS"
+              + " (SELECT 1 FROM actionv2.cases c WHERE c.case_id = p.case_id)"
+              + " ORDER BY p.parked_at LIMIT :limit FOR UPDATE SKIP LOCKED)"
+              + " RETURNING *",
+      nativeQuery = true)
+  List<ParkedFulfilment> releaseArrived(@Param("limit") int limit);
+
+  // Removes and returns up to a limit of the fulfilments which have waited too long for their case
+  @Transactional
+  @Query(
+      value =
+          "DELETE FROM actionv2.parked_fulfilment WHERE id IN"
+              + " (SELECT p.id FROM actionv2.parked_fulfilment p WHERE p.parked_at < :parkedBefore"
+              + " ORDER BY p.parked_at LIMIT :limit FOR UPDATE SKIP LOCKED)"
+              + " RETURNING *",
+      nativeQuery = true)
+  List<ParkedFulfilment> expireParkedBefore(
+      @Param("parkedBefore") OffsetDateTime parkedBefore, @Param("limit") int limit);
+
+  @Query("SELECT MIN(p.parkedAt) FROM ParkedFulfilment p")
+  OffsetDateTime findOldestParkedAt();
+}
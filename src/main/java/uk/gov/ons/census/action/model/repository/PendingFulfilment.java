@@ -0,0 +1,18 @@
+package uk.gov.ons.census.action.model.repository;
+
+import java.time.OffsetDateTime;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import uk.gov.ons.census.action.model.entity.FulfilmentType;
+
+// The stripes for a fulfilment code added up: the fulfilments waiting for a batch, and the oldest
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PendingFulfilment {
+  private String fulfilmentCode;
+  private FulfilmentType fulfilmentType;
+  private long pendingCount;
+  private OffsetDateTime oldestPendingAt;
+}
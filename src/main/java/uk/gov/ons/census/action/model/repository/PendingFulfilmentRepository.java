@@ -0,0 +1,8 @@
+package uk.gov.ons.census.action.model.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import uk.gov.ons.census.action.model.entity.PendingFulfilmentStripe;
+
+public interface PendingFulfilmentRepository
+    extends JpaRepository<PendingFulfilmentStripe, PendingFulfilmentStripe.Key>,
+        PendingFulfilmentRepositoryCustom {}
@@ -0,0 +1,20 @@
+package uk.gov.ons.census.action.model.repository;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+import uk.gov.ons.census.action.model.entity.FulfilmentType;
+
+public interface PendingFulfilmentRepositoryCustom {
+  void fulfilmentsAdded(
+      String fulfilmentCode,
+      FulfilmentType fulfilmentType,
+      int stripe,
+      int added,
+      OffsetDateTime oldestAddedAt);
+
+  void fulfilmentsClaimed(String fulfilmentCode, int claimed);
+
+  List<PendingFulfilment> findPendingFulfilments();
+
+  int rebuildIfEmpty();
+}
@@ -0,0 +1,124 @@
+package uk.gov.ons.census.action.model.repository;
+
+import java.sql.Types;
+import java.time.OffsetDateTime;
+import java.util.List;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import uk.gov.ons.census.action.model.entity.FulfilmentToProcess;
+import uk.gov.ons.census.action.model.entity.FulfilmentType;
+
+public class PendingFulfilmentRepositoryCustomImpl implements PendingFulfilmentRepositoryCustom {
+
+  private static final String ADD_FULFILMENTS_SQL =
+      "INSERT INTO actionv2.pending_fulfilment_stripe"
+          + " (fulfilment_code, stripe, fulfilment_type, pending_count, oldest_pending_at)"
+          + " VALUES (:fulfilmentCode, :stripe, :fulfilmentType, :added, :oldestAddedAt)"
+          + " ON CONFLICT (fulfilment_code, stripe) DO UPDATE SET"
+          + " fulfilment_type = COALESCE(excluded.fulfilment_type,"
+          + " pending_fulfilment_stripe.fulfilment_type),"
+          + " pending_count = pending_fulfilment_stripe.pending_count + excluded.pending_count,"
+          + " oldest_pending_at = LEAST(pending_fulfilment_stripe.oldest_pending_at,"
+          + " excluded.oldest_pending_at)";
+
+  // Always in the same order, so two claims for a code can't deadlock
+  private static final String LOCK_STRIPES_SQL =
+      "SELECT stripe FROM actionv2.pending_fulfilment_stripe"
+          + " WHERE fulfilment_code = :fulfilmentCode ORDER BY stripe FOR UPDATE";
+
+  /*
+   * The claim is taken off one stripe, and the oldest is worked out again for all of them. The
+   * claimed rows already have their batch ID, so the oldest is found among the rest. This is run
+   * once the stripes are locked, so it sees the fulfilments added by any transaction it waited for.
+   */
+  private static final String CLAIM_FULFILMENTS_SQL =
+      "UPDATE actionv2.pending_fulfilment_stripe SET"
+          + " pending_count = pending_count"
+          + " - CASE WHEN stripe = :claimedStripe THEN :claimed ELSE 0 END,"
+          + " oldest_pending_at = (SELECT MIN(added_at) FROM actionv2.fulfilment_to_process"
+          + " WHERE fulfilment_code = :fulfilmentCode AND batch_day = "
+          + FulfilmentToProcess.PENDING_BATCH_DAY_SQL
+          + " AND batch_id IS NULL)"
+          + " WHERE fulfilment_code = :fulfilmentCode";
+
+  private static final String FIND_PENDING_FULFILMENTS_SQL =
+      "SELECT fulfilment_code, MAX(fulfilment_type) AS fulfilment_type,"
+          + " SUM(pending_count) AS pending_count, MIN(oldest_pending_at) AS oldest_pending_at"
+          + " FROM actionv2.pending_fulfilment_stripe GROUP BY fulfilment_code"
+          + " HAVING SUM(pending_count) > 0 ORDER BY fulfilment_code";
+
+  // Only when there is no summary at all, e.g. the first time this version runs
+  private static final String REBUILD_IF_EMPTY_SQL =
+      "INSERT INTO actionv2.pending_fulfilment_stripe"
+          + " (fulfilment_code, stripe, fulfilment_type, pending_count, oldest_pending_at)"
+          + " SELECT fulfilment_code, 0, MAX(fulfilment_type), COUNT(*), MIN(added_at)"
+          + " FROM actionv2.fulfilment_to_process"
+          + " WHERE batch_day = "
+          + FulfilmentToProcess.PENDING_BATCH_DAY_SQL
+          + " AND batch_id IS NULL AND fulfilment_code IS NOT NULL"
+          + " AND NOT EXISTS (SELECT 1 FROM actionv2.pending_fulfilment_stripe)"
+          + " GROUP BY fulfilment_code ON CONFLICT (fulfilment_code, stripe) DO NOTHING";
+
+  private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+  public PendingFulfilmentRepositoryCustomImpl(
+      NamedParameterJdbcTemplate namedParameterJdbcTemplate) {
+    this.namedParameterJdbcTemplate = namedParameterJdbcTemplate;
+  }
+
+  @Override
+  public void fulfilmentsAdded(
+      String fulfilmentCode,
+      FulfilmentType fulfilmentType,
+      int stripe,
+      int added,
+      OffsetDateTime oldestAddedAt) {
+    namedParameterJdbcTemplate.update(
+        ADD_FULFILMENTS_SQL,
+        new MapSqlParameterSource()
+            .addValue("fulfilmentCode", fulfilmentCode, Types.VARCHAR)
+            .addValue("stripe", stripe, Types.INTEGER)
+            .addValue(
+                "fulfilmentType",
+                fulfilmentType != null ? fulfilmentType.name() : null,
+                Types.VARCHAR)
+            .addValue("added", added, Types.INTEGER)
+            .addValue("oldestAddedAt", oldestAddedAt, Types.TIMESTAMP_WITH_TIMEZONE));
+  }
+
+  @Override
+  public void fulfilmentsClaimed(String fulfilmentCode, int claimed) {
+    MapSqlParameterSource parameters =
+        new MapSqlParameterSource().addValue("fulfilmentCode", fulfilmentCode, Types.VARCHAR);
+    List<Integer> stripes =
+        namedParameterJdbcTemplate.queryForList(LOCK_STRIPES_SQL, parameters, Integer.class);
+    if (stripes.isEmpty()) {
+      return;
+    }
+
+    namedParameterJdbcTemplate.update(
+        CLAIM_FULFILMENTS_SQL,
+        parameters
+            .addValue("claimedStripe", stripes.get(0), Types.INTEGER)
+            .addValue("claimed", claimed, Types.INTEGER));
+  }
+
+  @Override
+  public List<PendingFulfilment> findPendingFulfilments() {
+    return namedParameterJdbcTemplate.query(
+        FIND_PENDING_FULFILMENTS_SQL,
+        (resultSet, rowNum) -> {
+          String fulfilmentType = resultSet.getString("fulfilment_type");
+          return new PendingFulfilment(
+              resultSet.getString("fulfilment_code"),
+              fulfilmentType != null ? FulfilmentType.valueOf(fulfilmentType) : null,
+              resultSet.getLong("pending_count"),
+              resultSet.getObject("oldest_pending_at", OffsetDateTime.class));
+        });
+  }
+
+  @Override
+  public int rebuildIfEmpty() {
+    return namedParameterJdbcTemplate.update(REBUILD_IF_EMPTY_SQL, new MapSqlParameterSource());
+  }
+}
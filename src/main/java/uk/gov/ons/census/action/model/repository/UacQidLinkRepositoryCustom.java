@@ -0,0 +1,10 @@
+package uk.gov.ons.census.action.model.repository;
+
+import java.util.List;
+import uk.gov.ons.census.action.model.entity.UacQidLink;
+
+public interface UacQidLinkRepositoryCustom {
+  void upsert(UacQidLink uacQidLink);
+
+  void upsertAll(List<UacQidLink> uacQidLinks);
+}
@@ -0,0 +1,52 @@
+package uk.gov.ons.census.action.model.repository;
+
+import java.sql.Types;
+import java.util.List;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import uk.gov.ons.census.action.model.entity.UacQidLink;
+
+public class UacQidLinkRepositoryCustomImpl implements UacQidLinkRepositoryCustom {
+
+  // Relies on the unique index on qid. The id and UAC of an existing link are never changed
+  private static final String UPSERT_UAC_QID_LINK_SQL =
+      "INSERT INTO actionv2.uac_qid_link (id, qid, uac, case_id, active)"
+          + " VALUES (:id, :qid, :uac, :caseId, :active)"
+          + " ON CONFLICT (qid) DO UPDATE SET case_id = excluded.case_id,"
+          + " active = excluded.active";
+
+  private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+  public UacQidLinkRepositoryCustomImpl(NamedParameterJdbcTemplate namedParameterJdbcTemplate) {
+    this.namedParameterJdbcTemplate = namedParameterJdbcTemplate;
+  }
+
+  @Override
+  public void upsert(UacQidLink uacQidLink) {
+    namedParameterJdbcTemplate.update(UPSERT_UAC_QID_LINK_SQL, toParameters(uacQidLink));
+  }
+
+  @Override
+  public void upsertAll(List<UacQidLink> uacQidLinks) {
+    if (uacQidLinks.isEmpty()) {
+      return;
+    }
+
+    SqlParameterSource[] batchParameters = new SqlParameterSource[uacQidLinks.size()];
+    for (int i = 0; i < uacQidLinks.size(); i++) {
+      batchParameters[i] = toParameters(uacQidLinks.get(i));
+    }
+
+    namedParameterJdbcTemplate.batchUpdate(UPSERT_UAC_QID_LINK_SQL, batchParameters);
+  }
+
+  private MapSqlParameterSource toParameters(UacQidLink uacQidLink) {
+    return new MapSqlParameterSource()
+        .addValue("id", uacQidLink.getId(), Types.OTHER)
+        .addValue("qid", uacQidLink.getQid(), Types.VARCHAR)
+        .addValue("uac", uacQidLink.getUac(), Types.VARCHAR)
+        .addValue("caseId", uacQidLink.getCaseId(), Types.OTHER)
+        .addValue("active", uacQidLink.isActive(), Types.BOOLEAN);
+  }
+}
@@ -0,0 +1,79 @@
+package uk.gov.ons.census.action.service;
+
+import com.godaddy.logging.Logger;
+import com.godaddy.logging.LoggerFactory;
+import java.util.List;
+import java.util.UUID;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import uk.gov.ons.census.action.model.entity.FulfilmentToProcess;
+import uk.gov.ons.census.action.model.repository.FulfilmentToProcessRepository;
+import uk.gov.ons.census.action.model.repository.PendingFulfilment;
+import uk.gov.ons.census.action.model.repository.PendingFulfilmentRepository;
+
+@Service
+public class FulfilmentBatchService {
+  private static final Logger log = LoggerFactory.getLogger(FulfilmentBatchService.class);
+
+  private final FulfilmentToProcessRepository fulfilmentToProcessRepository;
+  private final PendingFulfilmentRepository pendingFulfilmentRepository;
+  private final TransactionTemplate transactionTemplate;
+
+  @Value("${fulfilmentbatches.claim-attempts}")
+  private int claimAttempts;
+
+  public FulfilmentBatchService(
+      FulfilmentToProcessRepository fulfilmentToProcessRepository,
+      PendingFulfilmentRepository pendingFulfilmentRepository,
+      TransactionTemplate transactionTemplate) {
+    this.fulfilmentToProcessRepository = fulfilmentToProcessRepository;
+    this.pendingFulfilmentRepository = pendingFulfilmentRepository;
+    this.transactionTemplate = transactionTemplate;
+  }
+
+  // Read from the summary, rather than looking through every fulfilment there has ever been
+  public List<PendingFulfilment> findPendingFulfilments() {
+    return pendingFulfilmentRepository.findPendingFulfilments();
+  }
+
+  /*
+   * When fulfilment_to_process is partitioned, claiming a row moves it to the partition for its
+   * batch day. A claim which tries to lock a row just as another node has moved it fails with a
+   * serialization failure, and is made again in a new transaction. Inside the caller's transaction
+   * it can't be, so the failure is left to the caller.
+   */
+  public List<FulfilmentToProcess> claimBatch(String fulfilmentCode, int limit) {
+    int attempts =
+        TransactionSynchronizationManager.isActualTransactionActive()
+            ? 1
+            : Math.max(claimAttempts, 1);
+
+    for (int attempt = 1; ; attempt++) {
+      try {
+        return transactionTemplate.execute(status -> claim(fulfilmentCode, limit));
+      } catch (ConcurrencyFailureException e) {
+        if (attempt >= attempts) {
+          throw e;
+        }
+
+        log.with("fulfilment_code", fulfilmentCode)
+            .with("attempt", attempt)
+            .warn("Claim clashed with another one, trying again");
+      }
+    }
+  }
+
+  private List<FulfilmentToProcess> claim(String fulfilmentCode, int limit) {
+    List<FulfilmentToProcess> claimedFulfilments =
+        fulfilmentToProcessRepository.claimUnbatched(fulfilmentCode, UUID.randomUUID(), limit);
+
+    if (!claimedFulfilments.isEmpty()) {
+      pendingFulfilmentRepository.fulfilmentsClaimed(fulfilmentCode, claimedFulfilments.size());
+    }
+
+    return claimedFulfilments;
+  }
+}
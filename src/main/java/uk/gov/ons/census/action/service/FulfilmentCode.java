@@ -0,0 +1,12 @@
+package uk.gov.ons.census.action.service;
+
+import lombok.Data;
+import uk.gov.ons.census.action.model.entity.FulfilmentType;
+
+@Data
+public class FulfilmentCode {
+  private final FulfilmentType fulfilmentType;
+  private final boolean ignored;
+  private final boolean paperQuestionnaire;
+  private final boolean individualResponse;
+}
@@ -0,0 +1,170 @@
+package uk.gov.ons.census.action.service;
+
+import com.godaddy.logging.Logger;
+import com.godaddy.logging.LoggerFactory;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import uk.gov.ons.census.action.model.entity.FulfilmentType;
+
+/*
+ * Knows what to do with each fulfilment code, as listed in the fulfilment codes file. The file is
+ * read at startup. When it is a file on disk, rather than one packaged with the application, it is
+ * re-read whenever it has changed, so that codes can be changed without a release.
+ */
+@Component
+public class FulfilmentCodeRegistry {
+  private static final Logger log = LoggerFactory.getLogger(FulfilmentCodeRegistry.class);
+  private static final String PREFIX_WILDCARD = "*";
+
+  @Value("${fulfilmentcodes.location}")
+  private Resource location;
+
+  // Replaced as a whole on reload, so a lookup never sees a half loaded set of codes
+  private volatile CodeTable codeTable;
+
+  private long lastModified;
+
+  @PostConstruct
+  public void load() {
+    long modified = getLastModified();
+    codeTable = readCodeTable();
+    lastModified = modified;
+    log.with("location", location)
+        .with("exact_codes", codeTable.exactCodes.size())
+        .with("prefix_codes", codeTable.prefixCodes.size())
+        .with("reloadable", location.isFile())
+        .info("Loaded fulfilment codes");
+  }
+
+  @Scheduled(
+      initialDelayString = "${fulfilmentcodes.reload-frequency}",
+      fixedDelayString = "${fulfilmentcodes.reload-frequency}")
+  public void reload() {
+    // A resource inside the application's jar can't change while it is running
+    if (!location.isFile() || getLastModified() == lastModified) {
+      return;
+    }
+
+    try {
+      load();
+    } catch (RuntimeException e) {
+      log.with("location", location)
+          .error("Could not reload fulfilment codes, carrying on with the existing codes", e);
+    }
+  }
+
+  public FulfilmentCode resolve(String fulfilmentCode) {
+    CodeTable currentCodeTable = codeTable;
+
+    FulfilmentCode exactMatch = currentCodeTable.exactCodes.get(fulfilmentCode);
+    if (exactMatch != null) {
+      return exactMatch;
+    }
+
+    for (PrefixCode prefixCode : currentCodeTable.prefixCodes) {
+      if (fulfilmentCode.startsWith(prefixCode.prefix)) {
+        return prefixCode.fulfilmentCode;
+      }
+    }
+
+    return null;
+  }
+
+  private long getLastModified() {
+    try {
+      return location.isFile() ? location.lastModified() : 0;
+    } catch (IOException e) {
+      return 0;
+    }
+  }
+
+  private CodeTable readCodeTable() {
+    Map<String, FulfilmentCode> exactCodes = new HashMap<>();
+    List<PrefixCode> prefixCodes = new ArrayList<>();
+
+    try (BufferedReader reader =
+        new BufferedReader(
+            new InputStreamReader(location.getInputStream(), StandardCharsets.UTF_8))) {
+      String line;
+      int lineNumber = 0;
+      while ((line = reader.readLine()) != null) {
+        lineNumber++;
+        line = line.trim();
+        if (line.isEmpty() || line.startsWith("#")) {
+          continue;
+        }
+
+        String[] columns = line.split(",", -1);
+        if (columns.length != 5) {
+          throw new RuntimeException(
+              String.format(
+                  "Expected 5 columns on line %d of %s but found %d",
+                  lineNumber, location, columns.length));
+        }
+
+        String code = columns[0].trim();
+        FulfilmentCode fulfilmentCode =
+            new FulfilmentCode(
+                columns[1].isBlank() ? null : FulfilmentType.valueOf(columns[1].trim()),
+                Boolean.parseBoolean(columns[2].trim()),
+                Boolean.parseBoolean(columns[3].trim()),
+                Boolean.parseBoolean(columns[4].trim()));
+
+        if (fulfilmentCode.getFulfilmentType() == null && !fulfilmentCode.isIgnored()) {
+          throw new RuntimeException(
+              String.format(
+                  "Fulfilment code %s on line %d of %s has no fulfilment type",
+                  code, lineNumber, location));
+        }
+
+        if (code.endsWith(PREFIX_WILDCARD)) {
+          prefixCodes.add(new PrefixCode(code.substring(0, code.length() - 1), fulfilmentCode));
+        } else if (exactCodes.put(code, fulfilmentCode) != null) {
+          throw new RuntimeException(
+              String.format(
+                  "Duplicate fulfilment code %s on line %d of %s", code, lineNumber, location));
+        }
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(String.format("Could not read fulfilment codes %s", location), e);
+    }
+
+    // Longest prefix first, so the most specific rule wins
+    prefixCodes.sort(
+        Comparator.comparingInt((PrefixCode prefixCode) -> prefixCode.prefix.length()).reversed());
+
+    return new CodeTable(Map.copyOf(exactCodes), List.copyOf(prefixCodes));
+  }
+
+  private static class CodeTable {
+    private final Map<String, FulfilmentCode> exactCodes;
+    private final List<PrefixCode> prefixCodes;
+
+    private CodeTable(Map<String, FulfilmentCode> exactCodes, List<PrefixCode> prefixCodes) {
+      this.exactCodes = exactCodes;
+      this.prefixCodes = prefixCodes;
+    }
+  }
+
+  private static class PrefixCode {
+    private final String prefix;
+    private final FulfilmentCode fulfilmentCode;
+
+    private PrefixCode(String prefix, FulfilmentCode fulfilmentCode) {
+      this.prefix = prefix;
+      this.fulfilmentCode = fulfilmentCode;
+    }
+  }
+}
@@ -0,0 +1,249 @@
+package uk.gov.ons.census.action.service;
+
+import com.godaddy.logging.Logger;
+import com.godaddy.logging.LoggerFactory;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import javax.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/*
+ * Keeps fulfilment_to_process partitioned on batch_day. The fulfilments waiting for a batch are in
+ * a small partition of their own, and batched fulfilments are in a partition for the day they were
+ * claimed, so writes and claims only touch the pending partition and its indexes. Partitions are
+ * made well ahead, and a day which is older than the retention period is detached and moved to the
+ * archive schema in one go, rather than deleted row by row.
+ *
+ * A day is made as a table of its own and then attached, which on PostgreSQL 12 or later doesn't
+ * stop fulfilments being added or claimed. Detaching a day locks the whole table, for as long as it
+ * takes the transactions already using it to finish, so it gives up after the lock timeout rather
+ * than holding everything else up, and is tried again the next time round. DETACH CONCURRENTLY
+ * can't be used, because it can't be run in a transaction, which is what keeps the nodes apart.
+ *
+ * Hibernate creates fulfilment_to_process as a plain table, so the first time this runs the table
+ * is replaced by a partitioned one and its rows are copied across. This happens before the
+ * listeners start, and only one node maintains the partitions at a time.
+ */
+@Component
+@DependsOn("entityManagerFactory")
+@ConditionalOnProperty(name = "fulfilmentpartitions.enabled", havingValue = "true")
+public class FulfilmentPartitionManager {
+  private static final Logger log = LoggerFactory.getLogger(FulfilmentPartitionManager.class);
+
+  private static final String PARTITION_PREFIX = "fulfilment_to_process_";
+  private static final DateTimeFormatter PARTITION_DAY = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+  // Any number will do, as long as nothing else takes the same advisory lock
+  private static final long PARTITION_LOCK_KEY = 7_162_514L;
+
+  private static final String LOCK_SQL = "SELECT pg_advisory_xact_lock(" + PARTITION_LOCK_KEY + ")";
+  private static final String TRY_LOCK_SQL =
+      "SELECT pg_try_advisory_xact_lock(" + PARTITION_LOCK_KEY + ")";
+  private static final String LOCK_TIMEOUT_SQL = "SET LOCAL lock_timeout = %d";
+
+  private static final String FIND_TABLE_KIND_SQL =
+      "SELECT c.relkind FROM pg_catalog.pg_class c"
+          + " JOIN pg_catalog.pg_namespace n ON n.oid = c.relnamespace"
+          + " WHERE n.nspname = 'actionv2' AND c.relname = 'fulfilment_to_process'";
+
+  private static final String FIND_PARTITIONS_SQL =
+      "SELECT c.relname FROM pg_catalog.pg_inherits i"
+          + " JOIN pg_catalog.pg_class c ON c.oid = i.inhrelid"
+          + " WHERE i.inhparent = 'actionv2.fulfilment_to_process'::regclass";
+
+  /*
+   * The partition key has to be part of the primary key, which is why batch_day is never null.
+   * Fulfilments which are not in a batch yet have a day far in the future, and ones which were
+   * batched before there was a batched_at have a day in the distant past. There is no default
+   * partition, because adding a day would have to lock it.
+   */
+  private static final String[] CREATE_PARTITIONED_TABLE_SQL = {
+    "ALTER TABLE actionv2.fulfilment_to_process RENAME TO fulfilment_to_process_unpartitioned",
+    "ALTER SEQUENCE IF EXISTS actionv2.fulfilment_to_process_id_seq OWNED BY NONE",
+    "DROP INDEX IF EXISTS actionv2.fulfilment_code_batch_id_added_at_idx",
+    "CREATE TABLE actionv2.fulfilment_to_process"
+        + " (LIKE actionv2.fulfilment_to_process_unpartitioned INCLUDING DEFAULTS,"
+        + " PRIMARY KEY (id, batch_day))"
+        + " PARTITION BY RANGE (batch_day)",
+    "CREATE TABLE actionv2.fulfilment_to_process_pending"
+        + " PARTITION OF actionv2.fulfilment_to_process"
+        + " FOR VALUES FROM ('9999-12-31') TO (MAXVALUE)",
+    "CREATE TABLE actionv2.fulfilment_to_process_legacy"
+        + " PARTITION OF actionv2.fulfilment_to_process"
+        + " FOR VALUES FROM (MINVALUE) TO ('0001-01-02')",
+    "CREATE INDEX fulfilment_code_batch_id_added_at_idx"
+        + " ON actionv2.fulfilment_to_process (fulfilment_code, batch_id, added_at)",
+    "ALTER TABLE actionv2.fulfilment_to_process"
+        + " ADD FOREIGN KEY (caze_case_ref) REFERENCES actionv2.cases (case_ref)"
+  };
+
+  // Batched fulfilments go in the day they were batched, if that is known
+  private static final String[] SET_UNPARTITIONED_BATCH_DAYS_SQL = {
+    "UPDATE actionv2.fulfilment_to_process_unpartitioned"
+        + " SET batch_day = CAST(batched_at AT TIME ZONE 'UTC' AS date)"
+        + " WHERE batched_at IS NOT NULL",
+    "UPDATE actionv2.fulfilment_to_process_unpartitioned SET batch_day = DATE '0001-01-01'"
+        + " WHERE batch_id IS NOT NULL AND batched_at IS NULL"
+  };
+
+  private static final String FIND_UNPARTITIONED_BATCH_DAYS_SQL =
+      "SELECT DISTINCT batch_day FROM actionv2.fulfilment_to_process_unpartitioned"
+          + " WHERE batched_at IS NOT NULL";
+
+  private static final String[] COPY_UNPARTITIONED_ROWS_SQL = {
+    "INSERT INTO actionv2.fulfilment_to_process"
+        + " SELECT * FROM actionv2.fulfilment_to_process_unpartitioned",
+    "DROP TABLE actionv2.fulfilment_to_process_unpartitioned"
+  };
+
+  private final JdbcTemplate jdbcTemplate;
+  private final TransactionTemplate transactionTemplate;
+
+  @Value("${fulfilmentpartitions.days-ahead}")
+  private int daysAhead;
+
+  @Value("${fulfilmentpartitions.retention-days}")
+  private int retentionDays;
+
+  @Value("${fulfilmentpartitions.archive-schema}")
+  private String archiveSchema;
+
+  @Value("${fulfilmentpartitions.lock-timeout}")
+  private int lockTimeout;
+
+  public FulfilmentPartitionManager(
+      JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate) {
+    this.jdbcTemplate = jdbcTemplate;
+    this.transactionTemplate = transactionTemplate;
+  }
+
+  @PostConstruct
+  public void init() {
+    transactionTemplate.execute(
+        status -> {
+          jdbcTemplate.execute(LOCK_SQL);
+
+          List<String> tableKinds = jdbcTemplate.queryForList(FIND_TABLE_KIND_SQL, String.class);
+          if (tableKinds.contains("r")) {
+            partitionTable();
+          }
+
+          maintainPartitions();
+          return null;
+        });
+  }
+
+  @Scheduled(fixedDelayString = "${fulfilmentpartitions.frequency}")
+  public void maintain() {
+    transactionTemplate.execute(
+        status -> {
+          // Another node is already doing it
+          if (!Boolean.TRUE.equals(jdbcTemplate.queryForObject(TRY_LOCK_SQL, Boolean.class))) {
+            return null;
+          }
+
+          jdbcTemplate.execute(String.format(LOCK_TIMEOUT_SQL, lockTimeout));
+          maintainPartitions();
+          return null;
+        });
+  }
+
+  private void partitionTable() {
+    for (String sql : CREATE_PARTITIONED_TABLE_SQL) {
+      jdbcTemplate.execute(sql);
+    }
+
+    for (String sql : SET_UNPARTITIONED_BATCH_DAYS_SQL) {
+      jdbcTemplate.execute(sql);
+    }
+    List<LocalDate> batchDays =
+        jdbcTemplate.queryForList(FIND_UNPARTITIONED_BATCH_DAYS_SQL, LocalDate.class);
+    for (LocalDate day : batchDays) {
+      createPartition(day);
+    }
+
+    for (String sql : COPY_UNPARTITIONED_ROWS_SQL) {
+      jdbcTemplate.execute(sql);
+    }
+    log.info("Partitioned fulfilment_to_process");
+  }
+
+  private void maintainPartitions() {
+    LocalDate today = LocalDate.now(ZoneOffset.UTC);
+    Set<String> partitions =
+        new HashSet<>(jdbcTemplate.queryForList(FIND_PARTITIONS_SQL, String.class));
+
+    // Yesterday as well, in case the database clock is a little behind ours at midnight
+    for (LocalDate day = today.minusDays(1);
+        !day.isAfter(today.plusDays(daysAhead));
+        day = day.plusDays(1)) {
+      if (!partitions.contains(getPartitionName(day))) {
+        createPartition(day);
+      }
+    }
+
+    LocalDate oldestKeptDay = today.minusDays(retentionDays);
+    for (String partition : partitions) {
+      LocalDate day = getPartitionDay(partition);
+      if (day != null && day.isBefore(oldestKeptDay)) {
+        archivePartition(partition);
+      }
+    }
+  }
+
+  // Made on its own and then attached, which doesn't lock the whole table like PARTITION OF does
+  private void createPartition(LocalDate day) {
+    String partition = getPartitionName(day);
+    jdbcTemplate.execute(
+        String.format(
+            "CREATE TABLE IF NOT EXISTS actionv2.%s"
+                + " (LIKE actionv2.fulfilment_to_process INCLUDING DEFAULTS)",
+            partition));
+    jdbcTemplate.execute(
+        String.format(
+            "ALTER TABLE actionv2.fulfilment_to_process ATTACH PARTITION actionv2.%s"
+                + " FOR VALUES FROM ('%s') TO ('%s')",
+            partition, day, day.plusDays(1)));
+    log.with("partition", partition).info("Created fulfilment partition");
+  }
+
+  private void archivePartition(String partition) {
+    jdbcTemplate.execute(String.format("CREATE SCHEMA IF NOT EXISTS %s", archiveSchema));
+    jdbcTemplate.execute(
+        String.format(
+            "ALTER TABLE actionv2.fulfilment_to_process DETACH PARTITION actionv2.%s", partition));
+    jdbcTemplate.execute(
+        String.format("ALTER TABLE actionv2.%s SET SCHEMA %s", partition, archiveSchema));
+    log.with("partition", partition)
+        .with("archive_schema", archiveSchema)
+        .info("Archived fulfilment partition");
+  }
+
+  private String getPartitionName(LocalDate day) {
+    return PARTITION_PREFIX + PARTITION_DAY.format(day);
+  }
+
+  // The pending and legacy partitions, and anything else which isn't one of ours, has no day
+  private LocalDate getPartitionDay(String partition) {
+    if (!partition.startsWith(PARTITION_PREFIX)) {
+      return null;
+    }
+
+    try {
+      return LocalDate.parse(partition.substring(PARTITION_PREFIX.length()), PARTITION_DAY);
+    } catch (DateTimeParseException e) {
+      return null;
+    }
+  }
+}
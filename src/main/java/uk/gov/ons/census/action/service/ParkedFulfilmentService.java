@@ -0,0 +1,162 @@
+package uk.gov.ons.census.action.service;
+
+import com.godaddy.logging.Logger;
+import com.godaddy.logging.LoggerFactory;
+import java.time.OffsetDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.annotation.PostConstruct;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import uk.gov.ons.census.action.metrics.MessageMetrics;
+import uk.gov.ons.census.action.model.dto.Event;
+import uk.gov.ons.census.action.model.dto.EventType;
+import uk.gov.ons.census.action.model.dto.FulfilmentRequestDTO;
+import uk.gov.ons.census.action.model.dto.Payload;
+import uk.gov.ons.census.action.model.dto.ResponseManagementEvent;
+import uk.gov.ons.census.action.model.entity.ParkedFulfilment;
+import uk.gov.ons.census.action.model.repository.ParkedFulfilmentRepository;
+
+/*
+ * Fulfilment requests can arrive before the CASE_CREATED for their case. Rather than failing and
+ * going round the retries and the DLQ until the case turns up, they are parked in the database and
+ * released when the case is created.
+ *
+ * A case which still hasn't arrived after the maximum parking age probably never will. The
+ * fulfilment is then sent back to the queue in the event it arrived in, and as that event is too
+ * old to be parked again it fails like any other message, through the retries, the exception
+ * manager and the DLQ.
+ */
+@Service
+public class ParkedFulfilmentService {
+  private static final Logger log = LoggerFactory.getLogger(ParkedFulfilmentService.class);
+
+  private final ParkedFulfilmentRepository parkedFulfilmentRepository;
+  private final MessageMetrics messageMetrics;
+  private final RabbitTemplate rabbitTemplate;
+  private final AtomicLong parkedCount = new AtomicLong();
+  private final AtomicReference<OffsetDateTime> oldestParkedAt = new AtomicReference<>();
+
+  @Value("${queueconfig.action-fulfilment-inbound-queue}")
+  private String actionFulfilmentQueue;
+
+  @Value("${parkedfulfilments.maximum-age}")
+  private long maximumAge;
+
+  @Value("${parkedfulfilments.expiry-batch-size}")
+  private int expiryBatchSize;
+
+  public ParkedFulfilmentService(
+      ParkedFulfilmentRepository parkedFulfilmentRepository,
+      MessageMetrics messageMetrics,
+      RabbitTemplate rabbitTemplate) {
+    this.parkedFulfilmentRepository = parkedFulfilmentRepository;
+    this.messageMetrics = messageMetrics;
+    this.rabbitTemplate = rabbitTemplate;
+  }
+
+  @PostConstruct
+  public void init() {
+    messageMetrics.parkedFulfilments(parkedCount, oldestParkedAt);
+  }
+
+  // An event which was sent longer ago than the maximum parking age has to fail instead
+  public boolean canPark(Event event) {
+    return event == null
+        || event.getDateTime() == null
+        || !event.getDateTime().isBefore(getParkedBefore());
+  }
+
+  public void park(Event event, FulfilmentRequestDTO fulfilmentRequest) {
+    ParkedFulfilment parkedFulfilment = new ParkedFulfilment();
+    parkedFulfilment.setCaseId(fulfilmentRequest.getCaseId());
+    parkedFulfilment.setFulfilmentRequest(fulfilmentRequest);
+    parkedFulfilment.setEvent(event);
+    parkedFulfilment.setParkedAt(OffsetDateTime.now());
+    parkedFulfilmentRepository.save(parkedFulfilment);
+    messageMetrics.fulfilmentsParked(1);
+  }
+
+  // Puts back a released fulfilment which couldn't be processed, keeping its age for the expiry
+  public void repark(ParkedFulfilment releasedFulfilment) {
+    ParkedFulfilment parkedFulfilment = new ParkedFulfilment();
+    parkedFulfilment.setCaseId(releasedFulfilment.getCaseId());
+    parkedFulfilment.setFulfilmentRequest(releasedFulfilment.getFulfilmentRequest());
+    parkedFulfilment.setEvent(releasedFulfilment.getEvent());
+    parkedFulfilment.setParkedAt(releasedFulfilment.getParkedAt());
+    parkedFulfilmentRepository.save(parkedFulfilment);
+    messageMetrics.fulfilmentsParked(1);
+  }
+
+  public List<ParkedFulfilment> release(Collection<UUID> caseIds) {
+    if (caseIds.isEmpty()) {
+      return List.of();
+    }
+
+    List<ParkedFulfilment> releasedFulfilments =
+        parkedFulfilmentRepository.releaseByCaseIds(caseIds);
+    messageMetrics.fulfilmentsReleased(releasedFulfilments.size());
+    return releasedFulfilments;
+  }
+
+  public List<ParkedFulfilment> releaseArrived(int limit) {
+    List<ParkedFulfilment> releasedFulfilments = parkedFulfilmentRepository.releaseArrived(limit);
+    messageMetrics.fulfilmentsReleased(releasedFulfilments.size());
+    return releasedFulfilments;
+  }
+
+  // Sent when this transaction commits, because the template's channel is transacted
+  @Transactional
+  @Scheduled(fixedDelayString = "${parkedfulfilments.expiry-frequency}")
+  public void expireParkedFulfilments() {
+    List<ParkedFulfilment> expiredFulfilments =
+        parkedFulfilmentRepository.expireParkedBefore(getParkedBefore(), expiryBatchSize);
+
+    for (ParkedFulfilment expiredFulfilment : expiredFulfilments) {
+      log.with("case_id", expiredFulfilment.getCaseId())
+          .with("fulfilment_code", expiredFulfilment.getFulfilmentRequest().getFulfilmentCode())
+          .with("parked_at", expiredFulfilment.getParkedAt())
+          .warn("Case never arrived for parked fulfilment, sending it back to fail");
+      rabbitTemplate.convertAndSend("", actionFulfilmentQueue, toEvent(expiredFulfilment));
+    }
+
+    messageMetrics.fulfilmentsExpired(expiredFulfilments.size());
+  }
+
+  // Read every so often for the gauges, rather than every time they are scraped
+  @Scheduled(fixedDelayString = "${parkedfulfilments.stats-frequency}")
+  public void refreshStats() {
+    parkedCount.set(parkedFulfilmentRepository.count());
+    oldestParkedAt.set(parkedFulfilmentRepository.findOldestParkedAt());
+  }
+
+  private OffsetDateTime getParkedBefore() {
+    return OffsetDateTime.now().minusSeconds(maximumAge);
+  }
+
+  private ResponseManagementEvent toEvent(ParkedFulfilment parkedFulfilment) {
+    Event event = parkedFulfilment.getEvent();
+    if (event == null) {
+      event = new Event();
+      event.setType(EventType.FULFILMENT_REQUESTED);
+    }
+
+    // Without its time, the event would look new enough to be parked all over again
+    if (event.getDateTime() == null) {
+      event.setDateTime(parkedFulfilment.getParkedAt());
+    }
+
+    Payload payload = new Payload();
+    payload.setFulfilmentRequest(parkedFulfilment.getFulfilmentRequest());
+    ResponseManagementEvent responseManagementEvent = new ResponseManagementEvent();
+    responseManagementEvent.setEvent(event);
+    responseManagementEvent.setPayload(payload);
+    return responseManagementEvent;
+  }
+}
@@ -0,0 +1,114 @@
+package uk.gov.ons.census.action.service;
+
+import com.godaddy.logging.Logger;
+import com.godaddy.logging.LoggerFactory;
+import java.time.OffsetDateTime;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+import javax.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import uk.gov.ons.census.action.model.entity.FulfilmentToProcess;
+import uk.gov.ons.census.action.model.entity.FulfilmentType;
+import uk.gov.ons.census.action.model.repository.PendingFulfilmentRepository;
+
+/*
+ * Keeps the pending fulfilment summary up to date as fulfilments are added, so that finding the
+ * fulfilment codes with work waiting doesn't mean scanning fulfilment_to_process. The summary is
+ * split into stripes, and each transaction picks one at random, so consumers adding fulfilments for
+ * the same code only wait for each other when they happen to pick the same stripe. A stripe's row
+ * is locked from when it is written until the transaction ends, so the fulfilments added in a
+ * transaction are counted together just before it commits, one code after another in the same
+ * order every time.
+ */
+@Component
+public class PendingFulfilmentCounter {
+  private static final Logger log = LoggerFactory.getLogger(PendingFulfilmentCounter.class);
+
+  private final PendingFulfilmentRepository pendingFulfilmentRepository;
+
+  @Value("${pendingfulfilments.stripes}")
+  private int stripes;
+
+  public PendingFulfilmentCounter(PendingFulfilmentRepository pendingFulfilmentRepository) {
+    this.pendingFulfilmentRepository = pendingFulfilmentRepository;
+  }
+
+  @PostConstruct
+  public void init() {
+    int summarisedCodes = pendingFulfilmentRepository.rebuildIfEmpty();
+    if (summarisedCodes > 0) {
+      log.with("fulfilment_codes", summarisedCodes).info("Built pending fulfilment summary");
+    }
+  }
+
+  public void fulfilmentAdded(FulfilmentToProcess fulfilmentToProcess) {
+    if (fulfilmentToProcess.getFulfilmentCode() == null) {
+      return;
+    }
+
+    if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+      pendingFulfilmentRepository.fulfilmentsAdded(
+          fulfilmentToProcess.getFulfilmentCode(),
+          fulfilmentToProcess.getFulfilmentType(),
+          pickStripe(),
+          1,
+          fulfilmentToProcess.getAddedAt());
+      return;
+    }
+
+    AddedFulfilments addedFulfilments =
+        (AddedFulfilments) TransactionSynchronizationManager.getResource(this);
+    if (addedFulfilments == null) {
+      addedFulfilments = new AddedFulfilments();
+      TransactionSynchronizationManager.bindResource(this, addedFulfilments);
+      TransactionSynchronizationManager.registerSynchronization(addedFulfilments);
+    }
+
+    addedFulfilments.add(fulfilmentToProcess);
+  }
+
+  private int pickStripe() {
+    return ThreadLocalRandom.current().nextInt(Math.max(stripes, 1));
+  }
+
+  private class AddedFulfilments implements TransactionSynchronization {
+    private final Map<String, AddedFulfilmentCode> codes = new TreeMap<>();
+    private final int stripe = pickStripe();
+
+    private void add(FulfilmentToProcess fulfilmentToProcess) {
+      AddedFulfilmentCode code =
+          codes.computeIfAbsent(
+              fulfilmentToProcess.getFulfilmentCode(), key -> new AddedFulfilmentCode());
+      code.fulfilmentType = fulfilmentToProcess.getFulfilmentType();
+      code.added++;
+      OffsetDateTime addedAt = fulfilmentToProcess.getAddedAt();
+      if (code.oldestAddedAt == null || (addedAt != null && addedAt.isBefore(code.oldestAddedAt))) {
+        code.oldestAddedAt = addedAt;
+      }
+    }
+
+    @Override
+    public void beforeCommit(boolean readOnly) {
+      for (Map.Entry<String, AddedFulfilmentCode> entry : codes.entrySet()) {
+        AddedFulfilmentCode code = entry.getValue();
+        pendingFulfilmentRepository.fulfilmentsAdded(
+            entry.getKey(), code.fulfilmentType, stripe, code.added, code.oldestAddedAt);
+      }
+    }
+
+    @Override
+    public void afterCompletion(int status) {
+      TransactionSynchronizationManager.unbindResource(PendingFulfilmentCounter.this);
+    }
+  }
+
+  private static class AddedFulfilmentCode {
+    private FulfilmentType fulfilmentType;
+    private int added;
+    private OffsetDateTime oldestAddedAt;
+  }
+}
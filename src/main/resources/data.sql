@@ -0,0 +1,12 @@
+-- Run after Hibernate has created or updated the tables, every time the application starts
+
+-- Two messages for a new QID could both insert a link before qid was unique. Of each set of duplicates, the active
+-- link is kept, or failing that the one with the highest ID, so that the unique index can be built. Once the index
+-- exists there can't be any duplicates, so the table isn't scanned again
+DELETE FROM actionv2.uac_qid_link l
+    WHERE NOT EXISTS (SELECT 1 FROM pg_catalog.pg_indexes
+                      WHERE schemaname = 'actionv2' AND indexname = 'qid_unique_idx')
+      AND EXISTS (SELECT 1 FROM actionv2.uac_qid_link d
+                  WHERE d.qid = l.qid AND (d.active, d.id) > (l.active, l.id));
+
+CREATE UNIQUE INDEX IF NOT EXISTS qid_unique_idx ON actionv2.uac_qid_link (qid);
@@ -1 +1,15 @@
-CREATE SCHEMA IF NOT EXISTS actionv2;
\ No newline at end of file
+CREATE SCHEMA IF NOT EXISTS actionv2;
+
+-- Superseded by the unique index qid_unique_idx, which is needed for upserting UAC QID links, see data.sql
+DROP INDEX IF EXISTS actionv2.qid_idx;
+
+-- fulfilment_to_process IDs used to come from a serial column, one at a time. They are now allocated by Hibernate in
+-- blocks of 50 from the same sequence, so existing IDs are never reused. The serial default still works for any other
+-- writer, because the values it takes are never handed out by Hibernate
+ALTER SEQUENCE IF EXISTS actionv2.fulfilment_to_process_id_seq INCREMENT BY 50;
+
+-- Superseded by fulfilment_code_batch_id_added_at_idx, which also gives the order batches are claimed in
+DROP INDEX IF EXISTS actionv2.fulfilment_code_batch_id_idx;
+
+-- Replaced by pending_fulfilment_stripe, which is rebuilt from fulfilment_to_process when it is empty
+DROP TABLE IF EXISTS actionv2.pending_fulfilment;
@@ -0,0 +1,110 @@
+package uk.gov.ons.census.action.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.Optional;
+import java.util.UUID;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import uk.gov.ons.census.action.model.repository.CaseRepository;
+import uk.gov.ons.census.action.model.repository.FulfilmentCase;
+
+public class CaseCacheTest {
+  private final CaseRepository caseRepository = mock(CaseRepository.class);
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final CaseCache underTest = new CaseCache(caseRepository, meterRegistry);
+
+  @Before
+  public void setUp() {
+    ReflectionTestUtils.setField(underTest, "maximumSize", 100L);
+    ReflectionTestUtils.setField(underTest, "timeToLive", 60L);
+    underTest.init();
+  }
+
+  @Test
+  public void testCaseIsOnlyReadFromDatabaseOnce() {
+    // Given
+    FulfilmentCase caze = FulfilmentCase.builder().caseId(UUID.randomUUID()).build();
+    when(caseRepository.findFulfilmentCaseByCaseId(caze.getCaseId())).thenReturn(Optional.of(caze));
+
+    // When
+    underTest.findByCaseId(caze.getCaseId());
+    Optional<FulfilmentCase> actualCase = underTest.findByCaseId(caze.getCaseId());
+
+    // Then
+    assertSame(caze, actualCase.get());
+    verify(caseRepository, times(1)).findFulfilmentCaseByCaseId(caze.getCaseId());
+    assertEquals(1, underTest.getStats().hitCount());
+    assertEquals(1, underTest.getStats().missCount());
+  }
+
+  @Test
+  public void testMissingCaseIsNotCached() {
+    // Given
+    UUID caseId = UUID.randomUUID();
+    when(caseRepository.findFulfilmentCaseByCaseId(caseId)).thenReturn(Optional.empty());
+
+    // When
+    underTest.findByCaseId(caseId);
+    Optional<FulfilmentCase> actualCase = underTest.findByCaseId(caseId);
+
+    // Then
+    assertFalse(actualCase.isPresent());
+    verify(caseRepository, times(2)).findFulfilmentCaseByCaseId(caseId);
+  }
+
+  @Test
+  public void testInvalidatedCaseIsReadFromDatabaseAgain() {
+    // Given
+    FulfilmentCase caze = FulfilmentCase.builder().caseId(UUID.randomUUID()).build();
+    when(caseRepository.findFulfilmentCaseByCaseId(caze.getCaseId())).thenReturn(Optional.of(caze));
+    underTest.findByCaseId(caze.getCaseId());
+
+    // When
+    underTest.invalidate(caze.getCaseId());
+    underTest.findByCaseId(caze.getCaseId());
+
+    // Then
+    verify(caseRepository, times(2)).findFulfilmentCaseByCaseId(caze.getCaseId());
+  }
+
+  @Test
+  public void testCacheStatisticsArePublishedAsMetrics() {
+    // Given
+    FulfilmentCase caze = FulfilmentCase.builder().caseId(UUID.randomUUID()).build();
+    when(caseRepository.findFulfilmentCaseByCaseId(caze.getCaseId())).thenReturn(Optional.of(caze));
+
+    // When
+    underTest.findByCaseId(caze.getCaseId());
+    underTest.findByCaseId(caze.getCaseId());
+
+    // Then
+    assertEquals(
+        1.0,
+        meterRegistry
+            .get("cache.gets")
+            .tag("cache", "case")
+            .tag("result", "hit")
+            .functionCounter()
+            .count(),
+        0.0);
+    assertEquals(
+        1.0,
+        meterRegistry
+            .get("cache.gets")
+            .tag("cache", "case")
+            .tag("result", "miss")
+            .functionCounter()
+            .count(),
+        0.0);
+  }
+}
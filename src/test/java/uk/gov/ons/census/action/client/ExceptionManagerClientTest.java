@@ -0,0 +1,121 @@
+package uk.gov.ons.census.action.client;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.springframework.test.web.client.ExpectedCount.times;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.method;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withServerError;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.RestTemplate;
+import uk.gov.ons.census.action.model.dto.ExceptionReportResponse;
+
+public class ExceptionManagerClientTest {
+  private static final String REPORT_EXCEPTION_URL = "http://localhost:8666/reportexception";
+
+  private final ExceptionManagerClient underTest = new ExceptionManagerClient();
+  private MockRestServiceServer mockServer;
+
+  @Before
+  public void setUp() {
+    ReflectionTestUtils.setField(underTest, "scheme", "http");
+    ReflectionTestUtils.setField(underTest, "host", "localhost");
+    ReflectionTestUtils.setField(underTest, "port", "8666");
+    ReflectionTestUtils.setField(underTest, "maxConnections", 2);
+    ReflectionTestUtils.setField(underTest, "connectionRequestTimeout", 100);
+    ReflectionTestUtils.setField(underTest, "connectTimeout", 100);
+    ReflectionTestUtils.setField(underTest, "readTimeout", 100);
+    ReflectionTestUtils.setField(underTest, "poolSize", 1);
+    ReflectionTestUtils.setField(underTest, "queueCapacity", 10);
+    ReflectionTestUtils.setField(underTest, "queueTimeout", 100);
+    ReflectionTestUtils.setField(underTest, "failureRateThreshold", 50f);
+    ReflectionTestUtils.setField(underTest, "slidingWindowSize", 2);
+    ReflectionTestUtils.setField(underTest, "waitDurationInOpenState", 60000L);
+    underTest.init();
+
+    mockServer =
+        MockRestServiceServer.bindTo(
+                (RestTemplate) ReflectionTestUtils.getField(underTest, "restTemplate"))
+            .build();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    underTest.shutdown();
+  }
+
+  @Test
+  public void testReportException() {
+    // Given
+    mockServer
+        .expect(requestTo(REPORT_EXCEPTION_URL))
+        .andExpect(method(HttpMethod.POST))
+        .andRespond(withSuccess("{\"skipIt\":true}", MediaType.APPLICATION_JSON));
+
+    // When
+    ExceptionReportResponse response = reportException().join();
+
+    // Then
+    assertThat(response.isSkipIt()).isTrue();
+    mockServer.verify();
+  }
+
+  @Test
+  public void testCircuitBreakerOpensWhenExceptionManagerFails() {
+    // Given
+    mockServer.expect(times(2), requestTo(REPORT_EXCEPTION_URL)).andRespond(withServerError());
+
+    // When
+    for (int i = 0; i < 2; i++) {
+      assertThatThrownBy(() -> reportException().join())
+          .hasCauseInstanceOf(HttpServerErrorException.class);
+    }
+
+    // Then
+    assertThatThrownBy(() -> reportException().join())
+        .hasCauseInstanceOf(CallNotPermittedException.class);
+    mockServer.verify();
+  }
+
+  @Test
+  public void testCallWhichOverrunsItsDeadlineFails() {
+    // Given
+    mockServer
+        .expect(requestTo(REPORT_EXCEPTION_URL))
+        .andRespond(
+            request -> {
+              try {
+                Thread.sleep(2000);
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+              return withSuccess("{\"skipIt\":true}", MediaType.APPLICATION_JSON)
+                  .createResponse(request);
+            });
+
+    // When
+    long startTime = System.currentTimeMillis();
+    CompletableFuture<ExceptionReportResponse> response = reportException();
+
+    // Then
+    assertThatThrownBy(response::join).hasCauseInstanceOf(TimeoutException.class);
+    assertThat(System.currentTimeMillis() - startTime).isLessThan(2000);
+  }
+
+  private CompletableFuture<ExceptionReportResponse> reportException() {
+    return underTest.reportException(
+        "test hash", "test service", "test queue", new RuntimeException(), "test root cause");
+  }
+}
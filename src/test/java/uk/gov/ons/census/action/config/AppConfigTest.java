@@ -0,0 +1,48 @@
+package uk.gov.ons.census.action.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.UUID;
+import org.junit.Test;
+import org.springframework.integration.support.MessageBuilder;
+import org.springframework.integration.support.converter.ConfigurableCompositeMessageConverter;
+import org.springframework.messaging.Message;
+import uk.gov.ons.census.action.model.dto.EventType;
+import uk.gov.ons.census.action.model.dto.ResponseManagementEvent;
+
+public class AppConfigTest {
+
+  @Test
+  public void testArgumentResolverConvertsMessageBody() {
+    // Given
+    AppConfig appConfig = new AppConfig();
+    ConfigurableCompositeMessageConverter underTest =
+        appConfig.argumentResolverMessageConverter(appConfig.objectMapper());
+    UUID caseId = UUID.randomUUID();
+    String body =
+        "{\"event\":{\"type\":\"CASE_CREATED\",\"dateTime\":\"2020-05-01T12:30:00.000Z\","
+            + "\"unknownField\":\"ignored\"},"
+            + "\"payload\":{\"collectionCase\":{\"id\":\""
+            + caseId
+            + "\",\"survey\":\"CENSUS\",\"address\":{\"postcode\":\"AB1 2CD\"}}}}";
+    Message<byte[]> message =
+        MessageBuilder.withPayload(body.getBytes())
+            .setHeader("contentType", "application/json")
+            .build();
+
+    // When
+    ResponseManagementEvent actualEvent =
+        (ResponseManagementEvent) underTest.fromMessage(message, ResponseManagementEvent.class);
+
+    // Then
+    assertThat(actualEvent.getEvent().getType()).isEqualTo(EventType.CASE_CREATED);
+    assertThat(actualEvent.getEvent().getDateTime())
+        .isEqualTo(OffsetDateTime.of(2020, 5, 1, 12, 30, 0, 0, ZoneOffset.UTC));
+    assertThat(actualEvent.getPayload().getCollectionCase().getId()).isEqualTo(caseId);
+    assertThat(actualEvent.getPayload().getCollectionCase().getSurvey()).isEqualTo("CENSUS");
+    assertThat(actualEvent.getPayload().getCollectionCase().getAddress().getPostcode())
+        .isEqualTo("AB1 2CD");
+  }
+}
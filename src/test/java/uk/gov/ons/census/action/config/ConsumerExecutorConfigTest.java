@@ -0,0 +1,57 @@
+package uk.gov.ons.census.action.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Map;
+import org.junit.Test;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class ConsumerExecutorConfigTest {
+
+  @Test
+  public void testConnectionFactoryIsGivenAThreadForEachDirectConsumer() {
+    // Given
+    AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+    context
+        .getEnvironment()
+        .getPropertySources()
+        .addFirst(
+            new MapPropertySource(
+                "test",
+                Map.of(
+                    "queueconfig.inbound-queue-listener.container-type", "simple",
+                    "queueconfig.inbound-queue-listener.consumers", "40",
+                    "queueconfig.action-fulfilment-listener.container-type", "direct",
+                    "queueconfig.action-fulfilment-listener.consumers", "10",
+                    "queueconfig.batch-enabled", "false")));
+    context.register(ConsumerExecutorConfig.class, ConnectionFactoryConfig.class);
+
+    // When
+    context.refresh();
+
+    // Then
+    ThreadPoolTaskExecutor executor = context.getBean(ThreadPoolTaskExecutor.class);
+    assertThat(executor.getCorePoolSize())
+        .isEqualTo(Runtime.getRuntime().availableProcessors() * 2 + 10);
+    assertThat(
+            ReflectionTestUtils.getField(
+                context.getBean(CachingConnectionFactory.class), "executorService"))
+        .isSameAs(executor.getThreadPoolExecutor());
+
+    // The pool is shut down with the application
+    context.close();
+    assertThat(executor.getThreadPoolExecutor().isShutdown()).isTrue();
+  }
+
+  static class ConnectionFactoryConfig {
+    @Bean
+    public CachingConnectionFactory connectionFactory() {
+      return new CachingConnectionFactory();
+    }
+  }
+}
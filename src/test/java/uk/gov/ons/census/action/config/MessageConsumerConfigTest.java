@@ -0,0 +1,120 @@
+package uk.gov.ons.census.action.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.rabbit.listener.AbstractMessageListenerContainer;
+import org.springframework.amqp.rabbit.listener.DirectMessageListenerContainer;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.amqp.rabbit.support.ListenerExecutionFailedException;
+import org.springframework.amqp.support.converter.MessageConversionException;
+import org.springframework.messaging.MessagingException;
+import org.springframework.retry.support.RetryTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import uk.gov.ons.census.action.client.ExceptionManagerClient;
+import uk.gov.ons.census.action.exception.NonRetryableException;
+import uk.gov.ons.census.action.messaging.CaseAndUacReceiver;
+import uk.gov.ons.census.action.messaging.ConsumerActivity;
+import uk.gov.ons.census.action.messaging.IgnoredMessageFilter;
+import uk.gov.ons.census.action.metrics.MessageMetrics;
+
+public class MessageConsumerConfigTest {
+  private MessageConsumerConfig underTest;
+  private RetryTemplate retryTemplate;
+
+  @Before
+  public void setUp() {
+    underTest =
+        new MessageConsumerConfig(
+            mock(ExceptionManagerClient.class),
+            mock(ConnectionFactory.class),
+            new MessageMetrics(new SimpleMeterRegistry()),
+            mock(RabbitTemplate.class),
+            mock(IgnoredMessageFilter.class),
+            new ConsumerActivity(),
+            new AppConfig().objectMapper());
+    ReflectionTestUtils.setField(underTest, "retryAttempts", 3);
+    ReflectionTestUtils.setField(underTest, "retryDelay", 1L);
+    ReflectionTestUtils.setField(underTest, "retryMultiplier", 2.0);
+    ReflectionTestUtils.setField(underTest, "retryMaxDelay", 2L);
+    ReflectionTestUtils.setField(underTest, "redeliveryDelays", new long[0]);
+
+    retryTemplate =
+        ReflectionTestUtils.invokeMethod(underTest, "createRetryTemplate", "test queue");
+  }
+
+  @Test
+  public void testTransientFailureIsRetried() {
+    assertThat(attemptsBeforeRecovery(new RuntimeException("Cannot find case"))).isEqualTo(3);
+  }
+
+  @Test
+  public void testNonRetryableFailureIsRecoveredStraightAway() {
+    assertThat(attemptsBeforeRecovery(new NonRetryableException("Unexpected event type")))
+        .isEqualTo(1);
+  }
+
+  @Test
+  public void testMalformedMessageIsRecoveredStraightAway() {
+    assertThat(attemptsBeforeRecovery(new MessageConversionException("Not JSON"))).isEqualTo(1);
+  }
+
+  @Test
+  public void testDirectContainer() {
+    // When
+    AbstractMessageListenerContainer container =
+        ReflectionTestUtils.invokeMethod(underTest, "createContainer", "direct", 5, 1, 1);
+
+    // Then
+    assertThat(container).isInstanceOf(DirectMessageListenerContainer.class);
+    assertThat(ReflectionTestUtils.getField(container, "consumersPerQueue")).isEqualTo(5);
+    assertThat(ReflectionTestUtils.getField(container, "prefetchCount")).isEqualTo(1);
+  }
+
+  @Test
+  public void testSimpleContainer() {
+    // When
+    AbstractMessageListenerContainer container =
+        ReflectionTestUtils.invokeMethod(underTest, "createContainer", "simple", 40, 250, 1);
+
+    // Then
+    assertThat(container).isInstanceOf(SimpleMessageListenerContainer.class);
+    assertThat(ReflectionTestUtils.getField(container, "concurrentConsumers")).isEqualTo(40);
+    assertThat(ReflectionTestUtils.getField(container, "prefetchCount")).isEqualTo(250);
+  }
+
+  @Test(expected = RuntimeException.class)
+  public void testUnknownContainerType() {
+    ReflectionTestUtils.invokeMethod(underTest, "createContainer", "unknown", 1, 1, 1);
+  }
+
+  private int attemptsBeforeRecovery(RuntimeException cause) {
+    AtomicInteger attempts = new AtomicInteger();
+
+    retryTemplate.execute(
+        context -> {
+          attempts.incrementAndGet();
+          // The way the listener container wraps a failure from the service activator
+          throw new ListenerExecutionFailedException(
+              "Listener threw exception", new MessagingException("Failed", cause));
+        },
+        context -> null);
+
+    return attempts.get();
+  }
+
+  @Test(expected = RuntimeException.class)
+  public void testCaseLanesWithoutRedeliveryAreRejected() {
+    // Given
+    ReflectionTestUtils.setField(underTest, "caseLanes", 4);
+
+    // When
+    underTest.caseLaneDispatcher(mock(CaseAndUacReceiver.class));
+  }
+}
@@ -0,0 +1,142 @@
+package uk.gov.ons.census.action.messaging;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.rabbitmq.client.Channel;
+import java.util.List;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.amqp.AmqpRejectAndDontRequeueException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.retry.MessageRecoverer;
+import org.springframework.retry.support.RetryTemplate;
+import uk.gov.ons.census.action.model.dto.ResponseManagementEvent;
+
+public class CaseAndUacBatchListenerTest {
+  private static final String VALID_EVENT = "{\"event\":{\"type\":\"CASE_CREATED\"}}";
+  private static final String IGNORED_EVENT = "{\"event\":{\"type\":\"CASE_UPDATED\"}}";
+
+  private final CaseAndUacReceiver caseAndUacReceiver = mock(CaseAndUacReceiver.class);
+  private final MessageRecoverer messageRecoverer = mock(MessageRecoverer.class);
+  private final Channel channel = mock(Channel.class);
+
+  private final CaseAndUacBatchListener underTest =
+      new CaseAndUacBatchListener(
+          caseAndUacReceiver,
+          new ObjectMapper().registerModule(new JavaTimeModule()),
+          new RetryTemplate(),
+          messageRecoverer,
+          message -> new String(message.getBody()).equals(IGNORED_EVENT));
+
+  @Test
+  public void testBatchIsAcknowledgedTogether() throws Exception {
+    // Given
+    List<Message> messages = List.of(makeMessage(VALID_EVENT, 1), makeMessage(VALID_EVENT, 2));
+
+    // When
+    underTest.onMessageBatch(messages, channel);
+
+    // Then
+    verify(caseAndUacReceiver).receiveEvents(anyList());
+    verify(caseAndUacReceiver, never()).receiveEvent(any());
+    verify(channel).basicAck(2, true);
+    verify(channel, never()).basicReject(anyLong(), anyBoolean());
+  }
+
+  @Test
+  public void testIgnoredMessagesAreAcknowledgedWithBatch() throws Exception {
+    // Given
+    List<Message> messages = List.of(makeMessage(VALID_EVENT, 1), makeMessage(IGNORED_EVENT, 2));
+
+    // When
+    underTest.onMessageBatch(messages, channel);
+
+    // Then
+    ArgumentCaptor<List<ResponseManagementEvent>> eventsCaptor =
+        ArgumentCaptor.forClass(List.class);
+    verify(caseAndUacReceiver).receiveEvents(eventsCaptor.capture());
+    assertThat(eventsCaptor.getValue()).hasSize(1);
+    verify(channel).basicAck(2, true);
+  }
+
+  @Test
+  public void testBatchOfIgnoredMessagesIsAcknowledged() throws Exception {
+    // When
+    underTest.onMessageBatch(List.of(makeMessage(IGNORED_EVENT, 1)), channel);
+
+    // Then
+    verify(caseAndUacReceiver, never()).receiveEvents(anyList());
+    verify(channel).basicAck(1, true);
+  }
+
+  @Test
+  public void testBadMessageFallsBackToIndividualProcessing() throws Exception {
+    // Given
+    Message goodMessage = makeMessage(VALID_EVENT, 1);
+    Message badMessage = makeMessage("not json", 2);
+    doThrow(new AmqpRejectAndDontRequeueException("Sent to DLQ"))
+        .when(messageRecoverer)
+        .recover(any(), any());
+
+    // When
+    underTest.onMessageBatch(List.of(goodMessage, badMessage), channel);
+
+    // Then
+    verify(caseAndUacReceiver, never()).receiveEvents(anyList());
+    verify(caseAndUacReceiver, times(1)).receiveEvent(any(ResponseManagementEvent.class));
+    verify(messageRecoverer).recover(any(), any());
+    verify(channel).basicAck(1, false);
+    verify(channel).basicReject(2, false);
+  }
+
+  @Test
+  public void testFailedBatchSkippedMessageIsAcknowledged() throws Exception {
+    // Given
+    Message message = makeMessage(VALID_EVENT, 1);
+    doThrow(new RuntimeException()).when(caseAndUacReceiver).receiveEvents(anyList());
+    doThrow(new RuntimeException()).when(caseAndUacReceiver).receiveEvent(any());
+
+    // When
+    underTest.onMessageBatch(List.of(message), channel);
+
+    // Then
+    verify(messageRecoverer).recover(any(), any());
+    verify(channel).basicAck(1, false);
+    verify(channel, never()).basicReject(anyLong(), anyBoolean());
+  }
+
+  @Test
+  public void testFailedBatchIgnoredMessageIsAcknowledgedWithoutProcessing() throws Exception {
+    // Given
+    Message validMessage = makeMessage(VALID_EVENT, 1);
+    Message ignoredMessage = makeMessage(IGNORED_EVENT, 2);
+    doThrow(new RuntimeException()).when(caseAndUacReceiver).receiveEvents(anyList());
+
+    // When
+    underTest.onMessageBatch(List.of(validMessage, ignoredMessage), channel);
+
+    // Then
+    verify(caseAndUacReceiver, times(1)).receiveEvent(any(ResponseManagementEvent.class));
+    verify(channel).basicAck(1, false);
+    verify(channel).basicAck(2, false);
+    verify(channel, never()).basicReject(anyLong(), anyBoolean());
+  }
+
+  private Message makeMessage(String body, long deliveryTag) {
+    MessageProperties messageProperties = new MessageProperties();
+    messageProperties.setDeliveryTag(deliveryTag);
+    return new Message(body.getBytes(), messageProperties);
+  }
+}
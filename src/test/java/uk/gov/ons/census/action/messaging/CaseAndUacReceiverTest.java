@@ -4,13 +4,17 @@ import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
 import java.time.OffsetDateTime;
-import java.util.Optional;
+import java.util.List;
 import java.util.UUID;
 import org.assertj.core.api.Assertions;
 import org.hamcrest.beans.SamePropertyValuesAs;
 import org.jeasy.random.EasyRandom;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.springframework.test.util.ReflectionTestUtils;
+import uk.gov.ons.census.action.cache.CaseCache;
+import uk.gov.ons.census.action.metrics.MessageMetrics;
 import uk.gov.ons.census.action.model.dto.CollectionCase;
 import uk.gov.ons.census.action.model.dto.Event;
 import uk.gov.ons.census.action.model.dto.EventType;
@@ -23,7 +27,10 @@ import uk.gov.ons.census.action.model.entity.CaseMetadata;
 import uk.gov.ons.census.action.model.entity.FulfilmentType;
 import uk.gov.ons.census.action.model.entity.UacQidLink;
 import uk.gov.ons.census.action.model.repository.CaseRepository;
+import uk.gov.ons.census.action.model.repository.CaseUpdateOutcome;
+import uk.gov.ons.census.action.model.repository.FulfilmentCase;
 import uk.gov.ons.census.action.model.repository.UacQidLinkRepository;
+import uk.gov.ons.census.action.service.FulfilmentCode;
 import uk.gov.ons.census.action.service.FulfilmentRequestService;
 
 public class CaseAndUacReceiverTest {
@@ -32,6 +39,10 @@ public class CaseAndUacReceiverTest {
   private final UacQidLinkRepository uacQidLinkRepository = mock(UacQidLinkRepository.class);
   private final FulfilmentRequestService fulfilmentRequestService =
       mock(FulfilmentRequestService.class);
+  private final FulfilmentRequestReceiver fulfilmentRequestReceiver =
+      mock(FulfilmentRequestReceiver.class);
+  private final CaseCache caseCache = mock(CaseCache.class);
+  private final MessageMetrics messageMetrics = mock(MessageMetrics.class);
 
   private EasyRandom easyRandom = new EasyRandom();
 
@@ -39,7 +50,13 @@ public class CaseAndUacReceiverTest {
   public void testReceiveEventCaseCreatedIgnoresCCSCase() {
     // Given
     CaseAndUacReceiver caseAndUacReceiver =
-        new CaseAndUacReceiver(caseRepository, uacQidLinkRepository, fulfilmentRequestService);
+        new CaseAndUacReceiver(
+            caseRepository,
+            uacQidLinkRepository,
+            fulfilmentRequestService,
+            fulfilmentRequestReceiver,
+            caseCache,
+            messageMetrics);
     ResponseManagementEvent responseManagementEvent = getResponseManagementEvent();
     responseManagementEvent.getPayload().getCollectionCase().setSurvey("CCS");
     responseManagementEvent.getEvent().setType(EventType.CASE_CREATED);
@@ -57,7 +74,13 @@ public class CaseAndUacReceiverTest {
   public void testReceiveEventCaseUpdatedIgnoresCCSCase() {
     // Given
     CaseAndUacReceiver caseAndUacReceiver =
-        new CaseAndUacReceiver(caseRepository, uacQidLinkRepository, fulfilmentRequestService);
+        new CaseAndUacReceiver(
+            caseRepository,
+            uacQidLinkRepository,
+            fulfilmentRequestService,
+            fulfilmentRequestReceiver,
+            caseCache,
+            messageMetrics);
     ResponseManagementEvent responseManagementEvent = getResponseManagementEvent();
     responseManagementEvent.getPayload().getCollectionCase().setSurvey("CCS");
     responseManagementEvent.getEvent().setType(EventType.CASE_UPDATED);
@@ -75,7 +98,13 @@ public class CaseAndUacReceiverTest {
   public void testReceiveEventUACUpdatedIgnoresCCSQID() {
     // Given
     CaseAndUacReceiver caseAndUacReceiver =
-        new CaseAndUacReceiver(caseRepository, uacQidLinkRepository, fulfilmentRequestService);
+        new CaseAndUacReceiver(
+            caseRepository,
+            uacQidLinkRepository,
+            fulfilmentRequestService,
+            fulfilmentRequestReceiver,
+            caseCache,
+            messageMetrics);
     ResponseManagementEvent responseManagementEvent = getResponseManagementEvent();
     responseManagementEvent.getPayload().getUac().setQuestionnaireId("51");
     responseManagementEvent.getEvent().setType(EventType.UAC_UPDATED);
@@ -93,7 +122,13 @@ public class CaseAndUacReceiverTest {
   public void testCaseCreated() {
     // given
     CaseAndUacReceiver caseAndUacReceiver =
-        new CaseAndUacReceiver(caseRepository, uacQidLinkRepository, fulfilmentRequestService);
+        new CaseAndUacReceiver(
+            caseRepository,
+            uacQidLinkRepository,
+            fulfilmentRequestService,
+            fulfilmentRequestReceiver,
+            caseCache,
+            messageMetrics);
     ResponseManagementEvent responseManagementEvent = getResponseManagementEvent();
     responseManagementEvent.getEvent().setType(EventType.CASE_CREATED);
 
@@ -102,18 +137,26 @@ public class CaseAndUacReceiverTest {
 
     // then
     ArgumentCaptor<Case> eventArgumentCaptor = ArgumentCaptor.forClass(Case.class);
-    verify(caseRepository, times(1)).save(eventArgumentCaptor.capture());
+    verify(caseRepository, times(1)).upsert(eventArgumentCaptor.capture());
     Case actualCase = eventArgumentCaptor.getAllValues().get(0);
     Case expectedCase = getExpectedCase(responseManagementEvent.getPayload().getCollectionCase());
 
     assertThat(actualCase, SamePropertyValuesAs.samePropertyValuesAs(expectedCase));
+    verify(fulfilmentRequestReceiver)
+        .releaseParkedFulfilments(List.of(FulfilmentCase.fromCase(actualCase)));
   }
 
   @Test
   public void testSkeletonCreated() {
     // given
     CaseAndUacReceiver caseAndUacReceiver =
-        new CaseAndUacReceiver(caseRepository, uacQidLinkRepository, fulfilmentRequestService);
+        new CaseAndUacReceiver(
+            caseRepository,
+            uacQidLinkRepository,
+            fulfilmentRequestService,
+            fulfilmentRequestReceiver,
+            caseCache,
+            messageMetrics);
     ResponseManagementEvent responseManagementEvent = getResponseManagementEvent();
     responseManagementEvent.getEvent().setType(EventType.CASE_CREATED);
     responseManagementEvent.getPayload().getCollectionCase().setSkeleton(true);
@@ -123,7 +166,7 @@ public class CaseAndUacReceiverTest {
 
     // then
     ArgumentCaptor<Case> eventArgumentCaptor = ArgumentCaptor.forClass(Case.class);
-    verify(caseRepository, times(1)).save(eventArgumentCaptor.capture());
+    verify(caseRepository, times(1)).upsert(eventArgumentCaptor.capture());
     Case actualCase = eventArgumentCaptor.getAllValues().get(0);
     Case expectedCase = getExpectedCase(responseManagementEvent.getPayload().getCollectionCase());
 
@@ -134,7 +177,13 @@ public class CaseAndUacReceiverTest {
   public void testCECaseCreated() {
     // given
     CaseAndUacReceiver caseAndUacReceiver =
-        new CaseAndUacReceiver(caseRepository, uacQidLinkRepository, fulfilmentRequestService);
+        new CaseAndUacReceiver(
+            caseRepository,
+            uacQidLinkRepository,
+            fulfilmentRequestService,
+            fulfilmentRequestReceiver,
+            caseCache,
+            messageMetrics);
     ResponseManagementEvent responseManagementEvent = getCEResponseManagementEvent();
     responseManagementEvent.getEvent().setType(EventType.CASE_CREATED);
 
@@ -143,7 +192,7 @@ public class CaseAndUacReceiverTest {
 
     // then
     ArgumentCaptor<Case> eventArgumentCaptor = ArgumentCaptor.forClass(Case.class);
-    verify(caseRepository, times(1)).save(eventArgumentCaptor.capture());
+    verify(caseRepository, times(1)).upsert(eventArgumentCaptor.capture());
     Case actualCase = eventArgumentCaptor.getAllValues().get(0);
     Case expectedCase = getExpectedCase(responseManagementEvent.getPayload().getCollectionCase());
 
@@ -154,29 +203,43 @@ public class CaseAndUacReceiverTest {
   public void testCaseUpdated() {
     // given
     CaseAndUacReceiver caseAndUacReceiver =
-        new CaseAndUacReceiver(caseRepository, uacQidLinkRepository, fulfilmentRequestService);
+        new CaseAndUacReceiver(
+            caseRepository,
+            uacQidLinkRepository,
+            fulfilmentRequestService,
+            fulfilmentRequestReceiver,
+            caseCache,
+            messageMetrics);
     ResponseManagementEvent responseManagementEvent = getResponseManagementEvent();
     responseManagementEvent.getEvent().setType(EventType.CASE_UPDATED);
-
-    Case expectedCase = easyRandom.nextObject(Case.class);
-    when(caseRepository.findByCaseId(any())).thenReturn(Optional.of(expectedCase));
+    when(caseRepository.updateChangedColumns(any())).thenReturn(CaseUpdateOutcome.UPDATED);
 
     // when
     caseAndUacReceiver.receiveEvent(responseManagementEvent);
 
     // then
     ArgumentCaptor<Case> eventArgumentCaptor = ArgumentCaptor.forClass(Case.class);
-    verify(caseRepository, times(1)).save(eventArgumentCaptor.capture());
+    verify(caseRepository, times(1)).updateChangedColumns(eventArgumentCaptor.capture());
+    verify(caseRepository, never()).findByCaseId(any());
+    verify(caseRepository, never()).save(any());
     Case actualCase = eventArgumentCaptor.getAllValues().get(0);
+    Case expectedCase = getExpectedCase(responseManagementEvent.getPayload().getCollectionCase());
 
     assertThat(actualCase, SamePropertyValuesAs.samePropertyValuesAs(expectedCase));
+    verify(caseCache).invalidate(expectedCase.getCaseId());
   }
 
   @Test
   public void testCaseNotUpdatedWithOldData() {
     // given
     CaseAndUacReceiver caseAndUacReceiver =
-        new CaseAndUacReceiver(caseRepository, uacQidLinkRepository, fulfilmentRequestService);
+        new CaseAndUacReceiver(
+            caseRepository,
+            uacQidLinkRepository,
+            fulfilmentRequestService,
+            fulfilmentRequestReceiver,
+            caseCache,
+            messageMetrics);
     ResponseManagementEvent responseManagementEvent = getResponseManagementEvent();
     responseManagementEvent.getEvent().setType(EventType.CASE_UPDATED);
     responseManagementEvent
@@ -184,39 +247,69 @@ public class CaseAndUacReceiverTest {
         .getCollectionCase()
         .setLastUpdated(OffsetDateTime.now().minusMinutes(1));
 
-    Case expectedCase = easyRandom.nextObject(Case.class);
-    expectedCase.setLastUpdated(OffsetDateTime.now());
-    when(caseRepository.findByCaseId(any())).thenReturn(Optional.of(expectedCase));
+    // The database rejects the update because it already has newer data
+    when(caseRepository.updateChangedColumns(any())).thenReturn(CaseUpdateOutcome.STALE);
 
     // when
     caseAndUacReceiver.receiveEvent(responseManagementEvent);
 
     // then
+    verify(caseRepository, times(1)).updateChangedColumns(any());
     verify(caseRepository, never()).save(any());
+    verifyNoInteractions(caseCache);
   }
 
   @Test
-  public void testCECaseUpdated() {
+  public void testUnchangedCaseUpdateKeepsCachedCase() {
     // given
     CaseAndUacReceiver caseAndUacReceiver =
-        new CaseAndUacReceiver(caseRepository, uacQidLinkRepository, fulfilmentRequestService);
-    ResponseManagementEvent responseManagementEvent = getCEResponseManagementEvent();
+        new CaseAndUacReceiver(
+            caseRepository,
+            uacQidLinkRepository,
+            fulfilmentRequestService,
+            fulfilmentRequestReceiver,
+            caseCache,
+            messageMetrics);
+    ReflectionTestUtils.setField(caseAndUacReceiver, "inboundQueue", "case.action");
+    ResponseManagementEvent responseManagementEvent = getResponseManagementEvent();
     responseManagementEvent.getEvent().setType(EventType.CASE_UPDATED);
 
-    Case expectedCase = easyRandom.nextObject(Case.class);
-    expectedCase.setMetadata(null);
+    // The update only repeats what the database already has
+    when(caseRepository.updateChangedColumns(any())).thenReturn(CaseUpdateOutcome.UNCHANGED);
 
-    when(caseRepository.findByCaseId(any())).thenReturn(Optional.of(expectedCase));
+    // when
+    caseAndUacReceiver.receiveEvent(responseManagementEvent);
+
+    // then
+    verify(caseRepository, never()).upsert(any());
+    verifyNoInteractions(caseCache);
+    verify(messageMetrics).messageIgnored("case.action", EventType.CASE_UPDATED, "unchanged");
+  }
+
+  @Test
+  public void testCECaseUpdated() {
+    // given
+    CaseAndUacReceiver caseAndUacReceiver =
+        new CaseAndUacReceiver(
+            caseRepository,
+            uacQidLinkRepository,
+            fulfilmentRequestService,
+            fulfilmentRequestReceiver,
+            caseCache,
+            messageMetrics);
+    ResponseManagementEvent responseManagementEvent = getCEResponseManagementEvent();
+    responseManagementEvent.getEvent().setType(EventType.CASE_UPDATED);
+    when(caseRepository.updateChangedColumns(any())).thenReturn(CaseUpdateOutcome.UPDATED);
 
     // when
     caseAndUacReceiver.receiveEvent(responseManagementEvent);
 
     // then
     ArgumentCaptor<Case> eventArgumentCaptor = ArgumentCaptor.forClass(Case.class);
-    verify(caseRepository, times(1)).save(eventArgumentCaptor.capture());
+    verify(caseRepository, times(1)).updateChangedColumns(eventArgumentCaptor.capture());
     Case actualCase = eventArgumentCaptor.getAllValues().get(0);
+    Case expectedCase = getExpectedCase(responseManagementEvent.getPayload().getCollectionCase());
 
-    // This test is pretty useless because it's comparing the sane object with itself
     assertThat(actualCase, SamePropertyValuesAs.samePropertyValuesAs(expectedCase));
 
     assertNotNull(actualCase.getMetadata());
@@ -227,40 +320,55 @@ public class CaseAndUacReceiverTest {
   public void testCaseCreatedWithFulfilmentAttached() {
     // given
     CaseAndUacReceiver caseAndUacReceiver =
-        new CaseAndUacReceiver(caseRepository, uacQidLinkRepository, fulfilmentRequestService);
+        new CaseAndUacReceiver(
+            caseRepository,
+            uacQidLinkRepository,
+            fulfilmentRequestService,
+            fulfilmentRequestReceiver,
+            caseCache,
+            messageMetrics);
     ResponseManagementEvent responseManagementEvent = getResponseManagementEvent();
     responseManagementEvent.getEvent().setType(EventType.CASE_CREATED);
     FulfilmentRequestDTO fulfilmentRequestDTO = easyRandom.nextObject(FulfilmentRequestDTO.class);
     fulfilmentRequestDTO.setFulfilmentCode(INDIVIDUAL_PRINT_QUESTIONNAIRE_CODE);
     responseManagementEvent.getPayload().setFulfilmentRequest(fulfilmentRequestDTO);
-    when(fulfilmentRequestService.determineFulfilmentType(INDIVIDUAL_PRINT_QUESTIONNAIRE_CODE))
-        .thenReturn(FulfilmentType.P_OR_IX);
+    FulfilmentCode fulfilmentCode = new FulfilmentCode(FulfilmentType.P_OR_IX, false, true, true);
+    when(fulfilmentRequestService.determineFulfilmentCode(INDIVIDUAL_PRINT_QUESTIONNAIRE_CODE))
+        .thenReturn(fulfilmentCode);
 
     // when
     caseAndUacReceiver.receiveEvent(responseManagementEvent);
 
     // then
     ArgumentCaptor<Case> caseArgumentCaptor = ArgumentCaptor.forClass(Case.class);
-    verify(caseRepository, times(1)).save(caseArgumentCaptor.capture());
+    verify(caseRepository, times(1)).upsert(caseArgumentCaptor.capture());
     Case actualCase = caseArgumentCaptor.getAllValues().get(0);
     Case expectedCase = getExpectedCase(responseManagementEvent.getPayload().getCollectionCase());
 
     assertThat(actualCase, SamePropertyValuesAs.samePropertyValuesAs(expectedCase));
 
+    ArgumentCaptor<FulfilmentCase> fulfilmentCaseArgumentCaptor =
+        ArgumentCaptor.forClass(FulfilmentCase.class);
     verify(fulfilmentRequestService, times(1))
         .processEvent(
-            eq(fulfilmentRequestDTO), caseArgumentCaptor.capture(), eq(FulfilmentType.P_OR_IX));
+            eq(fulfilmentRequestDTO), fulfilmentCaseArgumentCaptor.capture(), eq(fulfilmentCode));
 
     assertThat(
-        caseArgumentCaptor.getAllValues().get(0),
-        SamePropertyValuesAs.samePropertyValuesAs(expectedCase));
+        fulfilmentCaseArgumentCaptor.getValue(),
+        SamePropertyValuesAs.samePropertyValuesAs(FulfilmentCase.fromCase(expectedCase)));
   }
 
   @Test
   public void testCaseUACUpdate() {
     // given
     CaseAndUacReceiver caseAndUacReceiver =
-        new CaseAndUacReceiver(caseRepository, uacQidLinkRepository, fulfilmentRequestService);
+        new CaseAndUacReceiver(
+            caseRepository,
+            uacQidLinkRepository,
+            fulfilmentRequestService,
+            fulfilmentRequestReceiver,
+            caseCache,
+            messageMetrics);
     ResponseManagementEvent responseManagementEvent = getResponseManagementEvent();
     responseManagementEvent.getEvent().setType(EventType.UAC_UPDATED);
     responseManagementEvent.getPayload().getUac().setQuestionnaireId("01");
@@ -270,7 +378,7 @@ public class CaseAndUacReceiverTest {
 
     // then
     ArgumentCaptor<UacQidLink> eventArgumentCaptor = ArgumentCaptor.forClass(UacQidLink.class);
-    verify(uacQidLinkRepository, times(1)).save(eventArgumentCaptor.capture());
+    verify(uacQidLinkRepository, times(1)).upsert(eventArgumentCaptor.capture());
     UacQidLink actualUacQidLink = eventArgumentCaptor.getAllValues().get(0);
 
     Uac uac = responseManagementEvent.getPayload().getUac();
@@ -296,16 +404,23 @@ public class CaseAndUacReceiverTest {
     responseManagementEvent.setEvent(event);
     responseManagementEvent.setPayload(payload);
     CaseAndUacReceiver underTest =
-        new CaseAndUacReceiver(caseRepository, uacQidLinkRepository, fulfilmentRequestService);
+        new CaseAndUacReceiver(
+            caseRepository,
+            uacQidLinkRepository,
+            fulfilmentRequestService,
+            fulfilmentRequestReceiver,
+            caseCache,
+            messageMetrics);
 
     // When
     underTest.receiveEvent(responseManagementEvent);
 
     // Then
-    verify(uacQidLinkRepository).findByQid(eq("Test QID"));
     ArgumentCaptor<UacQidLink> uacQidLinkArgumentCaptor = ArgumentCaptor.forClass(UacQidLink.class);
-    verify(uacQidLinkRepository).save(uacQidLinkArgumentCaptor.capture());
+    verify(uacQidLinkRepository).upsert(uacQidLinkArgumentCaptor.capture());
+    verify(uacQidLinkRepository, never()).save(any());
     UacQidLink actualUacQidLink = uacQidLinkArgumentCaptor.getValue();
+    assertNotNull(actualUacQidLink.getId());
     assertEquals(test_case_id, actualUacQidLink.getCaseId());
     assertEquals("Test QID", actualUacQidLink.getQid());
     assertEquals("Test UAC", actualUacQidLink.getUac());
@@ -319,7 +434,6 @@ public class CaseAndUacReceiverTest {
     Event event = new Event();
     event.setType(EventType.UAC_UPDATED);
     UUID updated_test_case_id = UUID.randomUUID();
-    UUID test_case_id = UUID.randomUUID();
     Uac uac = new Uac();
     uac.setQuestionnaireId("Test QID");
     uac.setUac("Test UAC");
@@ -330,29 +444,219 @@ public class CaseAndUacReceiverTest {
     responseManagementEvent.setEvent(event);
     responseManagementEvent.setPayload(payload);
     CaseAndUacReceiver underTest =
-        new CaseAndUacReceiver(caseRepository, uacQidLinkRepository, fulfilmentRequestService);
-    UacQidLink uacQidLink = new UacQidLink();
-    uacQidLink.setActive(true);
-    uacQidLink.setCaseId(test_case_id);
-    when(uacQidLinkRepository.findByQid(anyString())).thenReturn(Optional.of(uacQidLink));
+        new CaseAndUacReceiver(
+            caseRepository,
+            uacQidLinkRepository,
+            fulfilmentRequestService,
+            fulfilmentRequestReceiver,
+            caseCache,
+            messageMetrics);
 
     // When
     underTest.receiveEvent(responseManagementEvent);
 
     // Then
-    verify(uacQidLinkRepository).findByQid(eq("Test QID"));
+    // The existing link isn't read first, the upsert moves it to the new case and deactivates it
     ArgumentCaptor<UacQidLink> uacQidLinkArgumentCaptor = ArgumentCaptor.forClass(UacQidLink.class);
-    verify(uacQidLinkRepository).save(uacQidLinkArgumentCaptor.capture());
+    verify(uacQidLinkRepository).upsert(uacQidLinkArgumentCaptor.capture());
+    verifyNoMoreInteractions(uacQidLinkRepository);
     UacQidLink actualUacQidLink = uacQidLinkArgumentCaptor.getValue();
+    assertEquals("Test QID", actualUacQidLink.getQid());
     assertEquals(updated_test_case_id, actualUacQidLink.getCaseId());
     assertEquals(false, actualUacQidLink.isActive());
   }
 
+  @Test
+  public void testUacUpdatesInBatchKeepLatestPerQid() {
+    // given
+    CaseAndUacReceiver caseAndUacReceiver =
+        new CaseAndUacReceiver(
+            caseRepository,
+            uacQidLinkRepository,
+            fulfilmentRequestService,
+            fulfilmentRequestReceiver,
+            caseCache,
+            messageMetrics);
+    ResponseManagementEvent activatedEvent = getResponseManagementEvent();
+    activatedEvent.getEvent().setType(EventType.UAC_UPDATED);
+    activatedEvent.getPayload().getUac().setQuestionnaireId("01");
+    activatedEvent.getPayload().getUac().setActive(true);
+    ResponseManagementEvent otherQidEvent = getResponseManagementEvent();
+    otherQidEvent.getEvent().setType(EventType.UAC_UPDATED);
+    otherQidEvent.getPayload().getUac().setQuestionnaireId("02");
+    ResponseManagementEvent deactivatedEvent = getResponseManagementEvent();
+    deactivatedEvent.getEvent().setType(EventType.UAC_UPDATED);
+    deactivatedEvent.getPayload().getUac().setQuestionnaireId("01");
+    deactivatedEvent.getPayload().getUac().setActive(false);
+
+    // when
+    caseAndUacReceiver.receiveEvents(List.of(activatedEvent, otherQidEvent, deactivatedEvent));
+
+    // then
+    ArgumentCaptor<List<UacQidLink>> uacQidLinksArgumentCaptor =
+        ArgumentCaptor.forClass(List.class);
+    verify(uacQidLinkRepository, times(1)).upsertAll(uacQidLinksArgumentCaptor.capture());
+    verify(uacQidLinkRepository, never()).upsert(any());
+    List<UacQidLink> actualUacQidLinks = uacQidLinksArgumentCaptor.getValue();
+    assertEquals(2, actualUacQidLinks.size());
+    assertEquals("01", actualUacQidLinks.get(0).getQid());
+    assertEquals(false, actualUacQidLinks.get(0).isActive());
+    assertEquals("02", actualUacQidLinks.get(1).getQid());
+  }
+
+  @Test
+  public void testCaseUpdatesInBatchKeepNewestPerCase() {
+    // given
+    CaseAndUacReceiver caseAndUacReceiver =
+        new CaseAndUacReceiver(
+            caseRepository,
+            uacQidLinkRepository,
+            fulfilmentRequestService,
+            fulfilmentRequestReceiver,
+            caseCache,
+            messageMetrics);
+    ReflectionTestUtils.setField(caseAndUacReceiver, "inboundQueue", "case.action");
+    ReflectionTestUtils.setField(caseAndUacReceiver, "coalesceUpdates", true);
+    OffsetDateTime now = OffsetDateTime.now();
+    ResponseManagementEvent newerEvent = getResponseManagementEvent();
+    newerEvent.getEvent().setType(EventType.CASE_UPDATED);
+    newerEvent.getPayload().getCollectionCase().setLastUpdated(now);
+    ResponseManagementEvent otherCaseEvent = getResponseManagementEvent();
+    otherCaseEvent.getEvent().setType(EventType.CASE_UPDATED);
+    ResponseManagementEvent olderEvent = getResponseManagementEvent();
+    olderEvent.getEvent().setType(EventType.CASE_UPDATED);
+    olderEvent
+        .getPayload()
+        .getCollectionCase()
+        .setId(newerEvent.getPayload().getCollectionCase().getId());
+    olderEvent.getPayload().getCollectionCase().setLastUpdated(now.minusSeconds(5));
+    when(caseRepository.updateChangedColumns(any())).thenReturn(CaseUpdateOutcome.UPDATED);
+
+    // when
+    caseAndUacReceiver.receiveEvents(List.of(newerEvent, otherCaseEvent, olderEvent));
+
+    // then
+    ArgumentCaptor<Case> caseArgumentCaptor = ArgumentCaptor.forClass(Case.class);
+    verify(caseRepository, times(2)).updateChangedColumns(caseArgumentCaptor.capture());
+    List<Case> actualCases = caseArgumentCaptor.getAllValues();
+    assertEquals(now, actualCases.get(0).getLastUpdated());
+    assertEquals(
+        otherCaseEvent.getPayload().getCollectionCase().getId(), actualCases.get(1).getCaseId());
+    verify(messageMetrics).messageCoalesced("case.action", EventType.CASE_UPDATED);
+  }
+
+  @Test
+  public void testCasesCreatedInBatch() {
+    // given
+    CaseAndUacReceiver caseAndUacReceiver =
+        new CaseAndUacReceiver(
+            caseRepository,
+            uacQidLinkRepository,
+            fulfilmentRequestService,
+            fulfilmentRequestReceiver,
+            caseCache,
+            messageMetrics);
+    ResponseManagementEvent firstEvent = getResponseManagementEvent();
+    firstEvent.getEvent().setType(EventType.CASE_CREATED);
+    firstEvent.getPayload().setFulfilmentRequest(null);
+    ResponseManagementEvent secondEvent = getResponseManagementEvent();
+    secondEvent.getEvent().setType(EventType.CASE_CREATED);
+    secondEvent.getPayload().setFulfilmentRequest(null);
+
+    // when
+    caseAndUacReceiver.receiveEvents(List.of(firstEvent, secondEvent));
+
+    // then
+    ArgumentCaptor<List<Case>> casesArgumentCaptor = ArgumentCaptor.forClass(List.class);
+    verify(caseRepository, times(1)).upsertAll(casesArgumentCaptor.capture());
+    verify(caseRepository, never()).save(any());
+    List<Case> actualCases = casesArgumentCaptor.getValue();
+    assertEquals(2, actualCases.size());
+    assertThat(
+        actualCases.get(0),
+        SamePropertyValuesAs.samePropertyValuesAs(
+            getExpectedCase(firstEvent.getPayload().getCollectionCase())));
+    assertThat(
+        actualCases.get(1),
+        SamePropertyValuesAs.samePropertyValuesAs(
+            getExpectedCase(secondEvent.getPayload().getCollectionCase())));
+    verify(fulfilmentRequestReceiver)
+        .releaseParkedFulfilments(
+            List.of(
+                FulfilmentCase.fromCase(actualCases.get(0)),
+                FulfilmentCase.fromCase(actualCases.get(1))));
+  }
+
+  @Test
+  public void testCasesBulkLoadedInBatch() {
+    // given
+    CaseAndUacReceiver caseAndUacReceiver =
+        new CaseAndUacReceiver(
+            caseRepository,
+            uacQidLinkRepository,
+            fulfilmentRequestService,
+            fulfilmentRequestReceiver,
+            caseCache,
+            messageMetrics);
+    ReflectionTestUtils.setField(caseAndUacReceiver, "bulkLoadEnabled", true);
+    ResponseManagementEvent responseManagementEvent = getResponseManagementEvent();
+    responseManagementEvent.getEvent().setType(EventType.CASE_CREATED);
+    responseManagementEvent.getPayload().setFulfilmentRequest(null);
+
+    // when
+    caseAndUacReceiver.receiveEvents(List.of(responseManagementEvent));
+
+    // then
+    ArgumentCaptor<List<Case>> casesArgumentCaptor = ArgumentCaptor.forClass(List.class);
+    verify(caseRepository, times(1)).copyAll(casesArgumentCaptor.capture());
+    verify(caseRepository, never()).upsertAll(anyList());
+    assertThat(
+        casesArgumentCaptor.getValue().get(0),
+        SamePropertyValuesAs.samePropertyValuesAs(
+            getExpectedCase(responseManagementEvent.getPayload().getCollectionCase())));
+  }
+
+  @Test
+  public void testBatchedCasesAreInsertedBeforeOtherEvents() {
+    // given
+    CaseAndUacReceiver caseAndUacReceiver =
+        new CaseAndUacReceiver(
+            caseRepository,
+            uacQidLinkRepository,
+            fulfilmentRequestService,
+            fulfilmentRequestReceiver,
+            caseCache,
+            messageMetrics);
+    ResponseManagementEvent caseCreatedEvent = getResponseManagementEvent();
+    caseCreatedEvent.getEvent().setType(EventType.CASE_CREATED);
+    caseCreatedEvent.getPayload().setFulfilmentRequest(null);
+    ResponseManagementEvent uacUpdatedEvent = getResponseManagementEvent();
+    uacUpdatedEvent.getEvent().setType(EventType.UAC_UPDATED);
+    uacUpdatedEvent.getPayload().getUac().setQuestionnaireId("01");
+    ResponseManagementEvent caseUpdatedEvent = getResponseManagementEvent();
+    caseUpdatedEvent.getEvent().setType(EventType.CASE_UPDATED);
+
+    // when
+    caseAndUacReceiver.receiveEvents(List.of(caseCreatedEvent, uacUpdatedEvent, caseUpdatedEvent));
+
+    // then
+    InOrder inOrder = inOrder(caseRepository, uacQidLinkRepository);
+    inOrder.verify(caseRepository).upsertAll(anyList());
+    inOrder.verify(uacQidLinkRepository).upsertAll(anyList());
+    inOrder.verify(caseRepository).updateChangedColumns(any(Case.class));
+  }
+
   @Test(expected = RuntimeException.class)
   public void testUnknownEventType() {
     // Given
     CaseAndUacReceiver caseAndUacReceiver =
-        new CaseAndUacReceiver(caseRepository, uacQidLinkRepository, fulfilmentRequestService);
+        new CaseAndUacReceiver(
+            caseRepository,
+            uacQidLinkRepository,
+            fulfilmentRequestService,
+            fulfilmentRequestReceiver,
+            caseCache,
+            messageMetrics);
     ResponseManagementEvent responseManagementEvent = getResponseManagementEvent();
     responseManagementEvent.getEvent().setType(EventType.PRINT_CASE_SELECTED);
 
@@ -0,0 +1,270 @@
+package uk.gov.ons.census.action.messaging;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ShutdownSignalException;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.retry.MessageRecoverer;
+import org.springframework.retry.support.RetryTemplate;
+import uk.gov.ons.census.action.config.AppConfig;
+import uk.gov.ons.census.action.exception.NonRetryableException;
+import uk.gov.ons.census.action.model.dto.CollectionCase;
+import uk.gov.ons.census.action.model.dto.Payload;
+import uk.gov.ons.census.action.model.dto.ResponseManagementEvent;
+import uk.gov.ons.census.action.model.dto.Uac;
+
+public class CaseLaneDispatcherTest {
+  private final CaseAndUacReceiver caseAndUacReceiver = mock(CaseAndUacReceiver.class);
+  private final MessageRecoverer messageRecoverer = mock(MessageRecoverer.class);
+  private final Channel channel = mock(Channel.class);
+  private final ObjectMapper objectMapper = new AppConfig().objectMapper();
+  private final List<String> threadNames = new CopyOnWriteArrayList<>();
+  private final AtomicBoolean channelOpen = new AtomicBoolean(true);
+  private long deliveryTag = 0;
+
+  private CaseLaneDispatcher underTest;
+
+  @Before
+  public void setUp() {
+    RetryTemplate retryTemplate = new RetryTemplate();
+    underTest =
+        new CaseLaneDispatcher(
+            caseAndUacReceiver,
+            objectMapper,
+            retryTemplate,
+            messageRecoverer,
+            message -> new String(message.getBody()).contains("\"CCS\""),
+            new ConsumerActivity(),
+            "case.action",
+            4);
+    when(channel.isOpen()).thenAnswer(invocation -> channelOpen.get());
+
+    doAnswer(
+            invocation -> {
+              threadNames.add(Thread.currentThread().getName());
+              return null;
+            })
+        .when(caseAndUacReceiver)
+        .receiveEvent(any());
+  }
+
+  @After
+  public void tearDown() throws InterruptedException {
+    underTest.shutdown();
+  }
+
+  @Test
+  public void testEventsForSameCaseUseSameLane() throws Exception {
+    // Given
+    UUID caseId = UUID.randomUUID();
+
+    // When
+    underTest.onMessage(makeMessage(makeCaseEvent(caseId)), channel);
+    underTest.onMessage(makeMessage(makeUacEvent(caseId)), channel);
+    underTest.onMessage(makeMessage(makeCaseEvent(caseId)), channel);
+
+    // Then
+    verify(channel, timeout(1000)).basicAck(3, false);
+    assertThat(threadNames).hasSize(3);
+    assertThat(threadNames.get(0)).startsWith("case-lane-");
+    assertThat(threadNames).containsOnly(threadNames.get(0));
+  }
+
+  @Test
+  public void testConsumerIsNotBlockedByItsLane() throws Exception {
+    // Given
+    CountDownLatch laneBusy = new CountDownLatch(1);
+    doAnswer(
+            invocation -> {
+              laneBusy.await(5, TimeUnit.SECONDS);
+              return null;
+            })
+        .when(caseAndUacReceiver)
+        .receiveEvent(any());
+
+    // When
+    underTest.onMessage(makeMessage(makeCaseEvent(UUID.randomUUID())), channel);
+
+    // Then
+    verify(channel, never()).basicAck(1, false);
+    laneBusy.countDown();
+    verify(channel, timeout(1000)).basicAck(1, false);
+  }
+
+  @Test
+  public void testEventWithoutCaseIdIsProcessedOnConsumerThread() throws Exception {
+    // Given
+    ResponseManagementEvent event = new ResponseManagementEvent();
+    event.setPayload(new Payload());
+
+    // When
+    underTest.onMessage(makeMessage(event), channel);
+
+    // Then
+    assertThat(threadNames).containsExactly(Thread.currentThread().getName());
+    verify(channel).basicAck(1, false);
+  }
+
+  @Test
+  public void testFailureInLaneIsRecoveredAndAcknowledged() throws Exception {
+    // Given
+    doThrow(new NonRetryableException("Unexpected event type"))
+        .when(caseAndUacReceiver)
+        .receiveEvent(any());
+    Message message = makeMessage(makeCaseEvent(UUID.randomUUID()));
+
+    // When
+    underTest.onMessage(message, channel);
+
+    // Then
+    verify(messageRecoverer, timeout(1000)).recover(eq(message), any());
+    verify(channel, timeout(1000)).basicAck(1, false);
+  }
+
+  @Test
+  public void testIgnoredMessageIsAcknowledgedWithoutProcessing() throws Exception {
+    // Given
+    ResponseManagementEvent event = makeCaseEvent(UUID.randomUUID());
+    event.getPayload().getCollectionCase().setSurvey("CCS");
+
+    // When
+    underTest.onMessage(makeMessage(event), channel);
+
+    // Then
+    verify(channel).basicAck(1, false);
+    verifyNoInteractions(caseAndUacReceiver);
+  }
+
+  @Test
+  public void testStopDrainsQueuedWorkBeforeTheChannelIsClosed() throws Exception {
+    // Given
+    UUID caseId = UUID.randomUUID();
+    CountDownLatch laneBusy = blockLanes();
+    underTest.start();
+    underTest.onMessage(makeMessage(makeCaseEvent(caseId)), channel);
+    underTest.onMessage(makeMessage(makeCaseEvent(caseId)), channel);
+
+    // When
+    Thread stopThread = new Thread(underTest::stop);
+    stopThread.start();
+    Thread.sleep(100);
+    boolean stopWaitedForLanes = stopThread.isAlive();
+    laneBusy.countDown();
+    stopThread.join(5000);
+
+    // Then
+    assertThat(stopWaitedForLanes).isTrue();
+    assertThat(underTest.isRunning()).isFalse();
+    verify(caseAndUacReceiver, times(2)).receiveEvent(any());
+    verify(channel).basicAck(1, false);
+    verify(channel).basicAck(2, false);
+  }
+
+  @Test
+  public void testMessageReceivedAfterStopIsRequeued() throws Exception {
+    // Given
+    underTest.start();
+    underTest.stop();
+
+    // When
+    underTest.onMessage(makeMessage(makeCaseEvent(UUID.randomUUID())), channel);
+
+    // Then
+    verify(channel).basicNack(1, false, true);
+    verifyNoInteractions(caseAndUacReceiver);
+  }
+
+  @Test
+  public void testQueuedWorkIsSkippedOnceItsChannelHasClosed() throws Exception {
+    // Given
+    UUID caseId = UUID.randomUUID();
+    CountDownLatch laneBusy = blockLanes();
+    underTest.onMessage(makeMessage(makeCaseEvent(caseId)), channel);
+    underTest.onMessage(makeMessage(makeCaseEvent(caseId)), channel);
+    verify(caseAndUacReceiver, timeout(1000)).receiveEvent(any());
+
+    // When
+    channelOpen.set(false);
+    laneBusy.countDown();
+    underTest.shutdown();
+
+    // Then
+    verify(caseAndUacReceiver, times(1)).receiveEvent(any());
+    verify(channel, never()).basicAck(2, false);
+  }
+
+  @Test
+  public void testAcknowledgementOnClosedChannelIsNotThrown() throws Exception {
+    // Given
+    ResponseManagementEvent event = new ResponseManagementEvent();
+    event.setPayload(new Payload());
+    doThrow(new ShutdownSignalException(false, true, null, channel))
+        .when(channel)
+        .basicAck(1, false);
+
+    // When
+    underTest.onMessage(makeMessage(event), channel);
+
+    // Then
+    verify(channel).basicAck(1, false);
+  }
+
+  private CountDownLatch blockLanes() {
+    CountDownLatch laneBusy = new CountDownLatch(1);
+    doAnswer(
+            invocation -> {
+              laneBusy.await(5, TimeUnit.SECONDS);
+              return null;
+            })
+        .when(caseAndUacReceiver)
+        .receiveEvent(any());
+    return laneBusy;
+  }
+
+  private Message makeMessage(ResponseManagementEvent event) throws Exception {
+    MessageProperties messageProperties = new MessageProperties();
+    messageProperties.setDeliveryTag(++deliveryTag);
+    return new Message(objectMapper.writeValueAsBytes(event), messageProperties);
+  }
+
+  private ResponseManagementEvent makeCaseEvent(UUID caseId) {
+    CollectionCase collectionCase = new CollectionCase();
+    collectionCase.setId(caseId);
+    ResponseManagementEvent event = new ResponseManagementEvent();
+    event.setPayload(new Payload());
+    event.getPayload().setCollectionCase(collectionCase);
+    return event;
+  }
+
+  private ResponseManagementEvent makeUacEvent(UUID caseId) {
+    Uac uac = new Uac();
+    uac.setCaseId(caseId);
+    ResponseManagementEvent event = new ResponseManagementEvent();
+    event.setPayload(new Payload());
+    event.getPayload().setUac(uac);
+    return event;
+  }
+}
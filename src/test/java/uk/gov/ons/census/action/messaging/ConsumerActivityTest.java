@@ -0,0 +1,33 @@
+package uk.gov.ons.census.action.messaging;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.aopalliance.intercept.MethodInvocation;
+import org.junit.Test;
+
+public class ConsumerActivityTest {
+  private final ConsumerActivity underTest = new ConsumerActivity();
+
+  @Test
+  public void testDeliveriesAreCountedWhileTheyAreProcessed() throws Throwable {
+    // Given
+    MethodInvocation invocation = mock(MethodInvocation.class);
+    when(invocation.proceed())
+        .thenAnswer(
+            answer -> {
+              assertThat(underTest.getInFlight("case.action")).isEqualTo(1);
+              Thread.sleep(50);
+              return null;
+            });
+
+    // When
+    underTest.advice("case.action").invoke(invocation);
+
+    // Then
+    assertThat(underTest.getInFlight("case.action")).isZero();
+    assertThat(underTest.sampleUtilisation("case.action", 1)).isGreaterThan(0.0);
+    assertThat(underTest.sampleUtilisation("action.fulfilment", 1)).isZero();
+  }
+}
@@ -0,0 +1,173 @@
+package uk.gov.ons.census.action.messaging;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.Properties;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.amqp.core.AmqpAdmin;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.core.RabbitAdmin;
+import org.springframework.amqp.rabbit.listener.DirectMessageListenerContainer;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.test.util.ReflectionTestUtils;
+import uk.gov.ons.census.action.metrics.MessageMetrics;
+
+public class ConsumerScalerTest {
+  private final AmqpAdmin amqpAdmin = mock(AmqpAdmin.class);
+  private final HikariDataSource dataSource = mock(HikariDataSource.class);
+  private final HikariPoolMXBean pool = mock(HikariPoolMXBean.class);
+  private final ConsumerActivity consumerActivity = mock(ConsumerActivity.class);
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final SimpleMessageListenerContainer container =
+      new SimpleMessageListenerContainer(mock(ConnectionFactory.class));
+  private final DirectMessageListenerContainer actionFulfilmentContainer =
+      new DirectMessageListenerContainer(mock(ConnectionFactory.class));
+
+  private ConsumerScaler underTest;
+
+  @Before
+  public void setUp() {
+    when(dataSource.getHikariPoolMXBean()).thenReturn(pool);
+
+    underTest =
+        new ConsumerScaler(
+            amqpAdmin,
+            dataSource,
+            consumerActivity,
+            new MessageMetrics(meterRegistry),
+            container,
+            actionFulfilmentContainer,
+            "case.action",
+            20,
+            "action.fulfilment",
+            10);
+    ReflectionTestUtils.setField(underTest, "minConsumers", 2);
+    ReflectionTestUtils.setField(underTest, "step", 5);
+    ReflectionTestUtils.setField(underTest, "messagesPerConsumer", 100);
+    ReflectionTestUtils.setField(underTest, "busyUtilisation", 0.75);
+    ReflectionTestUtils.setField(underTest, "idleUtilisation", 0.1);
+  }
+
+  @Test
+  public void testEmptyQueuesAreScaledDown() {
+    // Given
+    givenMessageCounts(0, 0);
+
+    // When
+    underTest.scale();
+
+    // Then
+    assertThat(consumers("case.action")).isEqualTo(15);
+    assertThat(consumers("action.fulfilment")).isEqualTo(5);
+    assertThat(ReflectionTestUtils.getField(container, "concurrentConsumers")).isEqualTo(15);
+    assertThat(ReflectionTestUtils.getField(actionFulfilmentContainer, "consumersPerQueue"))
+        .isEqualTo(5);
+  }
+
+  @Test
+  public void testScalingStaysWithinBounds() {
+    // Given
+    givenMessageCounts(0, 0);
+    for (int i = 0; i < 5; i++) {
+      underTest.scale();
+    }
+    givenMessageCounts(1000000, 1000000);
+
+    // When
+    for (int i = 0; i < 10; i++) {
+      underTest.scale();
+    }
+
+    // Then
+    assertThat(consumers("case.action")).isEqualTo(20);
+    assertThat(consumers("action.fulfilment")).isEqualTo(10);
+  }
+
+  @Test
+  public void testBusyQueueIsScaledUp() {
+    // Given
+    givenMessageCounts(0, 0);
+    underTest.scale();
+    givenMessageCounts(5000, 0);
+
+    // When
+    underTest.scale();
+
+    // Then
+    assertThat(consumers("case.action")).isEqualTo(20);
+    assertThat(
+            meterRegistry
+                .counter("action.consumers.scaled", "queue", "case.action", "direction", "up")
+                .count())
+        .isEqualTo(1);
+  }
+
+  @Test
+  public void testNotScaledUpWhileWaitingForConnections() {
+    // Given
+    givenMessageCounts(0, 0);
+    underTest.scale();
+    givenMessageCounts(5000, 0);
+    when(pool.getThreadsAwaitingConnection()).thenReturn(3);
+
+    // When
+    underTest.scale();
+
+    // Then
+    assertThat(consumers("case.action")).isEqualTo(15);
+  }
+
+  @Test
+  public void testBusyConsumersAreScaledUpWhileMessagesAreWaiting() {
+    // Given
+    givenMessageCounts(0, 0);
+    underTest.scale();
+    givenMessageCounts(50, 0);
+    when(consumerActivity.sampleUtilisation("case.action", 15)).thenReturn(0.9);
+
+    // When
+    underTest.scale();
+
+    // Then
+    assertThat(consumers("case.action")).isEqualTo(20);
+  }
+
+  @Test
+  public void testNotScaledDownWhileMessagesAreBeingProcessed() {
+    // Given
+    givenMessageCounts(0, 0);
+    when(consumerActivity.getInFlight("case.action")).thenReturn(3);
+    when(consumerActivity.sampleUtilisation("action.fulfilment", 10)).thenReturn(0.5);
+
+    // When
+    underTest.scale();
+
+    // Then
+    assertThat(consumers("case.action")).isEqualTo(20);
+    assertThat(consumers("action.fulfilment")).isEqualTo(10);
+  }
+
+  private void givenMessageCounts(int inboundMessageCount, int actionFulfilmentMessageCount) {
+    when(amqpAdmin.getQueueProperties("case.action"))
+        .thenReturn(makeQueueProperties(inboundMessageCount));
+    when(amqpAdmin.getQueueProperties("action.fulfilment"))
+        .thenReturn(makeQueueProperties(actionFulfilmentMessageCount));
+  }
+
+  private Properties makeQueueProperties(int messageCount) {
+    Properties queueProperties = new Properties();
+    queueProperties.put(RabbitAdmin.QUEUE_MESSAGE_COUNT, messageCount);
+    return queueProperties;
+  }
+
+  private double consumers(String queue) {
+    return meterRegistry.get("action.consumers").tag("queue", queue).gauge().value();
+  }
+}
@@ -0,0 +1,114 @@
+package uk.gov.ons.census.action.messaging;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.Map;
+import org.junit.Test;
+import org.springframework.amqp.core.AmqpTemplate;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.retry.MessageRecoverer;
+import org.springframework.amqp.rabbit.support.ListenerExecutionFailedException;
+import org.springframework.classify.BinaryExceptionClassifier;
+import org.springframework.messaging.MessagingException;
+import uk.gov.ons.census.action.exception.NonRetryableException;
+import uk.gov.ons.census.action.metrics.MessageMetrics;
+
+public class DelayedRedeliveryRecovererTest {
+  private final AmqpTemplate amqpTemplate = mock(AmqpTemplate.class);
+  private final MessageRecoverer delegate = mock(MessageRecoverer.class);
+  private final DelayedRedeliveryRecoverer underTest =
+      new DelayedRedeliveryRecoverer(
+          amqpTemplate,
+          "test.queue",
+          new long[] {1000, 5000},
+          makeClassifier(),
+          delegate,
+          new MessageMetrics(new SimpleMeterRegistry()));
+
+  @Test
+  public void testFirstFailureIsRedeliveredAfterFirstDelay() {
+    // Given
+    Message message = makeMessage(null);
+    Throwable cause = makeFailure(new RuntimeException("Cannot find case"), message);
+
+    // When
+    underTest.recover(message, cause);
+
+    // Then
+    verify(amqpTemplate).send("", "test.queue.retry.1000", message);
+    assertThat(
+            (Integer)
+                message.getMessageProperties().getHeader(DelayedRedeliveryRecoverer.ATTEMPT_HEADER))
+        .isEqualTo(1);
+    verify(delegate, never()).recover(any(), any());
+  }
+
+  @Test
+  public void testLaterFailureIsRedeliveredAfterLongerDelay() {
+    // Given
+    Message message = makeMessage(1L);
+    Throwable cause = makeFailure(new RuntimeException("Cannot find case"), message);
+
+    // When
+    underTest.recover(message, cause);
+
+    // Then
+    verify(amqpTemplate).send("", "test.queue.retry.5000", message);
+    verify(delegate, never()).recover(any(), any());
+  }
+
+  @Test
+  public void testFailureAfterLastDelayGoesToDelegate() {
+    // Given
+    Message message = makeMessage(2);
+    Throwable cause = makeFailure(new RuntimeException("Cannot find case"), message);
+
+    // When
+    underTest.recover(message, cause);
+
+    // Then
+    verify(delegate).recover(message, cause);
+    verify(amqpTemplate, never()).send(anyString(), anyString(), any());
+  }
+
+  @Test
+  public void testNonRetryableFailureGoesToDelegate() {
+    // Given
+    Message message = makeMessage(null);
+    Throwable cause = makeFailure(new NonRetryableException("Unexpected event type"), message);
+
+    // When
+    underTest.recover(message, cause);
+
+    // Then
+    verify(delegate).recover(message, cause);
+    verify(amqpTemplate, never()).send(anyString(), anyString(), any());
+  }
+
+  private BinaryExceptionClassifier makeClassifier() {
+    BinaryExceptionClassifier classifier =
+        new BinaryExceptionClassifier(Map.of(NonRetryableException.class, false), true);
+    classifier.setTraverseCauses(true);
+    return classifier;
+  }
+
+  private Message makeMessage(Object attempt) {
+    MessageProperties messageProperties = new MessageProperties();
+    if (attempt != null) {
+      messageProperties.setHeader(DelayedRedeliveryRecoverer.ATTEMPT_HEADER, attempt);
+    }
+    return new Message("test message body".getBytes(), messageProperties);
+  }
+
+  private Throwable makeFailure(RuntimeException cause, Message message) {
+    return new ListenerExecutionFailedException(
+        "Listener threw exception", new MessagingException("Failed", cause), message);
+  }
+}
@@ -19,8 +19,13 @@ import org.springframework.transaction.annotation.Transactional;
 import uk.gov.ons.census.action.model.dto.*;
 import uk.gov.ons.census.action.model.entity.Case;
 import uk.gov.ons.census.action.model.entity.FulfilmentToProcess;
+import uk.gov.ons.census.action.model.entity.FulfilmentType;
 import uk.gov.ons.census.action.model.repository.CaseRepository;
 import uk.gov.ons.census.action.model.repository.FulfilmentToProcessRepository;
+import uk.gov.ons.census.action.model.repository.ParkedFulfilmentRepository;
+import uk.gov.ons.census.action.model.repository.PendingFulfilment;
+import uk.gov.ons.census.action.model.repository.PendingFulfilmentRepository;
+import uk.gov.ons.census.action.service.FulfilmentBatchService;
 
 @ContextConfiguration
 @SpringBootTest
@@ -40,6 +45,12 @@ public class FulfilmentRequestReceiverIT {
 
   @Autowired private FulfilmentToProcessRepository fulfilmentToProcessRepository;
 
+  @Autowired private PendingFulfilmentRepository pendingFulfilmentRepository;
+
+  @Autowired private ParkedFulfilmentRepository parkedFulfilmentRepository;
+
+  @Autowired private FulfilmentBatchService fulfilmentBatchService;
+
   private EasyRandom easyRandom = new EasyRandom();
 
   @Before
@@ -47,6 +58,8 @@ public class FulfilmentRequestReceiverIT {
   public void setUp() {
     rabbitQueueHelper.purgeQueue(actionFulfilmentQueue);
     fulfilmentToProcessRepository.deleteAllInBatch();
+    pendingFulfilmentRepository.deleteAllInBatch();
+    parkedFulfilmentRepository.deleteAllInBatch();
   }
 
   @Test
@@ -72,6 +85,33 @@ public class FulfilmentRequestReceiverIT {
         actualFulfilmentToProcess);
   }
 
+  @Test
+  public void testFulfilmentForCaseNotYetReceivedIsParkedUntilCaseArrives()
+      throws InterruptedException {
+
+    // Given
+    Case fulfillmentCase = easyRandom.nextObject(Case.class);
+    fulfillmentCase.setCreatedDateTime(OffsetDateTime.now());
+    fulfillmentCase.setLastUpdated(OffsetDateTime.now());
+    ResponseManagementEvent actionFulfilmentEvent =
+        getResponseManagementEvent(fulfillmentCase.getCaseId(), "P_OR_H1");
+
+    // When
+    rabbitQueueHelper.sendMessage(
+        EVENTS_EXCHANGE, EVENTS_FULFILMENT_REQUEST_BINDING, actionFulfilmentEvent);
+    Thread.sleep(200);
+    assertThat(parkedFulfilmentRepository.count()).isEqualTo(1);
+    caseRepository.saveAndFlush(fulfillmentCase);
+    Thread.sleep(3000);
+
+    // Then
+    List<FulfilmentToProcess> fulfilmentToProcess = fulfilmentToProcessRepository.findAll();
+    assertThat(fulfilmentToProcess.size()).isEqualTo(1);
+    assertThat(fulfilmentToProcess.get(0).getCaze().getCaseId())
+        .isEqualTo(fulfillmentCase.getCaseId());
+    assertThat(parkedFulfilmentRepository.count()).isZero();
+  }
+
   @Test
   public void testIndividualResponseFulfilmentRequestIsIgnored() {
     Case fulfillmentCase = this.setUpCaseAndSaveInDB();
@@ -87,6 +127,61 @@ public class FulfilmentRequestReceiverIT {
     assertThat(fulfilmentToProcessRepository.findAll().size()).isEqualTo(0);
   }
 
+  @Test
+  public void testClaimedBatchesDoNotOverlap() {
+    // Given
+    Case fulfillmentCase = setUpCaseAndSaveInDB();
+    for (int i = 0; i < 3; i++) {
+      FulfilmentToProcess fulfilmentToProcess = new FulfilmentToProcess();
+      fulfilmentToProcess.setCaze(fulfillmentCase);
+      fulfilmentToProcess.setFulfilmentCode("P_OR_H1");
+      fulfilmentToProcess.setAddedAt(OffsetDateTime.now());
+      fulfilmentToProcessRepository.saveAndFlush(fulfilmentToProcess);
+    }
+    pendingFulfilmentRepository.fulfilmentsAdded(
+        "P_OR_H1", FulfilmentType.P_OR_HX, 0, 2, OffsetDateTime.now());
+    pendingFulfilmentRepository.fulfilmentsAdded(
+        "P_OR_H1", FulfilmentType.P_OR_HX, 1, 1, OffsetDateTime.now());
+
+    // When
+    List<FulfilmentToProcess> firstBatch = fulfilmentBatchService.claimBatch("P_OR_H1", 2);
+    List<FulfilmentToProcess> secondBatch = fulfilmentBatchService.claimBatch("P_OR_H1", 2);
+
+    // Then
+    assertThat(firstBatch.size()).isEqualTo(2);
+    assertThat(secondBatch.size()).isEqualTo(1);
+    assertThat(firstBatch.get(0).getBatchId()).isNotNull();
+    assertThat(firstBatch.get(1).getBatchId()).isEqualTo(firstBatch.get(0).getBatchId());
+    assertThat(firstBatch.get(0).getBatchedAt()).isNotNull();
+    assertThat(secondBatch.get(0).getBatchId()).isNotEqualTo(firstBatch.get(0).getBatchId());
+    assertThat(secondBatch.get(0).getId())
+        .isNotIn(firstBatch.get(0).getId(), firstBatch.get(1).getId());
+    assertThat(fulfilmentBatchService.claimBatch("P_OR_H1", 2)).isEmpty();
+    assertThat(fulfilmentBatchService.findPendingFulfilments()).isEmpty();
+  }
+
+  @Test
+  public void testFulfilmentIsCountedAsPending() throws InterruptedException {
+    // Given
+    Case fulfillmentCase = setUpCaseAndSaveInDB();
+    ResponseManagementEvent actionFulfilmentEvent =
+        getResponseManagementEvent(fulfillmentCase.getCaseId(), "P_OR_H1");
+
+    // When
+    rabbitQueueHelper.sendMessage(
+        EVENTS_EXCHANGE, EVENTS_FULFILMENT_REQUEST_BINDING, actionFulfilmentEvent);
+    Thread.sleep(2000);
+
+    // Then
+    List<PendingFulfilment> pendingFulfilments = fulfilmentBatchService.findPendingFulfilments();
+    assertThat(pendingFulfilments.size()).isEqualTo(1);
+    assertThat(pendingFulfilments.get(0).getFulfilmentCode()).isEqualTo("P_OR_H1");
+    assertThat(pendingFulfilments.get(0).getFulfilmentType()).isEqualTo(FulfilmentType.P_OR_HX);
+    assertThat(pendingFulfilments.get(0).getPendingCount()).isEqualTo(1);
+    assertThat(pendingFulfilments.get(0).getOldestPendingAt().toInstant())
+        .isEqualTo(fulfilmentToProcessRepository.findAll().get(0).getAddedAt().toInstant());
+  }
+
   private void checkAddressFieldsMatch(
       Case expectedCase, Contact expectedContact, FulfilmentToProcess actualFulfilmentToProcess) {
     assertThat(actualFulfilmentToProcess)
@@ -2,18 +2,25 @@ package uk.gov.ons.census.action.messaging;
 
 import static org.mockito.Mockito.*;
 
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import org.jeasy.random.EasyRandom;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
+import uk.gov.ons.census.action.cache.CaseCache;
+import uk.gov.ons.census.action.metrics.MessageMetrics;
+import uk.gov.ons.census.action.model.dto.FulfilmentRequestDTO;
 import uk.gov.ons.census.action.model.dto.ResponseManagementEvent;
-import uk.gov.ons.census.action.model.entity.Case;
 import uk.gov.ons.census.action.model.entity.FulfilmentType;
-import uk.gov.ons.census.action.model.repository.CaseRepository;
+import uk.gov.ons.census.action.model.entity.ParkedFulfilment;
+import uk.gov.ons.census.action.model.repository.FulfilmentCase;
+import uk.gov.ons.census.action.service.FulfilmentCode;
 import uk.gov.ons.census.action.service.FulfilmentRequestService;
+import uk.gov.ons.census.action.service.ParkedFulfilmentService;
 
 @RunWith(MockitoJUnitRunner.class)
 public class FulfilmentRequestReceiverTest {
@@ -22,8 +29,10 @@ public class FulfilmentRequestReceiverTest {
   private static final String PRINT_INDIVIDUAL_QUESTIONNAIRE_REQUEST_WALES_WELSH = "P_OR_I2W";
   private static final String PRINT_INDIVIDUAL_QUESTIONNAIRE_REQUEST_NORTHERN_IRELAND = "P_OR_I4";
 
-  @Mock private CaseRepository caseRepository;
+  @Mock private CaseCache caseCache;
   @Mock private FulfilmentRequestService fulfilmentRequestService;
+  @Mock private ParkedFulfilmentService parkedFulfilmentService;
+  @Mock private MessageMetrics messageMetrics;
 
   @InjectMocks FulfilmentRequestReceiver underTest;
 
@@ -32,39 +41,39 @@ public class FulfilmentRequestReceiverTest {
   @Test
   public void testReceiveEventIgnoresUnexpectedFulfilmentCode() {
     // Given
-    when(fulfilmentRequestService.determineFulfilmentType(anyString())).thenReturn(null);
-    caseRepositoryReturnsRandomCase();
+    when(fulfilmentRequestService.determineFulfilmentCode(anyString())).thenReturn(null);
+    caseCacheReturnsRandomCase();
     ResponseManagementEvent event = easyRandom.nextObject(ResponseManagementEvent.class);
 
     // When
     underTest.receiveEvent(event);
 
-    verifyNoInteractions(caseRepository);
+    verifyNoInteractions(caseCache);
   }
 
   @Test
   public void testReceiveEventIgnoresUnwantedFulfilmentCodes() {
     // Given
-    caseRepositoryReturnsRandomCase();
+    caseCacheReturnsRandomCase();
     ResponseManagementEvent event = easyRandom.nextObject(ResponseManagementEvent.class);
     event.getPayload().getFulfilmentRequest().setFulfilmentCode("UACHHT1");
 
     // When
     underTest.receiveEvent(event);
 
-    verifyNoInteractions(caseRepository);
+    verifyNoInteractions(caseCache);
   }
 
   @Test
   public void testOnRequestQuestionnaireFulfilment() {
     // Given
-    Case fulfilmentCase = caseRepositoryReturnsRandomCase();
+    FulfilmentCase fulfilmentCase = caseCacheReturnsRandomCase();
     ResponseManagementEvent event = easyRandom.nextObject(ResponseManagementEvent.class);
     event.getPayload().getFulfilmentRequest().setFulfilmentCode("P_OR_H1");
     event.getPayload().getFulfilmentRequest().setCaseId(fulfilmentCase.getCaseId());
 
-    when(fulfilmentRequestService.determineFulfilmentType("P_OR_H1"))
-        .thenReturn(FulfilmentType.P_OR_HX);
+    when(fulfilmentRequestService.determineFulfilmentCode("P_OR_H1"))
+        .thenReturn(new FulfilmentCode(FulfilmentType.P_OR_HX, false, false, false));
 
     // When
     underTest.receiveEvent(event);
@@ -72,19 +81,21 @@ public class FulfilmentRequestReceiverTest {
     // Then
     verify(fulfilmentRequestService, times(1))
         .processEvent(
-            event.getPayload().getFulfilmentRequest(), fulfilmentCase, FulfilmentType.P_OR_HX);
+            event.getPayload().getFulfilmentRequest(),
+            fulfilmentCase,
+            new FulfilmentCode(FulfilmentType.P_OR_HX, false, false, false));
   }
 
   @Test
   public void testOnRequestContinuationQuestionnaireFulfilment() {
     // Given
-    Case fulfilmentCase = caseRepositoryReturnsRandomCase();
+    FulfilmentCase fulfilmentCase = caseCacheReturnsRandomCase();
     ResponseManagementEvent event = easyRandom.nextObject(ResponseManagementEvent.class);
     event.getPayload().getFulfilmentRequest().setFulfilmentCode("P_OR_HC1");
     event.getPayload().getFulfilmentRequest().setCaseId(fulfilmentCase.getCaseId());
 
-    when(fulfilmentRequestService.determineFulfilmentType("P_OR_HC1"))
-        .thenReturn(FulfilmentType.P_OR_HX);
+    when(fulfilmentRequestService.determineFulfilmentCode("P_OR_HC1"))
+        .thenReturn(new FulfilmentCode(FulfilmentType.P_OR_HX, false, false, false));
 
     // When
     underTest.receiveEvent(event);
@@ -92,20 +103,23 @@ public class FulfilmentRequestReceiverTest {
     // Then
     verify(fulfilmentRequestService, times(1))
         .processEvent(
-            event.getPayload().getFulfilmentRequest(), fulfilmentCase, FulfilmentType.P_OR_HX);
+            event.getPayload().getFulfilmentRequest(),
+            fulfilmentCase,
+            new FulfilmentCode(FulfilmentType.P_OR_HX, false, false, false));
   }
 
   @Test
   public void testIndividualRequestIsNotIgnoredForCaseTypeSPG() {
     // Given
-    Case fulfilmentCase = caseRepositoryReturnsRandomCase();
-    fulfilmentCase.setCaseType("SPG");
+    FulfilmentCase fulfilmentCase =
+        caseCacheReturns(
+            easyRandom.nextObject(FulfilmentCase.class).toBuilder().caseType("SPG").build());
     ResponseManagementEvent event = easyRandom.nextObject(ResponseManagementEvent.class);
     event.getPayload().getFulfilmentRequest().setFulfilmentCode("P_OR_I1");
     event.getPayload().getFulfilmentRequest().setCaseId(fulfilmentCase.getCaseId());
 
-    when(fulfilmentRequestService.determineFulfilmentType("P_OR_I1"))
-        .thenReturn(FulfilmentType.P_OR_HX);
+    when(fulfilmentRequestService.determineFulfilmentCode("P_OR_I1"))
+        .thenReturn(new FulfilmentCode(FulfilmentType.P_OR_HX, false, false, true));
 
     // When
     underTest.receiveEvent(event);
@@ -113,7 +127,88 @@ public class FulfilmentRequestReceiverTest {
     // Then
     verify(fulfilmentRequestService, times(1))
         .processEvent(
-            event.getPayload().getFulfilmentRequest(), fulfilmentCase, FulfilmentType.P_OR_HX);
+            event.getPayload().getFulfilmentRequest(),
+            fulfilmentCase,
+            new FulfilmentCode(FulfilmentType.P_OR_HX, false, false, true));
+  }
+
+  @Test
+  public void testFulfilmentForCaseNotYetReceivedIsParked() {
+    // Given
+    ResponseManagementEvent event = easyRandom.nextObject(ResponseManagementEvent.class);
+    event.getPayload().getFulfilmentRequest().setFulfilmentCode("P_OR_H1");
+    when(caseCache.findByCaseId(any())).thenReturn(Optional.empty());
+    when(fulfilmentRequestService.determineFulfilmentCode("P_OR_H1"))
+        .thenReturn(new FulfilmentCode(FulfilmentType.P_OR_HX, false, false, false));
+    when(parkedFulfilmentService.canPark(event.getEvent())).thenReturn(true);
+
+    // When
+    underTest.receiveEvent(event);
+
+    // Then
+    verify(parkedFulfilmentService)
+        .park(event.getEvent(), event.getPayload().getFulfilmentRequest());
+    verify(fulfilmentRequestService, never()).processEvent(any(), any(), any());
+  }
+
+  @Test(expected = RuntimeException.class)
+  public void testFulfilmentTooOldToParkFails() {
+    // Given
+    ResponseManagementEvent event = easyRandom.nextObject(ResponseManagementEvent.class);
+    event.getPayload().getFulfilmentRequest().setFulfilmentCode("P_OR_H1");
+    when(caseCache.findByCaseId(any())).thenReturn(Optional.empty());
+    when(fulfilmentRequestService.determineFulfilmentCode("P_OR_H1"))
+        .thenReturn(new FulfilmentCode(FulfilmentType.P_OR_HX, false, false, false));
+    when(parkedFulfilmentService.canPark(event.getEvent())).thenReturn(false);
+
+    try {
+      // When
+      underTest.receiveEvent(event);
+    } finally {
+      // Then
+      verify(parkedFulfilmentService, never()).park(any(), any());
+    }
+  }
+
+  @Test
+  public void testParkedFulfilmentIsProcessedWhenItsCaseIsCreated() {
+    // Given
+    FulfilmentCase fulfilmentCase =
+        easyRandom.nextObject(FulfilmentCase.class).toBuilder().caseType("HH").build();
+    ParkedFulfilment parkedFulfilment = new ParkedFulfilment();
+    parkedFulfilment.setCaseId(fulfilmentCase.getCaseId());
+    parkedFulfilment.setFulfilmentRequest(easyRandom.nextObject(FulfilmentRequestDTO.class));
+    parkedFulfilment.getFulfilmentRequest().setFulfilmentCode("P_OR_H1");
+    when(parkedFulfilmentService.release(Set.of(fulfilmentCase.getCaseId())))
+        .thenReturn(List.of(parkedFulfilment));
+    when(fulfilmentRequestService.determineFulfilmentCode("P_OR_H1"))
+        .thenReturn(new FulfilmentCode(FulfilmentType.P_OR_HX, false, false, false));
+
+    // When
+    underTest.releaseParkedFulfilments(List.of(fulfilmentCase));
+
+    // Then
+    verify(fulfilmentRequestService)
+        .processEvent(
+            parkedFulfilment.getFulfilmentRequest(),
+            fulfilmentCase,
+            new FulfilmentCode(FulfilmentType.P_OR_HX, false, false, false));
+    verifyNoInteractions(caseCache);
+  }
+
+  @Test
+  public void testReleasedFulfilmentWhoseCaseIsNotFoundIsParkedAgain() {
+    // Given
+    ParkedFulfilment parkedFulfilment = easyRandom.nextObject(ParkedFulfilment.class);
+    when(parkedFulfilmentService.releaseArrived(anyInt())).thenReturn(List.of(parkedFulfilment));
+    when(caseCache.findByCaseId(parkedFulfilment.getCaseId())).thenReturn(Optional.empty());
+
+    // When
+    underTest.releaseArrivedFulfilments();
+
+    // Then
+    verify(parkedFulfilmentService).repark(parkedFulfilment);
+    verify(fulfilmentRequestService, never()).processEvent(any(), any(), any());
   }
 
   @Test
@@ -142,21 +237,23 @@ public class FulfilmentRequestReceiverTest {
   private void testIndividualResponseRequestIsIgnoredOnHHCase(String fulfilmentCode) {
     ResponseManagementEvent event = easyRandom.nextObject(ResponseManagementEvent.class);
     event.getPayload().getFulfilmentRequest().setFulfilmentCode(fulfilmentCode);
-    Case caze = new Case();
-    caze.setCaseType("HH");
-    when(caseRepository.findByCaseId(any())).thenReturn(Optional.of(caze));
-    when(fulfilmentRequestService.determineFulfilmentType(any()))
-        .thenReturn(FulfilmentType.P_OR_HX);
+    FulfilmentCase caze = FulfilmentCase.builder().caseType("HH").build();
+    when(caseCache.findByCaseId(any())).thenReturn(Optional.of(caze));
+    when(fulfilmentRequestService.determineFulfilmentCode(any()))
+        .thenReturn(new FulfilmentCode(FulfilmentType.P_OR_HX, false, false, true));
 
     underTest.receiveEvent(event);
-    verify(fulfilmentRequestService).determineFulfilmentType(fulfilmentCode);
+    verify(fulfilmentRequestService).determineFulfilmentCode(fulfilmentCode);
 
     verifyNoMoreInteractions(fulfilmentRequestService);
   }
 
-  private Case caseRepositoryReturnsRandomCase() {
-    Case caze = easyRandom.nextObject(Case.class);
-    when(caseRepository.findByCaseId(caze.getCaseId())).thenReturn(Optional.of(caze));
+  private FulfilmentCase caseCacheReturnsRandomCase() {
+    return caseCacheReturns(easyRandom.nextObject(FulfilmentCase.class));
+  }
+
+  private FulfilmentCase caseCacheReturns(FulfilmentCase caze) {
+    when(caseCache.findByCaseId(caze.getCaseId())).thenReturn(Optional.of(caze));
     return caze;
   }
 }
@@ -0,0 +1,123 @@
+package uk.gov.ons.census.action.messaging;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.test.util.ReflectionTestUtils;
+import uk.gov.ons.census.action.config.AppConfig;
+import uk.gov.ons.census.action.metrics.MessageMetrics;
+import uk.gov.ons.census.action.model.repository.CaseRepository;
+import uk.gov.ons.census.action.model.repository.FulfilmentToProcessRepository;
+import uk.gov.ons.census.action.service.FulfilmentCodeRegistry;
+import uk.gov.ons.census.action.service.FulfilmentRequestService;
+import uk.gov.ons.census.action.service.PendingFulfilmentCounter;
+
+public class IgnoredMessageFilterTest {
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private IgnoredMessageFilter underTest;
+
+  @Before
+  public void setUp() {
+    FulfilmentCodeRegistry fulfilmentCodeRegistry = new FulfilmentCodeRegistry();
+    ReflectionTestUtils.setField(
+        fulfilmentCodeRegistry, "location", new ClassPathResource("fulfilment-codes.csv"));
+    fulfilmentCodeRegistry.load();
+
+    underTest =
+        new IgnoredMessageFilter(
+            new AppConfig().objectMapper(),
+            new FulfilmentRequestService(
+                mock(FulfilmentToProcessRepository.class),
+                mock(CaseRepository.class),
+                mock(PendingFulfilmentCounter.class),
+                fulfilmentCodeRegistry),
+            new MessageMetrics(meterRegistry));
+  }
+
+  @Test
+  public void testCCSCaseIsIgnored() {
+    // Given
+    Message message =
+        makeMessage(
+            "{\"event\":{\"type\":\"CASE_CREATED\",\"channel\":\"RM\"},"
+                + "\"payload\":{\"collectionCase\":{\"id\":\"a\",\"address\":{\"postcode\":\"X\"},"
+                + "\"survey\":\"CCS\"}}}");
+
+    // When, then
+    assertThat(underTest.isIgnoredCaseEvent(message, "case.action")).isTrue();
+    assertThat(droppedCount("case.action", "CASE_CREATED", "ccs")).isEqualTo(1);
+  }
+
+  @Test
+  public void testCensusCaseIsNotIgnored() {
+    // Given
+    Message message =
+        makeMessage(
+            "{\"payload\":{\"collectionCase\":{\"survey\":\"CENSUS\"}},"
+                + "\"event\":{\"type\":\"CASE_UPDATED\"}}");
+
+    // When, then
+    assertThat(underTest.isIgnoredCaseEvent(message, "case.action")).isFalse();
+  }
+
+  @Test
+  public void testCCSQuestionnaireUacIsIgnored() {
+    // Given
+    Message message =
+        makeMessage(
+            "{\"event\":{\"type\":\"UAC_UPDATED\"},"
+                + "\"payload\":{\"uac\":{\"questionnaireId\":\"7100000001\",\"active\":true}}}");
+
+    // When, then
+    assertThat(underTest.isIgnoredCaseEvent(message, "case.action")).isTrue();
+  }
+
+  @Test
+  public void testInvalidJsonIsNotIgnored() {
+    assertThat(underTest.isIgnoredCaseEvent(makeMessage("not json"), "case.action")).isFalse();
+  }
+
+  @Test
+  public void testIgnoredFulfilmentCodeIsIgnored() {
+    // Given
+    Message message =
+        makeMessage(
+            "{\"event\":{\"type\":\"FULFILMENT_REQUESTED\"},"
+                + "\"payload\":{\"fulfilmentRequest\":{\"fulfilmentCode\":\"UACHHT1\"}}}");
+
+    // When, then
+    assertThat(underTest.isIgnoredFulfilment(message, "action.fulfilment")).isTrue();
+    assertThat(droppedCount("action.fulfilment", "FULFILMENT_REQUESTED", "fulfilment_code"))
+        .isEqualTo(1);
+  }
+
+  @Test
+  public void testPrintedFulfilmentCodeIsNotIgnored() {
+    // Given
+    Message message =
+        makeMessage(
+            "{\"event\":{\"type\":\"FULFILMENT_REQUESTED\"},"
+                + "\"payload\":{\"fulfilmentRequest\":{\"fulfilmentCode\":\"P_OR_H1\"}}}");
+
+    // When, then
+    assertThat(underTest.isIgnoredFulfilment(message, "action.fulfilment")).isFalse();
+  }
+
+  private Message makeMessage(String body) {
+    return new Message(body.getBytes(), new MessageProperties());
+  }
+
+  private double droppedCount(String queue, String eventType, String reason) {
+    return meterRegistry
+        .counter(
+            "action.messages.dropped", "queue", queue, "event_type", eventType, "reason", reason)
+        .count();
+  }
+}
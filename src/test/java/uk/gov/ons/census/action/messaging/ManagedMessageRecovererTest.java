@@ -5,11 +5,16 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.contains;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 import org.springframework.amqp.AmqpRejectAndDontRequeueException;
@@ -17,10 +22,14 @@ import org.springframework.amqp.core.Message;
 import org.springframework.amqp.core.MessageProperties;
 import org.springframework.amqp.rabbit.support.ListenerExecutionFailedException;
 import uk.gov.ons.census.action.client.ExceptionManagerClient;
+import uk.gov.ons.census.action.config.AppConfig;
+import uk.gov.ons.census.action.metrics.MessageMetrics;
 import uk.gov.ons.census.action.model.dto.ExceptionReportResponse;
 import uk.gov.ons.census.action.model.dto.SkippedMessage;
 
 public class ManagedMessageRecovererTest {
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final MessageMetrics messageMetrics = new MessageMetrics(meterRegistry);
 
   private static final String MESSAGE_HASH =
       "4f1ec3a5f36117da0e9ba42c2eda77dea47b279358a7b2bb538a51d3e13bd229";
@@ -31,7 +40,14 @@ public class ManagedMessageRecovererTest {
     ExceptionManagerClient exceptionManagerClient = mock(ExceptionManagerClient.class);
     ManagedMessageRecoverer underTest =
         new ManagedMessageRecoverer(
-            exceptionManagerClient, Object.class, false, "test service", "test queue");
+            exceptionManagerClient,
+            Object.class,
+            false,
+            "test service",
+            "test queue",
+            messageMetrics,
+            Caffeine.newBuilder().build(),
+            new AppConfig().objectMapper());
 
     Message message = new Message("test message body".getBytes(), new MessageProperties());
     Throwable cause = new Exception(new RuntimeException());
@@ -43,7 +59,7 @@ public class ManagedMessageRecovererTest {
     exceptionReportResponse.setPeek(false);
     exceptionReportResponse.setSkipIt(false);
     when(exceptionManagerClient.reportException(any(), any(), any(), any(), any()))
-        .thenReturn(exceptionReportResponse);
+        .thenReturn(CompletableFuture.completedFuture(exceptionReportResponse));
 
     // When
     try {
@@ -70,7 +86,14 @@ public class ManagedMessageRecovererTest {
     ExceptionManagerClient exceptionManagerClient = mock(ExceptionManagerClient.class);
     ManagedMessageRecoverer underTest =
         new ManagedMessageRecoverer(
-            exceptionManagerClient, Object.class, false, "test service", "test queue");
+            exceptionManagerClient,
+            Object.class,
+            false,
+            "test service",
+            "test queue",
+            messageMetrics,
+            Caffeine.newBuilder().build(),
+            new AppConfig().objectMapper());
 
     Message message = new Message("test message body".getBytes(), new MessageProperties());
     Throwable cause = new Exception(new RuntimeException());
@@ -78,7 +101,7 @@ public class ManagedMessageRecovererTest {
         new ListenerExecutionFailedException("test error message", cause, message);
 
     when(exceptionManagerClient.reportException(any(), any(), any(), any(), any()))
-        .thenThrow(new RuntimeException());
+        .thenReturn(CompletableFuture.failedFuture(new RuntimeException()));
 
     try {
       underTest.recover(message, failedException);
@@ -102,7 +125,14 @@ public class ManagedMessageRecovererTest {
     ExceptionManagerClient exceptionManagerClient = mock(ExceptionManagerClient.class);
     ManagedMessageRecoverer underTest =
         new ManagedMessageRecoverer(
-            exceptionManagerClient, Object.class, false, "test service", "test queue");
+            exceptionManagerClient,
+            Object.class,
+            false,
+            "test service",
+            "test queue",
+            messageMetrics,
+            Caffeine.newBuilder().build(),
+            new AppConfig().objectMapper());
 
     MessageProperties messageProperties = new MessageProperties();
     messageProperties.setContentType("test content type");
@@ -118,7 +148,7 @@ public class ManagedMessageRecovererTest {
     exceptionReportResponse.setPeek(false);
     exceptionReportResponse.setSkipIt(true);
     when(exceptionManagerClient.reportException(any(), any(), any(), any(), any()))
-        .thenReturn(exceptionReportResponse);
+        .thenReturn(CompletableFuture.completedFuture(exceptionReportResponse));
 
     underTest.recover(message, failedException);
 
@@ -143,6 +173,8 @@ public class ManagedMessageRecovererTest {
     assertThat(actualSkippedMessage.getQueue()).isEqualTo("test queue");
     assertThat(actualSkippedMessage.getRoutingKey()).isEqualTo("test received routing key");
     assertThat(actualSkippedMessage.getService()).isEqualTo("test service");
+    assertThat(recovererActionCount("skip")).isEqualTo(1);
+    assertThat(recovererActionCount("dlq")).isEqualTo(0);
 
     verifyNoMoreInteractions(exceptionManagerClient);
   }
@@ -152,7 +184,14 @@ public class ManagedMessageRecovererTest {
     ExceptionManagerClient exceptionManagerClient = mock(ExceptionManagerClient.class);
     ManagedMessageRecoverer underTest =
         new ManagedMessageRecoverer(
-            exceptionManagerClient, Object.class, false, "test service", "test queue");
+            exceptionManagerClient,
+            Object.class,
+            false,
+            "test service",
+            "test queue",
+            messageMetrics,
+            Caffeine.newBuilder().build(),
+            new AppConfig().objectMapper());
 
     MessageProperties messageProperties = new MessageProperties();
     messageProperties.setContentType("test content type");
@@ -168,7 +207,7 @@ public class ManagedMessageRecovererTest {
     exceptionReportResponse.setPeek(true);
     exceptionReportResponse.setSkipIt(false);
     when(exceptionManagerClient.reportException(any(), any(), any(), any(), any()))
-        .thenReturn(exceptionReportResponse);
+        .thenReturn(CompletableFuture.completedFuture(exceptionReportResponse));
 
     try {
       underTest.recover(message, failedException);
@@ -187,7 +226,112 @@ public class ManagedMessageRecovererTest {
 
       verifyNoMoreInteractions(exceptionManagerClient);
 
+      assertThat(recovererActionCount("peek")).isEqualTo(1);
+      assertThat(recovererActionCount("log")).isEqualTo(0);
+      assertThat(recovererActionCount("dlq")).isEqualTo(1);
+
       throw expectedException;
     }
   }
+
+  @Test
+  public void testRepeatedFailureIsDecidedLocally() {
+    // Given
+    ExceptionManagerClient exceptionManagerClient = mock(ExceptionManagerClient.class);
+    ManagedMessageRecoverer underTest =
+        new ManagedMessageRecoverer(
+            exceptionManagerClient,
+            Object.class,
+            false,
+            "test service",
+            "test queue",
+            messageMetrics,
+            Caffeine.newBuilder().build(),
+            new AppConfig().objectMapper());
+
+    Message message = new Message("test message body".getBytes(), new MessageProperties());
+    ListenerExecutionFailedException failedException =
+        new ListenerExecutionFailedException(
+            "test error message", new Exception(new RuntimeException()), message);
+
+    ExceptionReportResponse exceptionReportResponse = new ExceptionReportResponse();
+    exceptionReportResponse.setLogIt(true);
+    exceptionReportResponse.setPeek(true);
+    when(exceptionManagerClient.reportException(any(), any(), any(), any(), any()))
+        .thenReturn(CompletableFuture.completedFuture(exceptionReportResponse));
+
+    // When
+    for (int i = 0; i < 3; i++) {
+      try {
+        underTest.recover(message, failedException);
+      } catch (AmqpRejectAndDontRequeueException expectedException) {
+        // Sent to the DLQ every time
+      }
+    }
+
+    // Then
+    verify(exceptionManagerClient, times(1))
+        .reportException(eq(MESSAGE_HASH), any(), any(), any(), any());
+    verify(exceptionManagerClient, times(1)).respondToPeek(eq(MESSAGE_HASH), any());
+    verifyNoMoreInteractions(exceptionManagerClient);
+    assertThat(
+            meterRegistry
+                .counter("action.recoverer.reports.avoided", "queue", "test queue")
+                .count())
+        .isEqualTo(2);
+    assertThat(recovererActionCount("log")).isEqualTo(3);
+    assertThat(recovererActionCount("dlq")).isEqualTo(3);
+  }
+
+  @Test
+  public void testRecoverDoesNotWaitForTheExceptionManager() {
+    // Given
+    ExceptionManagerClient exceptionManagerClient = mock(ExceptionManagerClient.class);
+    ManagedMessageRecoverer underTest =
+        new ManagedMessageRecoverer(
+            exceptionManagerClient,
+            Object.class,
+            false,
+            "test service",
+            "test queue",
+            messageMetrics,
+            Caffeine.newBuilder().build(),
+            new AppConfig().objectMapper());
+
+    Message message = new Message("test message body".getBytes(), new MessageProperties());
+    ListenerExecutionFailedException failedException =
+        new ListenerExecutionFailedException(
+            "test error message", new Exception(new RuntimeException()), message);
+
+    CompletableFuture<ExceptionReportResponse> report = new CompletableFuture<>();
+    when(exceptionManagerClient.reportException(any(), any(), any(), any(), any()))
+        .thenReturn(report);
+
+    // When
+    try {
+      underTest.recover(message, failedException);
+    } catch (AmqpRejectAndDontRequeueException expectedException) {
+      // Sent to the DLQ, as there is no answer yet
+    }
+    ExceptionReportResponse exceptionReportResponse = new ExceptionReportResponse();
+    exceptionReportResponse.setSkipIt(true);
+    exceptionReportResponse.setPeek(true);
+    report.complete(exceptionReportResponse);
+    underTest.recover(message, failedException);
+
+    // Then
+    verify(exceptionManagerClient, times(1))
+        .reportException(eq(MESSAGE_HASH), any(), any(), any(), any());
+    verify(exceptionManagerClient).respondToPeek(eq(MESSAGE_HASH), any());
+    verify(exceptionManagerClient).storeMessageBeforeSkipping(any());
+    verifyNoMoreInteractions(exceptionManagerClient);
+    assertThat(recovererActionCount("dlq")).isEqualTo(1);
+    assertThat(recovererActionCount("skip")).isEqualTo(1);
+  }
+
+  private double recovererActionCount(String action) {
+    return meterRegistry
+        .counter("action.recoverer.actions", "queue", "test queue", "action", action)
+        .count();
+  }
 }
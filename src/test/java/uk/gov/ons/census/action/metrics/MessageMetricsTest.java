@@ -0,0 +1,58 @@
+package uk.gov.ons.census.action.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import uk.gov.ons.census.action.model.dto.EventType;
+
+public class MessageMetricsTest {
+  private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final MessageMetrics underTest = new MessageMetrics(meterRegistry);
+
+  @After
+  public void tearDown() {
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.clearSynchronization();
+    }
+  }
+
+  @Test
+  public void testMessageProcessedOutsideTransactionIsRecordedImmediately() {
+    // When
+    underTest.messageProcessed(underTest.startTimer(), "test queue", EventType.CASE_CREATED, false);
+
+    // Then
+    assertThat(processingTimer(MessageMetrics.OUTCOME_FAILURE).count()).isEqualTo(1);
+  }
+
+  @Test
+  public void testMessageProcessedInTransactionIsRecordedOnCompletion() {
+    // Given
+    TransactionSynchronizationManager.initSynchronization();
+
+    // When
+    underTest.messageProcessed(underTest.startTimer(), "test queue", EventType.CASE_CREATED, true);
+
+    // Then
+    assertThat(meterRegistry.find("action.messages.processing").timer()).isNull();
+
+    for (TransactionSynchronization synchronization :
+        TransactionSynchronizationManager.getSynchronizations()) {
+      synchronization.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK);
+    }
+    assertThat(processingTimer(MessageMetrics.OUTCOME_FAILURE).count()).isEqualTo(1);
+  }
+
+  private Timer processingTimer(String outcome) {
+    return meterRegistry
+        .get("action.messages.processing")
+        .tags("queue", "test queue", "event_type", "CASE_CREATED", "outcome", outcome)
+        .timer();
+  }
+}
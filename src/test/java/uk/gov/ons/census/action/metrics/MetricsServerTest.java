@@ -0,0 +1,62 @@
+package uk.gov.ons.census.action.metrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class MetricsServerTest {
+  private final PrometheusMeterRegistry meterRegistry =
+      new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+  private final MetricsServer underTest = new MetricsServer(meterRegistry);
+
+  @Before
+  public void setUp() throws IOException {
+    ReflectionTestUtils.setField(underTest, "port", 0);
+    underTest.start();
+  }
+
+  @After
+  public void tearDown() {
+    underTest.stop();
+  }
+
+  @Test
+  public void testMetricsAreScraped() throws IOException {
+    // Given
+    meterRegistry.counter("action.messages.received", "queue", "case.action").increment();
+
+    // When
+    HttpURLConnection connection = open("/metrics");
+
+    // Then
+    assertThat(connection.getResponseCode()).isEqualTo(200);
+    try (InputStream body = connection.getInputStream()) {
+      assertThat(new String(body.readAllBytes(), StandardCharsets.UTF_8))
+          .contains("action_messages_received_total{queue=\"case.action\",} 1.0");
+    }
+  }
+
+  @Test
+  public void testOnlyMetricsAreServed() throws IOException {
+    // When
+    HttpURLConnection connection = open("/actuator/health");
+
+    // Then
+    assertThat(connection.getResponseCode()).isEqualTo(404);
+  }
+
+  private HttpURLConnection open(String path) throws IOException {
+    return (HttpURLConnection)
+        new URL("http://localhost:" + underTest.getPort() + path).openConnection();
+  }
+}
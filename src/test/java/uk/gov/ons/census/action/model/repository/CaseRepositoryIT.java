@@ -0,0 +1,116 @@
+package uk.gov.ons.census.action.model.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import org.jeasy.random.EasyRandom;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import uk.gov.ons.census.action.model.entity.Case;
+
+@ContextConfiguration
+@SpringBootTest
+@ActiveProfiles("test")
+@RunWith(SpringJUnit4ClassRunner.class)
+public class CaseRepositoryIT {
+  private static final OffsetDateTime CREATED =
+      OffsetDateTime.of(2020, 5, 1, 9, 0, 0, 0, ZoneOffset.UTC);
+
+  @Autowired private CaseRepository caseRepository;
+
+  private EasyRandom easyRandom = new EasyRandom();
+
+  @Test
+  public void testUpdateWritesChangedColumns() {
+    // Given
+    Case caze = setUpCaseAndSaveInDB();
+    Case update = copyOf(caze);
+    update.setTreatmentCode("HH_LF2R3AE");
+    update.setTownName("Newport");
+    update.setLastUpdated(CREATED.plusHours(1));
+
+    // When
+    CaseUpdateOutcome outcome = caseRepository.updateChangedColumns(update);
+
+    // Then
+    assertThat(outcome).isEqualTo(CaseUpdateOutcome.UPDATED);
+    Case actualCase = caseRepository.findById(caze.getCaseRef()).get();
+    assertThat(actualCase.getTreatmentCode()).isEqualTo("HH_LF2R3AE");
+    assertThat(actualCase.getTownName()).isEqualTo("Newport");
+    assertThat(actualCase.getPostcode()).isEqualTo(caze.getPostcode());
+    assertThat(actualCase.getLastUpdated().toInstant()).isEqualTo(CREATED.plusHours(1).toInstant());
+  }
+
+  @Test
+  public void testUnchangedUpdateOnlyMovesLastUpdatedOn() {
+    // Given
+    Case caze = setUpCaseAndSaveInDB();
+    Case update = copyOf(caze);
+    update.setLastUpdated(CREATED.plusHours(1));
+
+    // When
+    CaseUpdateOutcome outcome = caseRepository.updateChangedColumns(update);
+
+    // Then
+    assertThat(outcome).isEqualTo(CaseUpdateOutcome.UNCHANGED);
+    Case actualCase = caseRepository.findById(caze.getCaseRef()).get();
+    assertThat(actualCase.getLastUpdated().toInstant()).isEqualTo(CREATED.plusHours(1).toInstant());
+  }
+
+  @Test
+  public void testOlderUpdateArrivingAfterUnchangedUpdateIsStale() {
+    // Given
+    Case caze = setUpCaseAndSaveInDB();
+    Case newestUpdate = copyOf(caze);
+    newestUpdate.setLastUpdated(CREATED.plusHours(2));
+    Case olderUpdate = copyOf(caze);
+    olderUpdate.setTreatmentCode("HH_LF2R3AE");
+    olderUpdate.setLastUpdated(CREATED.plusHours(1));
+
+    // When
+    caseRepository.updateChangedColumns(newestUpdate);
+    CaseUpdateOutcome outcome = caseRepository.updateChangedColumns(olderUpdate);
+
+    // Then
+    assertThat(outcome).isEqualTo(CaseUpdateOutcome.STALE);
+    Case actualCase = caseRepository.findById(caze.getCaseRef()).get();
+    assertThat(actualCase.getTreatmentCode()).isEqualTo(caze.getTreatmentCode());
+    assertThat(actualCase.getLastUpdated().toInstant()).isEqualTo(CREATED.plusHours(2).toInstant());
+  }
+
+  @Test
+  public void testUpdateForCaseNotYetCreatedIsInserted() {
+    // Given
+    Case update = easyRandom.nextObject(Case.class);
+    update.setCreatedDateTime(CREATED);
+    update.setLastUpdated(CREATED);
+
+    // When
+    CaseUpdateOutcome outcome = caseRepository.updateChangedColumns(update);
+
+    // Then
+    assertThat(outcome).isEqualTo(CaseUpdateOutcome.UPDATED);
+    assertThat(caseRepository.findById(update.getCaseRef())).isPresent();
+  }
+
+  private Case setUpCaseAndSaveInDB() {
+    Case caze = easyRandom.nextObject(Case.class);
+    caze.setCreatedDateTime(CREATED);
+    caze.setLastUpdated(CREATED);
+    caseRepository.upsert(caze);
+    return caze;
+  }
+
+  private Case copyOf(Case caze) {
+    Case copy = new Case();
+    BeanUtils.copyProperties(caze, copy);
+    return copy;
+  }
+}
@@ -0,0 +1,69 @@
+package uk.gov.ons.census.action.model.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.UUID;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import uk.gov.ons.census.action.model.entity.UacQidLink;
+
+@ContextConfiguration
+@SpringBootTest
+@ActiveProfiles("test")
+@RunWith(SpringJUnit4ClassRunner.class)
+public class UacQidLinkRepositoryIT {
+  @Autowired private UacQidLinkRepository uacQidLinkRepository;
+
+  @Before
+  public void setUp() {
+    uacQidLinkRepository.deleteAllInBatch();
+  }
+
+  @Test
+  public void testUpsertExistingQidUpdatesCaseAndActive() {
+    // Given
+    UacQidLink existingLink = makeUacQidLink("0120000000000100", UUID.randomUUID(), true);
+    uacQidLinkRepository.saveAndFlush(existingLink);
+    UUID updatedCaseId = UUID.randomUUID();
+
+    // When
+    uacQidLinkRepository.upsert(makeUacQidLink("0120000000000100", updatedCaseId, false));
+
+    // Then
+    List<UacQidLink> actualLinks = uacQidLinkRepository.findAll();
+    assertThat(actualLinks).hasSize(1);
+    assertThat(actualLinks.get(0).getId()).isEqualTo(existingLink.getId());
+    assertThat(actualLinks.get(0).getUac()).isEqualTo(existingLink.getUac());
+    assertThat(actualLinks.get(0).getCaseId()).isEqualTo(updatedCaseId);
+    assertThat(actualLinks.get(0).isActive()).isFalse();
+  }
+
+  @Test
+  public void testUpsertNewQidInsertsLink() {
+    // Given
+    UacQidLink newLink = makeUacQidLink("0120000000000200", UUID.randomUUID(), true);
+
+    // When
+    uacQidLinkRepository.upsert(newLink);
+
+    // Then
+    assertThat(uacQidLinkRepository.findById(newLink.getId())).contains(newLink);
+  }
+
+  private UacQidLink makeUacQidLink(String qid, UUID caseId, boolean active) {
+    UacQidLink uacQidLink = new UacQidLink();
+    uacQidLink.setId(UUID.randomUUID());
+    uacQidLink.setQid(qid);
+    uacQidLink.setUac(UUID.randomUUID().toString());
+    uacQidLink.setCaseId(caseId);
+    uacQidLink.setActive(active);
+    return uacQidLink;
+  }
+}
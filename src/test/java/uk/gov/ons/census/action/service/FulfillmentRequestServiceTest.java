@@ -5,26 +5,46 @@ import static org.junit.Assert.assertEquals;
 import static org.mockito.Mockito.*;
 
 import org.jeasy.random.EasyRandom;
+import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.test.util.ReflectionTestUtils;
 import uk.gov.ons.census.action.model.dto.FulfilmentRequestDTO;
 import uk.gov.ons.census.action.model.entity.Case;
 import uk.gov.ons.census.action.model.entity.FulfilmentToProcess;
 import uk.gov.ons.census.action.model.entity.FulfilmentType;
+import uk.gov.ons.census.action.model.repository.CaseRepository;
+import uk.gov.ons.census.action.model.repository.FulfilmentCase;
 import uk.gov.ons.census.action.model.repository.FulfilmentToProcessRepository;
 
 @RunWith(MockitoJUnitRunner.class)
 public class FulfillmentRequestServiceTest {
   @Mock FulfilmentToProcessRepository fulfilmentToProcessRepository;
+  @Mock CaseRepository caseRepository;
+  @Mock PendingFulfilmentCounter pendingFulfilmentCounter;
 
-  @InjectMocks FulfilmentRequestService underTest;
+  FulfilmentRequestService underTest;
 
   private final EasyRandom easyRandom = new EasyRandom();
 
+  @Before
+  public void setUp() {
+    FulfilmentCodeRegistry fulfilmentCodeRegistry = new FulfilmentCodeRegistry();
+    ReflectionTestUtils.setField(
+        fulfilmentCodeRegistry, "location", new ClassPathResource("fulfilment-codes.csv"));
+    fulfilmentCodeRegistry.load();
+    underTest =
+        new FulfilmentRequestService(
+            fulfilmentToProcessRepository,
+            caseRepository,
+            pendingFulfilmentCounter,
+            fulfilmentCodeRegistry);
+  }
+
   @Test
   public void testLargePrintHouseholdQuestionnaireFulfilmentMappings() {
     assertThat(underTest.determineFulfilmentType("P_LP_HL1")).isEqualTo(FulfilmentType.P_LP_HLX);
@@ -40,6 +60,21 @@ public class FulfillmentRequestServiceTest {
     assertThat(underTest.determineFulfilmentType("P_TB_TBARA1")).isEqualTo(FulfilmentType.P_TB_TBX);
   }
 
+  @Test
+  public void testNewTranslationBookletFulfilmentMappings() {
+    assertThat(underTest.determineFulfilmentType("P_TB_TBNEW1")).isEqualTo(FulfilmentType.P_TB_TBX);
+  }
+
+  @Test
+  public void testSmsFulfilmentIsIgnored() {
+    assertThat(underTest.determineFulfilmentType("UACHHT1")).isNull();
+  }
+
+  @Test
+  public void testUnexpectedFulfilmentIsIgnored() {
+    assertThat(underTest.determineFulfilmentType("NOT_A_FULFILMENT_CODE")).isNull();
+  }
+
   @Test
   public void testInformationLeafletFulfilmentMappings() {
     assertThat(underTest.determineFulfilmentType("P_ER_ILER1")).isEqualTo(FulfilmentType.P_ER_IL);
@@ -55,15 +90,20 @@ public class FulfillmentRequestServiceTest {
   public void testIndividualPrintFulfilment() {
     FulfilmentRequestDTO fulfilmentRequestDTO = easyRandom.nextObject(FulfilmentRequestDTO.class);
     fulfilmentRequestDTO.setFulfilmentCode("P_OR_I1");
-    Case caze = easyRandom.nextObject(Case.class);
+    FulfilmentCase caze = easyRandom.nextObject(FulfilmentCase.class);
+    Case caseReference = new Case();
+    when(caseRepository.getOne(caze.getCaseRef())).thenReturn(caseReference);
 
-    underTest.processEvent(fulfilmentRequestDTO, caze, FulfilmentType.P_OR_IX);
+    underTest.processEvent(
+        fulfilmentRequestDTO, caze, underTest.determineFulfilmentCode("P_OR_I1"));
 
     ArgumentCaptor<FulfilmentToProcess> fulfilmentToSendArgumentCaptor =
         ArgumentCaptor.forClass(FulfilmentToProcess.class);
-    verify(fulfilmentToProcessRepository).saveAndFlush(fulfilmentToSendArgumentCaptor.capture());
+    verify(fulfilmentToProcessRepository).save(fulfilmentToSendArgumentCaptor.capture());
 
     FulfilmentToProcess actualFulfilmentToProcess = fulfilmentToSendArgumentCaptor.getValue();
+    verify(pendingFulfilmentCounter).fulfilmentAdded(actualFulfilmentToProcess);
+    assertThat(actualFulfilmentToProcess.getCaze()).isSameAs(caseReference);
     assertThat(actualFulfilmentToProcess)
         .isEqualToComparingOnlyGivenFields(
             caze, "addressLine1", "addressLine2", "addressLine3", "postcode", "townName");
@@ -75,17 +115,41 @@ public class FulfillmentRequestServiceTest {
     assertEquals(FulfilmentType.P_OR_IX, actualFulfilmentToProcess.getFulfilmentType());
   }
 
+  @Test
+  public void testPaperQuestionnaireForHandDeliverCaseDoesNotNeedFieldIds() {
+    FulfilmentRequestDTO fulfilmentRequestDTO = easyRandom.nextObject(FulfilmentRequestDTO.class);
+    fulfilmentRequestDTO.setFulfilmentCode("P_OR_H1");
+    FulfilmentCase caze =
+        easyRandom
+            .nextObject(FulfilmentCase.class)
+            .toBuilder()
+            .handDelivery(true)
+            .fieldCoordinatorId(null)
+            .fieldOfficerId(null)
+            .build();
+
+    underTest.processEvent(
+        fulfilmentRequestDTO, caze, underTest.determineFulfilmentCode("P_OR_H1"));
+
+    verify(fulfilmentToProcessRepository).save(any(FulfilmentToProcess.class));
+  }
+
   @Test(expected = RuntimeException.class)
   public void testPpoFulfilmentForHandDeliverCaseMissingFieldIdsIsRejected() {
     FulfilmentRequestDTO fulfilmentRequestDTO = easyRandom.nextObject(FulfilmentRequestDTO.class);
     fulfilmentRequestDTO.setFulfilmentCode("P_TB_TBCAN1");
-    Case caze = easyRandom.nextObject(Case.class);
-    caze.setHandDelivery(true);
-    caze.setFieldCoordinatorId(null);
-    caze.setFieldOfficerId(null);
+    FulfilmentCase caze =
+        easyRandom
+            .nextObject(FulfilmentCase.class)
+            .toBuilder()
+            .handDelivery(true)
+            .fieldCoordinatorId(null)
+            .fieldOfficerId(null)
+            .build();
 
     try {
-      underTest.processEvent(fulfilmentRequestDTO, caze, FulfilmentType.P_TB_TBX);
+      underTest.processEvent(
+          fulfilmentRequestDTO, caze, underTest.determineFulfilmentCode("P_TB_TBCAN1"));
     } catch (RuntimeException runtimeException) {
       assertThat(runtimeException.getMessage()).contains("fieldOfficerId");
       assertThat(runtimeException.getMessage()).contains("fieldCoordinatorId");
@@ -99,12 +163,17 @@ public class FulfillmentRequestServiceTest {
   public void testCaseMissingMandatoryAddressFieldsIsRejected() {
     FulfilmentRequestDTO fulfilmentRequestDTO = easyRandom.nextObject(FulfilmentRequestDTO.class);
     fulfilmentRequestDTO.setFulfilmentCode("P_OR_H1");
-    Case caze = easyRandom.nextObject(Case.class);
-    caze.setAddressLine1(null);
-    caze.setPostcode(null);
+    FulfilmentCase caze =
+        easyRandom
+            .nextObject(FulfilmentCase.class)
+            .toBuilder()
+            .addressLine1(null)
+            .postcode(null)
+            .build();
 
     try {
-      underTest.processEvent(fulfilmentRequestDTO, caze, FulfilmentType.P_OR_HX);
+      underTest.processEvent(
+          fulfilmentRequestDTO, caze, underTest.determineFulfilmentCode("P_OR_H1"));
     } catch (RuntimeException runtimeException) {
       assertThat(runtimeException.getMessage()).contains("addressLine1");
       assertThat(runtimeException.getMessage()).contains("postcode");
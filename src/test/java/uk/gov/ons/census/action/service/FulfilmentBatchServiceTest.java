@@ -0,0 +1,73 @@
+package uk.gov.ons.census.action.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.dao.PessimisticLockingFailureException;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import uk.gov.ons.census.action.model.entity.FulfilmentToProcess;
+import uk.gov.ons.census.action.model.repository.FulfilmentToProcessRepository;
+import uk.gov.ons.census.action.model.repository.PendingFulfilmentRepository;
+
+public class FulfilmentBatchServiceTest {
+  private final FulfilmentToProcessRepository fulfilmentToProcessRepository =
+      mock(FulfilmentToProcessRepository.class);
+  private final PendingFulfilmentRepository pendingFulfilmentRepository =
+      mock(PendingFulfilmentRepository.class);
+
+  private FulfilmentBatchService underTest;
+
+  @Before
+  public void setUp() {
+    underTest =
+        new FulfilmentBatchService(
+            fulfilmentToProcessRepository,
+            pendingFulfilmentRepository,
+            new TransactionTemplate(mock(PlatformTransactionManager.class)));
+    ReflectionTestUtils.setField(underTest, "claimAttempts", 3);
+  }
+
+  @Test
+  public void testClaimIsMadeAgainAfterClashingWithAnother() {
+    // Given
+    FulfilmentToProcess fulfilmentToProcess = new FulfilmentToProcess();
+    when(fulfilmentToProcessRepository.claimUnbatched(eq("P_OR_H1"), any(), eq(10)))
+        .thenThrow(new PessimisticLockingFailureException("Row moved to another partition"))
+        .thenReturn(List.of(fulfilmentToProcess));
+
+    // When
+    List<FulfilmentToProcess> claimedFulfilments = underTest.claimBatch("P_OR_H1", 10);
+
+    // Then
+    assertThat(claimedFulfilments).containsExactly(fulfilmentToProcess);
+    verify(fulfilmentToProcessRepository, times(2)).claimUnbatched(eq("P_OR_H1"), any(), eq(10));
+    verify(pendingFulfilmentRepository).fulfilmentsClaimed("P_OR_H1", 1);
+  }
+
+  @Test
+  public void testClaimGivesUpAfterTheLastAttempt() {
+    // Given
+    when(fulfilmentToProcessRepository.claimUnbatched(eq("P_OR_H1"), any(), eq(10)))
+        .thenThrow(new PessimisticLockingFailureException("Row moved to another partition"));
+
+    // When, then
+    assertThatThrownBy(() -> underTest.claimBatch("P_OR_H1", 10))
+        .isInstanceOf(PessimisticLockingFailureException.class);
+    verify(fulfilmentToProcessRepository, times(3)).claimUnbatched(eq("P_OR_H1"), any(), eq(10));
+    verify(pendingFulfilmentRepository, never()).fulfilmentsClaimed(anyString(), anyInt());
+  }
+}
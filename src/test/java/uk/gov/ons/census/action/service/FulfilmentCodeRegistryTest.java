@@ -0,0 +1,135 @@
+package uk.gov.ons.census.action.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.test.util.ReflectionTestUtils;
+import uk.gov.ons.census.action.model.entity.FulfilmentType;
+
+public class FulfilmentCodeRegistryTest {
+  private static final long LAST_MODIFIED = 1_600_000_000_000L;
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private final FulfilmentCodeRegistry underTest = new FulfilmentCodeRegistry();
+
+  @Test
+  public void testExactCodeWinsOverPrefix() throws IOException {
+    // Given
+    loadCodes("P_TB_TB*,P_TB_TBX,false,false,false", "P_TB_TBARA1,P_OR_HX,false,true,false");
+
+    // When
+    FulfilmentCode actualCode = underTest.resolve("P_TB_TBARA1");
+
+    // Then
+    assertThat(actualCode.getFulfilmentType()).isEqualTo(FulfilmentType.P_OR_HX);
+    assertThat(actualCode.isPaperQuestionnaire()).isTrue();
+  }
+
+  @Test
+  public void testLongestPrefixWins() throws IOException {
+    // Given
+    loadCodes("P_TB_*,P_OR_HX,false,false,false", "P_TB_TB*,P_TB_TBX,false,false,false");
+
+    // When
+    FulfilmentCode actualCode = underTest.resolve("P_TB_TBARA1");
+
+    // Then
+    assertThat(actualCode.getFulfilmentType()).isEqualTo(FulfilmentType.P_TB_TBX);
+  }
+
+  @Test
+  public void testUnknownCodeIsNotResolved() throws IOException {
+    // Given
+    loadCodes("P_OR_I1,P_OR_IX,false,true,true");
+
+    // When
+    FulfilmentCode actualCode = underTest.resolve("P_OR_I9");
+
+    // Then
+    assertThat(actualCode).isNull();
+  }
+
+  @Test
+  public void testIgnoredCodeDoesNotNeedFulfilmentType() throws IOException {
+    // Given
+    loadCodes("# Comment", "", "UACHHT1,,true,false,false");
+
+    // When
+    FulfilmentCode actualCode = underTest.resolve("UACHHT1");
+
+    // Then
+    assertThat(actualCode.isIgnored()).isTrue();
+    assertThat(actualCode.getFulfilmentType()).isNull();
+  }
+
+  @Test
+  public void testReloadPicksUpChangedCodes() throws IOException {
+    // Given
+    File codesFile = loadCodes("P_OR_I1,P_OR_IX,false,true,true");
+    rewriteCodes(codesFile, "P_OR_I1,P_UAC_IX,false,false,true");
+
+    // When
+    underTest.reload();
+
+    // Then
+    assertThat(underTest.resolve("P_OR_I1").getFulfilmentType()).isEqualTo(FulfilmentType.P_UAC_IX);
+  }
+
+  @Test
+  public void testFailedReloadKeepsExistingCodes() throws IOException {
+    // Given
+    File codesFile = loadCodes("P_OR_I1,P_OR_IX,false,true,true");
+    rewriteCodes(codesFile, "P_OR_I1,NOT_A_TYPE,false,true,true");
+
+    // When
+    underTest.reload();
+
+    // Then
+    assertThat(underTest.resolve("P_OR_I1").getFulfilmentType()).isEqualTo(FulfilmentType.P_OR_IX);
+  }
+
+  @Test
+  public void testUnchangedFileIsNotReread() throws IOException {
+    // Given
+    File codesFile = loadCodes("P_OR_I1,P_OR_IX,false,true,true");
+    Files.write(codesFile.toPath(), "P_OR_I1,P_UAC_IX,false,false,true\n".getBytes());
+    codesFile.setLastModified(LAST_MODIFIED);
+
+    // When
+    underTest.reload();
+
+    // Then
+    assertThat(underTest.resolve("P_OR_I1").getFulfilmentType()).isEqualTo(FulfilmentType.P_OR_IX);
+  }
+
+  @Test(expected = RuntimeException.class)
+  public void testDuplicateCodeIsRejected() throws IOException {
+    loadCodes("P_OR_I1,P_OR_IX,false,true,true", "P_OR_I1,P_OR_IX,false,true,true");
+  }
+
+  @Test(expected = RuntimeException.class)
+  public void testCodeWithoutFulfilmentTypeIsRejected() throws IOException {
+    loadCodes("P_OR_I1,,false,true,true");
+  }
+
+  private File loadCodes(String... lines) throws IOException {
+    File codesFile = temporaryFolder.newFile();
+    Files.write(codesFile.toPath(), (String.join("\n", lines) + "\n").getBytes());
+    codesFile.setLastModified(LAST_MODIFIED);
+    ReflectionTestUtils.setField(underTest, "location", new FileSystemResource(codesFile));
+    underTest.load();
+    return codesFile;
+  }
+
+  private void rewriteCodes(File codesFile, String line) throws IOException {
+    Files.write(codesFile.toPath(), (line + "\n").getBytes());
+    codesFile.setLastModified(LAST_MODIFIED + 1000);
+  }
+}
@@ -0,0 +1,170 @@
+package uk.gov.ons.census.action.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+public class FulfilmentPartitionManagerTest {
+  private static final DateTimeFormatter PARTITION_DAY = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+  private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+
+  private FulfilmentPartitionManager underTest;
+
+  @Before
+  public void setUp() {
+    underTest =
+        new FulfilmentPartitionManager(
+            jdbcTemplate, new TransactionTemplate(mock(PlatformTransactionManager.class)));
+    ReflectionTestUtils.setField(underTest, "daysAhead", 2);
+    ReflectionTestUtils.setField(underTest, "retentionDays", 30);
+    ReflectionTestUtils.setField(underTest, "archiveSchema", "actionv2_archive");
+    ReflectionTestUtils.setField(underTest, "lockTimeout", 5000);
+  }
+
+  @Test
+  public void testMaintainAddsMissingDaysAndArchivesOldOnes() {
+    // Given
+    LocalDate today = LocalDate.now(ZoneOffset.UTC);
+    when(jdbcTemplate.queryForObject(contains("pg_try_advisory_xact_lock"), eq(Boolean.class)))
+        .thenReturn(true);
+    when(jdbcTemplate.queryForList(contains("pg_inherits"), eq(String.class)))
+        .thenReturn(
+            List.of(
+                "fulfilment_to_process_pending",
+                partition(today.minusDays(40)),
+                partition(today.minusDays(1)),
+                partition(today)));
+
+    // When
+    underTest.maintain();
+
+    // Then
+    ArgumentCaptor<String> sqlCaptor = ArgumentCaptor.forClass(String.class);
+    verify(jdbcTemplate, atLeastOnce()).execute(sqlCaptor.capture());
+    assertThat(sqlCaptor.getAllValues())
+        .containsExactly(
+            "SET LOCAL lock_timeout = 5000",
+            "CREATE TABLE IF NOT EXISTS actionv2."
+                + partition(today.plusDays(1))
+                + " (LIKE actionv2.fulfilment_to_process INCLUDING DEFAULTS)",
+            "ALTER TABLE actionv2.fulfilment_to_process ATTACH PARTITION actionv2."
+                + partition(today.plusDays(1))
+                + " FOR VALUES FROM ('"
+                + today.plusDays(1)
+                + "') TO ('"
+                + today.plusDays(2)
+                + "')",
+            "CREATE TABLE IF NOT EXISTS actionv2."
+                + partition(today.plusDays(2))
+                + " (LIKE actionv2.fulfilment_to_process INCLUDING DEFAULTS)",
+            "ALTER TABLE actionv2.fulfilment_to_process ATTACH PARTITION actionv2."
+                + partition(today.plusDays(2))
+                + " FOR VALUES FROM ('"
+                + today.plusDays(2)
+                + "') TO ('"
+                + today.plusDays(3)
+                + "')",
+            "CREATE SCHEMA IF NOT EXISTS actionv2_archive",
+            "ALTER TABLE actionv2.fulfilment_to_process DETACH PARTITION actionv2."
+                + partition(today.minusDays(40)),
+            "ALTER TABLE actionv2."
+                + partition(today.minusDays(40))
+                + " SET SCHEMA actionv2_archive");
+  }
+
+  @Test
+  public void testMaintainDoesNothingWhenAnotherNodeHasTheLock() {
+    // Given
+    when(jdbcTemplate.queryForObject(contains("pg_try_advisory_xact_lock"), eq(Boolean.class)))
+        .thenReturn(false);
+
+    // When
+    underTest.maintain();
+
+    // Then
+    verify(jdbcTemplate, never()).queryForList(contains("pg_inherits"), eq(String.class));
+    verify(jdbcTemplate, never()).execute(anyString());
+  }
+
+  @Test
+  public void testInitPartitionsAPlainTable() {
+    // Given
+    when(jdbcTemplate.queryForList(contains("relkind"), eq(String.class))).thenReturn(List.of("r"));
+    when(jdbcTemplate.queryForList(contains("pg_inherits"), eq(String.class)))
+        .thenReturn(List.of("fulfilment_to_process_pending"));
+
+    // When
+    underTest.init();
+
+    // Then
+    ArgumentCaptor<String> sqlCaptor = ArgumentCaptor.forClass(String.class);
+    verify(jdbcTemplate, atLeastOnce()).execute(sqlCaptor.capture());
+    List<String> executedSql = sqlCaptor.getAllValues();
+    assertThat(executedSql.get(0)).startsWith("SELECT pg_advisory_xact_lock(");
+    assertThat(executedSql.get(1))
+        .isEqualTo(
+            "ALTER TABLE actionv2.fulfilment_to_process"
+                + " RENAME TO fulfilment_to_process_unpartitioned");
+    assertThat(executedSql)
+        .anyMatch(sql -> sql.contains("PRIMARY KEY (id, batch_day)"))
+        .anyMatch(sql -> sql.contains("PARTITION BY RANGE (batch_day)"))
+        .anyMatch(sql -> sql.contains(partition(LocalDate.now(ZoneOffset.UTC))));
+    assertThat(executedSql).contains("DROP TABLE actionv2.fulfilment_to_process_unpartitioned");
+  }
+
+  @Test
+  public void testInitPutsBatchedRowsInTheDayTheyWereBatched() {
+    // Given
+    LocalDate batchDay = LocalDate.now(ZoneOffset.UTC).minusDays(3);
+    when(jdbcTemplate.queryForList(contains("relkind"), eq(String.class))).thenReturn(List.of("r"));
+    when(jdbcTemplate.queryForList(contains("DISTINCT batch_day"), eq(LocalDate.class)))
+        .thenReturn(List.of(batchDay));
+
+    // When
+    underTest.init();
+
+    // Then
+    ArgumentCaptor<String> sqlCaptor = ArgumentCaptor.forClass(String.class);
+    verify(jdbcTemplate, atLeastOnce()).execute(sqlCaptor.capture());
+    List<String> executedSql = sqlCaptor.getAllValues();
+    assertThat(executedSql).noneMatch(sql -> sql.contains("now()"));
+    int backfill =
+        indexOf(executedSql, "SET batch_day = CAST(batched_at AT TIME ZONE 'UTC' AS date)");
+    int attach = indexOf(executedSql, "ATTACH PARTITION actionv2." + partition(batchDay));
+    int copy = indexOf(executedSql, "INSERT INTO actionv2.fulfilment_to_process");
+    assertThat(backfill).isNotNegative().isLessThan(attach);
+    assertThat(attach).isLessThan(copy);
+  }
+
+  private int indexOf(List<String> executedSql, String sqlFragment) {
+    for (int i = 0; i < executedSql.size(); i++) {
+      if (executedSql.get(i).contains(sqlFragment)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private String partition(LocalDate day) {
+    return "fulfilment_to_process_" + PARTITION_DAY.format(day);
+  }
+}
@@ -0,0 +1,136 @@
+package uk.gov.ons.census.action.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.UUID;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+import uk.gov.ons.census.action.metrics.MessageMetrics;
+import uk.gov.ons.census.action.model.dto.Event;
+import uk.gov.ons.census.action.model.dto.EventType;
+import uk.gov.ons.census.action.model.dto.FulfilmentRequestDTO;
+import uk.gov.ons.census.action.model.dto.ResponseManagementEvent;
+import uk.gov.ons.census.action.model.entity.ParkedFulfilment;
+import uk.gov.ons.census.action.model.repository.ParkedFulfilmentRepository;
+
+public class ParkedFulfilmentServiceTest {
+  private static final String ACTION_FULFILMENT_QUEUE = "action.fulfilment";
+
+  private final ParkedFulfilmentRepository parkedFulfilmentRepository =
+      mock(ParkedFulfilmentRepository.class);
+  private final MessageMetrics messageMetrics = mock(MessageMetrics.class);
+  private final RabbitTemplate rabbitTemplate = mock(RabbitTemplate.class);
+  private final ParkedFulfilmentService underTest =
+      new ParkedFulfilmentService(parkedFulfilmentRepository, messageMetrics, rabbitTemplate);
+
+  @Before
+  public void setUp() {
+    ReflectionTestUtils.setField(underTest, "actionFulfilmentQueue", ACTION_FULFILMENT_QUEUE);
+    ReflectionTestUtils.setField(underTest, "maximumAge", 3600L);
+    ReflectionTestUtils.setField(underTest, "expiryBatchSize", 100);
+  }
+
+  @Test
+  public void testOnlyRecentEventsCanBeParked() {
+    assertThat(underTest.canPark(makeEvent(OffsetDateTime.now().minusMinutes(59)))).isTrue();
+    assertThat(underTest.canPark(makeEvent(OffsetDateTime.now().minusMinutes(61)))).isFalse();
+    assertThat(underTest.canPark(makeEvent(null))).isTrue();
+  }
+
+  @Test
+  public void testExpiredFulfilmentIsSentBackInItsEvent() {
+    // Given
+    ParkedFulfilment parkedFulfilment = makeParkedFulfilment();
+    parkedFulfilment.setEvent(makeEvent(OffsetDateTime.now().minusHours(2)));
+    when(parkedFulfilmentRepository.expireParkedBefore(any(), eq(100)))
+        .thenReturn(List.of(parkedFulfilment));
+
+    // When
+    underTest.expireParkedFulfilments();
+
+    // Then
+    ResponseManagementEvent actualEvent = captureSentEvent();
+    assertThat(actualEvent.getEvent()).isSameAs(parkedFulfilment.getEvent());
+    assertThat(actualEvent.getPayload().getFulfilmentRequest())
+        .isSameAs(parkedFulfilment.getFulfilmentRequest());
+    assertThat(underTest.canPark(actualEvent.getEvent())).isFalse();
+    verify(messageMetrics).fulfilmentsExpired(1);
+  }
+
+  @Test
+  public void testExpiredFulfilmentWithoutEventTimeIsTooOldToParkAgain() {
+    // Given
+    ParkedFulfilment parkedFulfilment = makeParkedFulfilment();
+    when(parkedFulfilmentRepository.expireParkedBefore(any(), anyInt()))
+        .thenReturn(List.of(parkedFulfilment));
+
+    // When
+    underTest.expireParkedFulfilments();
+
+    // Then
+    ResponseManagementEvent actualEvent = captureSentEvent();
+    assertThat(actualEvent.getEvent().getType()).isEqualTo(EventType.FULFILMENT_REQUESTED);
+    assertThat(actualEvent.getEvent().getDateTime()).isEqualTo(parkedFulfilment.getParkedAt());
+    assertThat(underTest.canPark(actualEvent.getEvent())).isFalse();
+  }
+
+  @Test
+  public void testReparkedFulfilmentKeepsItsParkedTime() {
+    // Given
+    ParkedFulfilment releasedFulfilment = makeParkedFulfilment();
+    releasedFulfilment.setId(UUID.randomUUID());
+    releasedFulfilment.setEvent(makeEvent(OffsetDateTime.now().minusHours(2)));
+
+    // When
+    underTest.repark(releasedFulfilment);
+
+    // Then
+    ArgumentCaptor<ParkedFulfilment> parkedCaptor = ArgumentCaptor.forClass(ParkedFulfilment.class);
+    verify(parkedFulfilmentRepository).save(parkedCaptor.capture());
+    ParkedFulfilment actualParked = parkedCaptor.getValue();
+    assertThat(actualParked.getId()).isNull();
+    assertThat(actualParked.getCaseId()).isEqualTo(releasedFulfilment.getCaseId());
+    assertThat(actualParked.getFulfilmentRequest())
+        .isSameAs(releasedFulfilment.getFulfilmentRequest());
+    assertThat(actualParked.getEvent()).isSameAs(releasedFulfilment.getEvent());
+    assertThat(actualParked.getParkedAt()).isEqualTo(releasedFulfilment.getParkedAt());
+    verify(messageMetrics).fulfilmentsParked(1);
+  }
+
+  private ResponseManagementEvent captureSentEvent() {
+    ArgumentCaptor<ResponseManagementEvent> eventCaptor =
+        ArgumentCaptor.forClass(ResponseManagementEvent.class);
+    verify(rabbitTemplate)
+        .convertAndSend(eq(""), eq(ACTION_FULFILMENT_QUEUE), eventCaptor.capture());
+    return eventCaptor.getValue();
+  }
+
+  private ParkedFulfilment makeParkedFulfilment() {
+    FulfilmentRequestDTO fulfilmentRequest = new FulfilmentRequestDTO();
+    fulfilmentRequest.setCaseId(UUID.randomUUID());
+    fulfilmentRequest.setFulfilmentCode("P_OR_H1");
+    ParkedFulfilment parkedFulfilment = new ParkedFulfilment();
+    parkedFulfilment.setCaseId(fulfilmentRequest.getCaseId());
+    parkedFulfilment.setFulfilmentRequest(fulfilmentRequest);
+    parkedFulfilment.setParkedAt(OffsetDateTime.now().minusHours(2));
+    return parkedFulfilment;
+  }
+
+  private Event makeEvent(OffsetDateTime dateTime) {
+    Event event = new Event();
+    event.setType(EventType.FULFILMENT_REQUESTED);
+    event.setDateTime(dateTime);
+    return event;
+  }
+}
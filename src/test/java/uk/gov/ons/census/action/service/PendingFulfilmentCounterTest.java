@@ -0,0 +1,114 @@
+package uk.gov.ons.census.action.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import uk.gov.ons.census.action.model.entity.FulfilmentToProcess;
+import uk.gov.ons.census.action.model.entity.FulfilmentType;
+import uk.gov.ons.census.action.model.repository.PendingFulfilmentRepository;
+
+public class PendingFulfilmentCounterTest {
+  private static final OffsetDateTime ADDED_AT =
+      OffsetDateTime.of(2020, 5, 1, 9, 0, 0, 0, ZoneOffset.UTC);
+
+  private final PendingFulfilmentRepository pendingFulfilmentRepository =
+      mock(PendingFulfilmentRepository.class);
+  private final PendingFulfilmentCounter underTest =
+      new PendingFulfilmentCounter(pendingFulfilmentRepository);
+
+  @Before
+  public void setUp() {
+    ReflectionTestUtils.setField(underTest, "stripes", 4);
+  }
+
+  @After
+  public void tearDown() {
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.clearSynchronization();
+    }
+  }
+
+  @Test
+  public void testFulfilmentIsCountedStraightAwayWithoutTransaction() {
+    // Given
+    FulfilmentToProcess fulfilmentToProcess =
+        makeFulfilment("P_OR_H1", FulfilmentType.P_OR_HX, ADDED_AT);
+
+    // When
+    underTest.fulfilmentAdded(fulfilmentToProcess);
+
+    // Then
+    ArgumentCaptor<Integer> stripe = ArgumentCaptor.forClass(Integer.class);
+    verify(pendingFulfilmentRepository)
+        .fulfilmentsAdded(
+            eq("P_OR_H1"), eq(FulfilmentType.P_OR_HX), stripe.capture(), eq(1), eq(ADDED_AT));
+    assertThat(stripe.getValue()).isBetween(0, 3);
+  }
+
+  @Test
+  public void testFulfilmentsAreCountedPerCodeBeforeCommit() {
+    // Given
+    TransactionSynchronizationManager.initSynchronization();
+
+    // When
+    underTest.fulfilmentAdded(
+        makeFulfilment("P_OR_I1", FulfilmentType.P_OR_IX, ADDED_AT.plusSeconds(2)));
+    underTest.fulfilmentAdded(
+        makeFulfilment("P_OR_H1", FulfilmentType.P_OR_HX, ADDED_AT.plusSeconds(1)));
+    underTest.fulfilmentAdded(makeFulfilment("P_OR_I1", FulfilmentType.P_OR_IX, ADDED_AT));
+
+    // Then
+    verifyNoInteractions(pendingFulfilmentRepository);
+
+    for (TransactionSynchronization synchronization :
+        TransactionSynchronizationManager.getSynchronizations()) {
+      synchronization.beforeCommit(false);
+      synchronization.afterCompletion(TransactionSynchronization.STATUS_COMMITTED);
+    }
+
+    // The codes are always written in the same order, so transactions can't deadlock on them
+    ArgumentCaptor<Integer> stripe = ArgumentCaptor.forClass(Integer.class);
+    InOrder inOrder = inOrder(pendingFulfilmentRepository);
+    inOrder
+        .verify(pendingFulfilmentRepository)
+        .fulfilmentsAdded(
+            eq("P_OR_H1"),
+            eq(FulfilmentType.P_OR_HX),
+            stripe.capture(),
+            eq(1),
+            eq(ADDED_AT.plusSeconds(1)));
+    inOrder
+        .verify(pendingFulfilmentRepository)
+        .fulfilmentsAdded(eq("P_OR_I1"), eq(FulfilmentType.P_OR_IX), anyInt(), eq(2), eq(ADDED_AT));
+    inOrder.verifyNoMoreInteractions();
+
+    // The whole transaction writes to one stripe
+    verify(pendingFulfilmentRepository)
+        .fulfilmentsAdded(
+            eq("P_OR_I1"), eq(FulfilmentType.P_OR_IX), eq(stripe.getValue()), eq(2), eq(ADDED_AT));
+  }
+
+  private FulfilmentToProcess makeFulfilment(
+      String fulfilmentCode, FulfilmentType fulfilmentType, OffsetDateTime addedAt) {
+    FulfilmentToProcess fulfilmentToProcess = new FulfilmentToProcess();
+    fulfilmentToProcess.setFulfilmentCode(fulfilmentCode);
+    fulfilmentToProcess.setFulfilmentType(fulfilmentType);
+    fulfilmentToProcess.setAddedAt(addedAt);
+    return fulfilmentToProcess;
+  }
+}